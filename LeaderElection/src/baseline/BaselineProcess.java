@@ -1,9 +1,10 @@
 package baseline;
 
 import java.util.HashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
 
 import common.CostTracker;
+import common.Mailbox;
 import common.Message;
 import common.Message.MessageType;
 import common.MessageContent;
@@ -61,7 +62,7 @@ public class BaselineProcess extends Process {
 	 * @param costTracker	Global {@link CostTracker} object for tracking communication costs incurred by this process
 	 */
 	public BaselineProcess(int id, int[] allProcesses, HashMap<Integer, HashMap<Integer, Double>> costs,
-			HashMap<Integer, LinkedBlockingQueue<Message>> queues, LinkedBlockingQueue<Message> incomingMessages,
+			Map<Integer, Mailbox> queues, Mailbox incomingMessages,
 			CostTracker costTracker) {
 		super(id, allProcesses, costs, queues, incomingMessages, costTracker);
 		/* Select a random UUID */
@@ -81,11 +82,14 @@ public class BaselineProcess extends Process {
 	 */
 	@Override
 	public void broadcast(MessageType messageType, MessageContent mc) {
-		for (int i = 0; i < allProcesses.length; i++) {
-			if (allProcesses[i] != id) {
-				sendMessage(new Message(id, allProcesses[i], messageType, mc));
+		int count = 0;
+		for (int other : membership.members()) {
+			if (other != id) {
+				sendMessage(new Message(id, other, messageType, mc));
+				count++;
 			}
 		}
+		disseminationChildren = count;
 	}
 	/**
 	 * Query the leader by directly sending a message containing the desired contents
@@ -109,13 +113,16 @@ public class BaselineProcess extends Process {
 		sendMessage(new Message(id, leaderId, MessageType.MSG_QUERY_SIMPLE, mc));
 	}
 	/**
-	 * Triggers the leader election process by broadcasting this process's UUID to everyone. 
+	 * Triggers the leader election process by broadcasting this process's UUID to everyone,
+	 * unless this process already has. 
 	 * 
 	 * See also {@link Process#triggerLeaderElection()}. 
 	 */
 	@Override
 	public void triggerLeaderElection() {
-		broadcastUuidForElection();
+		if (!broadcastedUuid) {
+			broadcastUuidForElection();
+		}
 	}
 	/**
 	 * Broadcasts this process's UUID to all other processes during leader election. Each process should only
@@ -127,9 +134,9 @@ public class BaselineProcess extends Process {
 		broadcastedUuid = true;
 
 		/* Broadcast UUID to all */
-		for (int i = 0; i < allProcesses.length; i++) {
-			if (allProcesses[i] != id) {
-				sendMessage(new Message(id, allProcesses[i], MessageType.MSG_BASELINE_ELECT_LEADER, new BaselineMessageContent(uuid)));
+		for (int other : membership.members()) {
+			if (other != id) {
+				sendMessage(new Message(id, other, MessageType.MSG_BASELINE_ELECT_LEADER, new BaselineMessageContent(uuid)));
 			}
 		}
 	}
@@ -158,6 +165,8 @@ public class BaselineProcess extends Process {
 	 * @param m	The message received
 	 */
 	protected void processLeaderBroadcastSimple(Message m) {
+		/* Broadcasts come straight from the leader, so nobody is below us */
+		disseminationChildren = 0;
 		processLeaderBroadcastSimpleForReceiver(m);
 	}
 	/**
@@ -206,13 +215,13 @@ public class BaselineProcess extends Process {
 		}
 
 		numUuidsReceived++;
-		if (numUuidsReceived == allProcesses.length - 1) {
+		if (numUuidsReceived == membership.size() - 1) {
 			// We're done once we've seen leader election messages from all the other processes
 			/* Now, leaderId is the actual leader's ID */
 			if (leaderId == id) {
 				/* I'm the leader */
 				isLeader = true;
-				if (numLeaderAcksReceived == allProcesses.length - 1) {
+				if (numLeaderAcksReceived == membership.size() - 1) {
 					/*
 					 * Everyone also knows I'm the leader, so I can start acting
 					 * as such. Start the workload!
@@ -237,10 +246,12 @@ public class BaselineProcess extends Process {
 	 * on broadcasted UUIDs, then this process knows that everyone agrees
 	 * that it is the leader. Leader election thus terminates, and the
 	 * the actual workload for the system begins running.
+	 * 
+	 * @param m		the ack received
 	 */
-	protected void processMessageAckLeader() {
+	protected void processMessageAckLeader(Message m) {
 		numLeaderAcksReceived++;
-		if (numLeaderAcksReceived == allProcesses.length - 1 && isLeader) {
+		if (numLeaderAcksReceived == membership.size() - 1 && isLeader) {
 			/*
 			 * If everyone knows I'm the leader, including myself, then I can
 			 * act as leader. 
@@ -248,6 +259,53 @@ public class BaselineProcess extends Process {
 			startWorkloadSimple();
 		}
 	}
+	/**
+	 * Shut down by sending the kill message down a fan-out tree rooted at the leader,
+	 * rather than from the leader to everyone directly.
+	 * 
+	 * See also {@link Process#terminate()}.
+	 */
+	@Override
+	protected void terminate() {
+		killFanoutChildren();
+	}
+	/**
+	 * Pass the kill message on to this process's children in the fan-out tree,
+	 * before exiting.
+	 * 
+	 * See also {@link Process#processKill(Message)}.
+	 * 
+	 * @param m	The message received
+	 */
+	@Override
+	protected void processKill(Message m) {
+		killFanoutChildren();
+	}
+	/**
+	 * Send the kill message to this process's children in the fan-out tree. Processes 
+	 * are ranked by their position among the members, counting from the leader's
+	 * position, and the process of rank r is the parent of ranks r*f+1 through r*f+f,
+	 * where f is the configured fan-out.
+	 */
+	private void killFanoutChildren() {
+		int[] members = membership.members();
+		int n = members.length;
+		int fanout = config.killFanout;
+		int leaderPos = 0;
+		int myPos = 0;
+		for (int i = 0; i < n; i++) {
+			if (members[i] == leaderId) {
+				leaderPos = i;
+			}
+			if (members[i] == id) {
+				myPos = i;
+			}
+		}
+		int rank = (myPos - leaderPos + n) % n;
+		for (int child = rank * fanout + 1; child <= rank * fanout + fanout && child < n; child++) {
+			sendMessage(new Message(id, members[(leaderPos + child) % n], MessageType.MSG_KILL, null));
+		}
+	}
 	/**
 	 * Handler for all {@code MessageType}s specific to {@code BaselineProcess}.
 	 * Redirects to specific handler for the {@code MessageType}.
@@ -0,0 +1,122 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A pool of direct {@link ByteBuffer}s shared by all the threads of a
+ * simulation, used by {@link MessageCodec} so that encoding a message does
+ * not allocate a fresh off-heap buffer every time.
+ *
+ * Buffers are bucketed by power-of-two capacity. A buffer acquired from the
+ * pool should be handed back with {@link #release(ByteBuffer)} once the
+ * caller is done with it.
+ */
+public class BufferPool {
+
+	/**
+	 * Smallest capacity handed out, as a power of two (64 bytes)
+	 */
+	private static final int MIN_SHIFT = 6;
+
+	/**
+	 * Largest capacity that is pooled, as a power of two (16 MB). Larger
+	 * requests are served with an unpooled buffer.
+	 */
+	private static final int MAX_SHIFT = 24;
+
+	/**
+	 * Maximum number of idle buffers kept per size class
+	 */
+	private static final int MAX_IDLE = 64;
+
+	/**
+	 * The pool shared by everyone in this JVM
+	 */
+	private static final BufferPool SHARED = new BufferPool();
+
+	/**
+	 * Idle buffers, indexed by size class
+	 */
+	private ConcurrentLinkedQueue<ByteBuffer>[] free;
+
+	/**
+	 * Simple constructor
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool() {
+		free = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+		for (int i = 0; i < free.length; i++) {
+			free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return the JVM-wide pool
+	 */
+	public static BufferPool shared() {
+		return SHARED;
+	}
+
+	/**
+	 * The size class that a buffer of the given capacity falls into
+	 *
+	 * @param capacity
+	 *            the capacity needed
+	 * @return the size class, or -1 if it is too large to be pooled
+	 */
+	private static int sizeClass(int capacity) {
+		int shift = MIN_SHIFT;
+		while ((1 << shift) < capacity) {
+			shift++;
+			if (shift > MAX_SHIFT) {
+				return -1;
+			}
+		}
+		return shift - MIN_SHIFT;
+	}
+
+	/**
+	 * Get a cleared direct buffer with at least the given capacity
+	 *
+	 * @param capacity
+	 *            the number of bytes needed
+	 * @return the buffer, with position 0 and limit {@code capacity}
+	 */
+	public ByteBuffer acquire(int capacity) {
+		int c = sizeClass(capacity);
+		if (c < 0) {
+			return ByteBuffer.allocateDirect(capacity);
+		}
+		ByteBuffer buf = free[c].poll();
+		if (buf == null) {
+			buf = ByteBuffer.allocateDirect(1 << (c + MIN_SHIFT));
+		}
+		buf.clear();
+		buf.limit(capacity);
+		return buf;
+	}
+
+	/**
+	 * Hand a buffer back to the pool. Buffers that did not come from
+	 * {@link #acquire(int)} are ignored.
+	 *
+	 * @param buf
+	 *            the buffer being returned
+	 */
+	public void release(ByteBuffer buf) {
+		if (buf == null || !buf.isDirect()) {
+			return;
+		}
+		int cap = buf.capacity();
+		int c = sizeClass(cap);
+		if (c < 0 || (1 << (c + MIN_SHIFT)) != cap) {
+			return;
+		}
+		if (free[c].size() < MAX_IDLE) {
+			free[c].offer(buf);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+import common.ElectionRunner.Model;
+import util.DistanceMatrix;
+
+/**
+ * A compact binary snapshot of a converged election: the network it ran on,
+ * and the state each process needs for the workload, such as the leader and
+ * the MST. A simulation warm-started from a checkpoint skips the election and
+ * goes straight to broadcast and query.
+ *
+ * The file holds a header of a magic number, the format version, the model
+ * and the ids of the processes, then the cost of every edge once, then the
+ * state of each process in the order of the ids, as written by
+ * {@link Process#saveElection(Checkpoint)}.
+ */
+public class Checkpoint {
+	/**
+	 * Marks a file as a checkpoint
+	 */
+	private static final int MAGIC = 0x4c45434b;
+
+	/**
+	 * Version of the file format; bumped whenever the format changes
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Where the state is written to when saving, or null
+	 */
+	private DataOutputStream out;
+
+	/**
+	 * Where the state is read from when restoring, or null
+	 */
+	private DataInputStream in;
+
+	/**
+	 * The ids of the processes
+	 */
+	private int[] ids;
+
+	/**
+	 * The edge costs
+	 */
+	private HashMap<Integer, HashMap<Integer, Double>> costs;
+
+	/**
+	 * The last distance matrix written or read. Processes that hold the same
+	 * final matrix share one copy, so it is only written once.
+	 */
+	private DistanceMatrix lastMatrix;
+
+	/**
+	 * Private constructor, use {@link #save} or {@link #open}
+	 */
+	private Checkpoint() {
+	}
+
+	/**
+	 * The name of the file a model's checkpoint is kept in
+	 *
+	 * @param prefix
+	 *            the path the checkpoint files start with
+	 * @param model
+	 *            the model
+	 * @return the path of the file
+	 */
+	public static String path(String prefix, Model model) {
+		return prefix + "." + model.name().toLowerCase();
+	}
+
+	/**
+	 * Write the state of a simulation that has finished to a file. Must only be
+	 * called once every process has exited.
+	 *
+	 * @param path
+	 *            the file to write to
+	 * @param model
+	 *            the model simulated
+	 * @param ids
+	 *            the ids of the processes
+	 * @param costs
+	 *            the edge costs, as they were at the end of the simulation
+	 * @param processes
+	 *            the processes, in the order of {@code ids}
+	 */
+	public static void save(String path, Model model, int[] ids, HashMap<Integer, HashMap<Integer, Double>> costs,
+			List<Process> processes) {
+		Checkpoint cp = new Checkpoint();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			cp.out = out;
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(model.ordinal());
+			out.writeInt(ids.length);
+			for (int id : ids) {
+				out.writeInt(id);
+			}
+			for (int i = 0; i < ids.length; i++) {
+				for (int j = i + 1; j < ids.length; j++) {
+					out.writeDouble(costs.get(ids[i]).get(ids[j]));
+				}
+			}
+			for (Process p : processes) {
+				p.saveElection(cp);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read the header and edge costs of a checkpoint. The processes' state is
+	 * read by {@link #restore}, once they exist.
+	 *
+	 * @param path
+	 *            the file to read
+	 * @param model
+	 *            the model the checkpoint must be of
+	 * @return the checkpoint, ready to restore from
+	 * @throws IOException
+	 *             if the file cannot be read, or is not a checkpoint of this
+	 *             version and model
+	 */
+	public static Checkpoint open(String path, Model model) throws IOException {
+		Checkpoint cp = new Checkpoint();
+		cp.in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		if (cp.in.readInt() != MAGIC) {
+			cp.in.close();
+			throw new IOException(path + " is not a checkpoint");
+		}
+		int version = cp.in.readInt();
+		if (version != VERSION) {
+			cp.in.close();
+			throw new IOException("Unsupported checkpoint version " + version);
+		}
+		int ordinal = cp.in.readInt();
+		if (ordinal != model.ordinal()) {
+			cp.in.close();
+			throw new IOException(path + " is a checkpoint of " + Model.values()[ordinal] + ", not " + model);
+		}
+		int n = cp.in.readInt();
+		cp.ids = new int[n];
+		cp.costs = new HashMap<Integer, HashMap<Integer, Double>>();
+		for (int i = 0; i < n; i++) {
+			cp.ids[i] = cp.in.readInt();
+			cp.costs.put(cp.ids[i], new HashMap<Integer, Double>());
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				double cost = cp.in.readDouble();
+				cp.costs.get(cp.ids[i]).put(cp.ids[j], cost);
+				cp.costs.get(cp.ids[j]).put(cp.ids[i], cost);
+			}
+		}
+		return cp;
+	}
+
+	/**
+	 * Restore the state of every process, and close the file. Must be called
+	 * before the processes start running.
+	 *
+	 * @param processes
+	 *            the processes, in the order of {@link #getIds()}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public void restore(List<Process> processes) throws IOException {
+		try {
+			for (Process p : processes) {
+				p.restoreElection(this);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code ids}
+	 */
+	public int[] getIds() {
+		return ids;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code costs}
+	 */
+	public HashMap<Integer, HashMap<Integer, Double>> getCosts() {
+		return costs;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code out}, or null when restoring
+	 */
+	public DataOutputStream getOutput() {
+		return out;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code in}, or null when saving
+	 */
+	public DataInputStream getInput() {
+		return in;
+	}
+
+	/**
+	 * Write a distance matrix, or only a mark if it equals the last one
+	 * written.
+	 *
+	 * @param matrix
+	 *            the matrix, or null
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void writeMatrix(DistanceMatrix matrix) throws IOException {
+		if (matrix == null) {
+			out.writeByte(0);
+			return;
+		}
+		if (matrix.equals(lastMatrix)) {
+			out.writeByte(1);
+			return;
+		}
+		out.writeByte(2);
+		double[] dist = matrix.distances();
+		int[] hops = matrix.nextHops();
+		for (int k = 0; k < dist.length; k++) {
+			out.writeDouble(dist[k]);
+			out.writeInt(hops[k]);
+		}
+		lastMatrix = matrix;
+	}
+
+	/**
+	 * Read a distance matrix written by {@link #writeMatrix}. Matrices that
+	 * were written once are read back as one shared, interned copy.
+	 *
+	 * @return the matrix, or null
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public DistanceMatrix readMatrix() throws IOException {
+		byte mark = in.readByte();
+		if (mark == 0) {
+			return null;
+		}
+		if (mark == 1) {
+			return lastMatrix;
+		}
+		int n = ids.length;
+		DistanceMatrix matrix = new DistanceMatrix(ids);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				matrix.set(i, j, in.readDouble(), in.readInt());
+			}
+		}
+		lastMatrix = matrix.intern();
+		return lastMatrix;
+	}
+}
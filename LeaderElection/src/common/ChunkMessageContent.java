@@ -0,0 +1,65 @@
+package common;
+
+/**
+ * Content of a broadcast carrying a payload of raw bytes. Large payloads may be
+ * split into several chunks, each sent as its own message, so that processes
+ * along the way can forward a chunk as soon as it arrives instead of waiting
+ * for the whole payload.
+ */
+public class ChunkMessageContent extends MessageContent {
+	/**
+	 * Position of this chunk in the payload, starting from 0
+	 */
+	private int seq;
+
+	/**
+	 * Number of chunks the payload was split into
+	 */
+	private int total;
+
+	/**
+	 * The bytes of this chunk
+	 */
+	private byte[] data;
+
+	/**
+	 * Simple constructor
+	 *
+	 * @param seq
+	 * @param total
+	 * @param data
+	 */
+	public ChunkMessageContent(int seq, int total, byte[] data) {
+		super();
+		this.seq = seq;
+		this.total = total;
+		this.data = data;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code seq}
+	 */
+	public int getSeq() {
+		return seq;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code total}
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code data}
+	 */
+	public byte[] getData() {
+		return data;
+	}
+}
@@ -2,6 +2,8 @@ package common;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -13,11 +15,15 @@ public class CostTracker {
 	/**
 	 * What stage of the simulation we are in, as we track cost for them
 	 * separately Either we are incurring costs in the election of the leader, a
-	 * broadcast from the leader, or a query to the leader
+	 * broadcast from the leader, a query to the leader, or shutting down once 
+	 * the leader has all the queries. Repairing the MST after cost changes,
+	 * keeping the leader's lease alive, failing over to a new leader 
+	 * once it crashes, and taking in processes that join or leave are 
+	 * tracked on their own.
 	 *
 	 */
 	public enum Stage {
-		ELECTION, BROADCAST, QUERY
+		ELECTION, BROADCAST, QUERY, SHUTDOWN, REPAIR, LEASE, FAILOVER, MEMBERSHIP
 	}
 
 	/**
@@ -29,6 +35,26 @@ public class CostTracker {
 
 	private ConcurrentHashMap<Stage, ConcurrentHashMap<Integer, Integer>> counts;
 
+	/**
+	 * The encoded size of the messages sent, in bytes, stored the same way as
+	 * the costs
+	 */
+	private ConcurrentHashMap<Stage, ConcurrentHashMap<Integer, Long>> bytes;
+
+	/**
+	 * When the first message of each stage was sent, and when the last
+	 * message of each stage was handled, in {@link System#nanoTime()} terms.
+	 * The difference is the latency of the stage.
+	 */
+	private ConcurrentHashMap<Stage, Long> firstSent;
+	private ConcurrentHashMap<Stage, Long> lastReceived;
+
+	/**
+	 * Other named measurements reported by processes, such as how good the
+	 * placement of the leader turned out to be
+	 */
+	private ConcurrentHashMap<String, Double> metrics;
+
 	/**
 	 * Where the results should eventually be written
 	 */
@@ -45,6 +71,10 @@ public class CostTracker {
 	public CostTracker(int[] ids, String outfile) {
 		this.costs = new ConcurrentHashMap<Stage, ConcurrentHashMap<Integer, Double>>();
 		this.counts = new ConcurrentHashMap<Stage, ConcurrentHashMap<Integer, Integer>>();
+		this.bytes = new ConcurrentHashMap<Stage, ConcurrentHashMap<Integer, Long>>();
+		this.firstSent = new ConcurrentHashMap<Stage, Long>();
+		this.lastReceived = new ConcurrentHashMap<Stage, Long>();
+		this.metrics = new ConcurrentHashMap<String, Double>();
 		for (Stage s : Stage.values()) {
 			ConcurrentHashMap<Integer, Double> stageCosts = new ConcurrentHashMap<Integer, Double>();
 			for (Integer id : ids) {
@@ -56,6 +86,11 @@ public class CostTracker {
 				stageCounts.put(id, 0);
 			}
 			counts.put(s, stageCounts);
+			ConcurrentHashMap<Integer, Long> stageBytes = new ConcurrentHashMap<Integer, Long>();
+			for (Integer id : ids) {
+				stageBytes.put(id, 0L);
+			}
+			bytes.put(s, stageBytes);
 		}
 		this.outfile = outfile;
 	}
@@ -69,18 +104,70 @@ public class CostTracker {
 	 *            The processID registering this cost
 	 * @param cost
 	 *            The cost to be registered
+	 * @param size
+	 *            The size of the message in bytes
 	 */
-	public void registerCosts(Stage s, Integer processID, Double cost) {
+	public void registerCosts(Stage s, Integer processID, Double cost, int size) {
 		ConcurrentHashMap<Integer, Double> stageCosts = costs.get(s);
 		stageCosts.put(processID, stageCosts.get(processID) + cost);
 		costs.put(s, stageCosts);
 		ConcurrentHashMap<Integer, Integer> stageCounts = counts.get(s);
 		stageCounts.put(processID, stageCounts.get(processID) + 1);
 		counts.put(s, stageCounts);
+		ConcurrentHashMap<Integer, Long> stageBytes = bytes.get(s);
+		stageBytes.put(processID, stageBytes.get(processID) + size);
 	}
 
 	/**
-	 * Write out the costs to the designated file
+	 * Record that a message belonging to a stage is being sent now
+	 * 
+	 * @param s
+	 *            The stage of the message
+	 */
+	public void markSent(Stage s) {
+		firstSent.merge(s, System.nanoTime(), Math::min);
+	}
+
+	/**
+	 * Record that a message belonging to a stage is being handled now
+	 * 
+	 * @param s
+	 *            The stage of the message
+	 */
+	public void markReceived(Stage s) {
+		lastReceived.merge(s, System.nanoTime(), Math::max);
+	}
+
+	/**
+	 * Record a named measurement, replacing any earlier value
+	 * 
+	 * @param name
+	 *            What is being measured
+	 * @param value
+	 *            The measurement
+	 */
+	public void registerMetric(String name, double value) {
+		metrics.put(name, value);
+	}
+
+	/**
+	 * The total cost registered to a stage so far
+	 * 
+	 * @param s
+	 *            The stage
+	 * @return The cost
+	 */
+	public double getCost(Stage s) {
+		double sum = 0;
+		for (Double d : costs.get(s).values()) {
+			sum += d;
+		}
+		return sum;
+	}
+
+	/**
+	 * Write out the costs to the designated file, followed by any other
+	 * measurements in order of name
 	 */
 	public void dumpCosts() {
 		try (PrintWriter out = new PrintWriter(outfile)) {
@@ -99,6 +186,22 @@ public class CostTracker {
 				}
 				out.println("The counts for stage " + s.name() + " is: " + Integer.toString(sumCounts));
 			}
+			for (Stage s : Stage.values()) {
+				long sumBytes = 0;
+				for (Long b : bytes.get(s).values()) {
+					sumBytes += b;
+				}
+				out.println("The bytes for stage " + s.name() + " is: " + Long.toString(sumBytes));
+
+				double latency = 0;
+				if (firstSent.containsKey(s) && lastReceived.containsKey(s)) {
+					latency = (lastReceived.get(s) - firstSent.get(s)) / 1e6;
+				}
+				out.println("The latency in ms for stage " + s.name() + " is: " + Double.toString(latency));
+			}
+			for (Map.Entry<String, Double> e : new TreeMap<String, Double>(metrics).entrySet()) {
+				out.println("The " + e.getKey() + " is: " + Double.toString(e.getValue()));
+			}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -1,11 +1,21 @@
 package common;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import common.Message.MessageType;
 import shortestpath.ShortestPathProcess;
+import landmark.LandmarkProcess;
+import mst.BoruvkaProcess;
+import mst.HierarchicalProcess;
 import mst.MSTProcess;
+import oracle.Oracle;
 import baseline.BaselineProcess;
 
 /**
@@ -17,9 +27,28 @@ public class ElectionRunner {
 	 * What model we're running
 	 */
 	public enum Model {
-		BASELINE, MST, SHORTESTPATH
+		BASELINE, MST, SHORTESTPATH, LANDMARK, BORUVKA, HIERARCHICAL
 	}
 
+	/**
+	 * Which processes wake up to start the election: the first one, all of
+	 * them, a random few, or all of them at random times
+	 */
+	public enum WakeupPolicy {
+		FIRST, ALL, RANDOM, STAGGERED
+	}
+
+	/**
+	 * Edge costs are drawn uniformly between 0 and this
+	 */
+	public static final double MAX_COST = 10;
+
+	/**
+	 * The models whose output filenames the command line lists, in order
+	 */
+	private static final Model[] OUTFILE_MODELS = { Model.MST, Model.BASELINE, Model.SHORTESTPATH,
+			Model.LANDMARK, Model.BORUVKA, Model.HIERARCHICAL };
+
 	/**
 	 * Helper function for updating costs
 	 * 
@@ -61,6 +90,7 @@ public class ElectionRunner {
 				id = (int) (Math.random() * 1000);
 			}
 
+			seen.add(id);
 			ids[i] = id;
 		}
 		return ids;
@@ -79,7 +109,7 @@ public class ElectionRunner {
 
 		for (int i = 0; i < ids.length; i++) {
 			for (int j = 0; j < i; j++) {
-				double cost = Math.random() * 10;
+				double cost = Math.random() * MAX_COST;
 				costs = addToCosts(costs, ids[i], ids[j], cost);
 				costs = addToCosts(costs, ids[j], ids[i], cost);
 			}
@@ -88,63 +118,400 @@ public class ElectionRunner {
 		return costs;
 	}
 
+	/**
+	 * Randomly generate the IDs of spare processes, which may join a
+	 * simulation later, and their edge costs to every process and to each
+	 * other, adding them to the costs. Costs are symmetric.
+	 * 
+	 * @param ids
+	 *            the IDs of the processes there are already
+	 * @param costs
+	 *            the costs between them, to add to
+	 * @param count
+	 *            the number of spares wanted; fewer if IDs run out
+	 * @return the IDs of the spares
+	 */
+	private static int[] genSpares(int[] ids, HashMap<Integer, HashMap<Integer, Double>> costs, int count) {
+		HashSet<Integer> seen = new HashSet<Integer>();
+		for (int id : ids) {
+			seen.add(id);
+		}
+		int[] spares = new int[Math.max(0, Math.min(count, 1000 - ids.length))];
+		for (int i = 0; i < spares.length; i++) {
+			int id = (int) (Math.random() * 1000);
+			while (seen.contains(id)) {
+				id = (int) (Math.random() * 1000);
+			}
+			for (int other : seen) {
+				double cost = Math.random() * MAX_COST;
+				costs = addToCosts(costs, id, other, cost);
+				costs = addToCosts(costs, other, id, cost);
+			}
+			seen.add(id);
+			spares[i] = id;
+		}
+		return spares;
+	}
+
+	/**
+	 * Copy edge costs, so that one simulation can change them
+	 * 
+	 * @param costs
+	 *            the costs to copy
+	 * @return a copy that shares nothing with {@code costs}
+	 */
+	private static HashMap<Integer, HashMap<Integer, Double>> copyCosts(
+			HashMap<Integer, HashMap<Integer, Double>> costs) {
+		HashMap<Integer, HashMap<Integer, Double>> copy = new HashMap<Integer, HashMap<Integer, Double>>();
+		for (Integer i : costs.keySet()) {
+			copy.put(i, new HashMap<Integer, Double>(costs.get(i)));
+		}
+		return copy;
+	}
+
+	/**
+	 * The processes that have not crashed, and are members. A crashed leader
+	 * takes no further part, and neither do processes that left or never
+	 * joined, so checks and checkpoints only cover the processes left.
+	 *
+	 * @param processes
+	 *            the processes of a simulation, spares included
+	 * @param membership
+	 *            the members of the simulation
+	 * @return those that have not crashed, and are members
+	 */
+	private static ArrayList<Process> survivors(List<Process> processes, Membership membership) {
+		ArrayList<Process> survivors = new ArrayList<Process>();
+		for (Process p : processes) {
+			if (!p.hasCrashed() && membership.contains(p.getId())) {
+				survivors.add(p);
+			}
+		}
+		return survivors;
+	}
+
+	/**
+	 * The ids of some processes
+	 *
+	 * @param processes
+	 *            the processes
+	 * @return their ids, in the same order
+	 */
+	private static int[] idsOf(List<Process> processes) {
+		int[] ids = new int[processes.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = processes.get(i).getId();
+		}
+		return ids;
+	}
+
 	/**
 	 * Instantiate and run a simulation
 	 * 
 	 * @param ids
 	 *            the ids generated above
-	 * @param costs
-	 *            the randomly generated costs
+	 * @param generatedCosts
+	 *            the randomly generated costs, spares included
+	 * @param spares
+	 *            the ids of the spare processes, which may join later
 	 * @param m
 	 *            the model
 	 * @param outfile
 	 *            the outfile we should write results to
+	 * @param config
+	 *            the simulation parameters
+	 * @param warm
+	 *            the checkpoint to restore the election from instead of
+	 *            running it, or null
 	 */
-	private static void instantiateAndRun(int[] ids, HashMap<Integer, HashMap<Integer, Double>> costs, Model m,
-			String outfile) {
-		HashMap<Integer, LinkedBlockingQueue<Message>> queues = new HashMap<Integer, LinkedBlockingQueue<Message>>();
-		HashMap<Integer, Process> processes = new HashMap<Integer, Process>();
+	private static void instantiateAndRun(int[] ids, HashMap<Integer, HashMap<Integer, Double>> generatedCosts,
+			int[] spares, Model m, String outfile, SimulationConfig config, Checkpoint warm) {
+		// costs that change during the simulation must not leak into the others
+		HashMap<Integer, HashMap<Integer, Double>> costs = (config.costChanges > 0) ? copyCosts(generatedCosts)
+				: generatedCosts;
+		// mailboxes come and go as processes join and leave
+		Map<Integer, Mailbox> queues = new ConcurrentHashMap<Integer, Mailbox>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		ArrayList<Process> processes = new ArrayList<Process>();
 
 		for (int i = 0; i < ids.length; i++) {
-			queues.put(ids[i], new LinkedBlockingQueue<Message>());
+			queues.put(ids[i], new Mailbox(config));
 		}
+		Membership membership = new Membership(ids, queues);
 
-		CostTracker tracker = new CostTracker(ids, outfile);
+		int[] everyone = Arrays.copyOf(ids, ids.length + spares.length);
+		System.arraycopy(spares, 0, everyone, ids.length, spares.length);
+		CostTracker tracker = new CostTracker(everyone, outfile);
+		LinkModel linkModel = null;
+		if (config.linkModel) {
+			linkModel = new LinkModel(queues, costs, config);
+			linkModel.start();
+		}
 
-		for (int i = 0; i < ids.length; i++) {
+		// spares are not reachable until they join
+		for (int i = 0; i < everyone.length; i++) {
+			Mailbox mailbox = (i < ids.length) ? queues.get(everyone[i]) : new Mailbox(config);
 			Process curr = null;
 			switch (m) {
 			case MST:
-				curr = new MSTProcess(ids[i], ids, costs, queues, queues.get(ids[i]), tracker);
+				curr = new MSTProcess(everyone[i], ids, costs, queues, mailbox, tracker);
 				break;
 			case BASELINE:
-				curr = new BaselineProcess(ids[i], ids, costs, queues, queues.get(ids[i]), tracker);
+				curr = new BaselineProcess(everyone[i], ids, costs, queues, mailbox, tracker);
 				break;
 			case SHORTESTPATH:
-				curr = new ShortestPathProcess(ids[i], ids, costs, queues, queues.get(ids[i]), tracker);
+				curr = new ShortestPathProcess(everyone[i], ids, costs, queues, mailbox, tracker);
+				break;
+			case LANDMARK:
+				curr = new LandmarkProcess(everyone[i], ids, costs, queues, mailbox, tracker);
+				break;
+			case BORUVKA:
+				curr = new BoruvkaProcess(everyone[i], ids, costs, queues, mailbox, tracker);
 				break;
+			case HIERARCHICAL:
+				curr = new HierarchicalProcess(everyone[i], ids, costs, queues, mailbox, tracker);
+				break;
+			}
+			if (i >= ids.length) {
+				membership.addSpare(curr, mailbox);
 			}
-			(new Thread(curr)).start();
-			processes.put(ids[i], curr);
+			curr.setMembership(membership);
+			curr.setConfig(config);
+			curr.setLinkModel(linkModel);
+			processes.add(curr);
 		}
+		List<Process> initial = processes.subList(0, ids.length);
 
-		processes.get(ids[0]).triggerLeaderElection();
+		if (warm != null) {
+			try {
+				warm.restore(initial);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+		for (Process p : initial) {
+			Thread t = new Thread(p);
+			t.start();
+			threads.add(t);
+		}
+
+		Runnable oracleCheck = (config.oracle == Oracle.Mode.CHECK) ? () -> {
+			ArrayList<Process> survivors = survivors(processes, membership);
+			new Oracle(idsOf(survivors), costs).check(m, survivors, tracker, config);
+		} : null;
+		Runnable check = oracleCheck;
+		if (config.checkpoint != null) {
+			String path = Checkpoint.path(config.checkpoint, m);
+			check = () -> {
+				if (oracleCheck != null) {
+					oracleCheck.run();
+				}
+				ArrayList<Process> survivors = survivors(processes, membership);
+				Checkpoint.save(path, m, idsOf(survivors), costs, survivors);
+			};
+		}
+		if (warm != null) {
+			for (Process p : initial) {
+				if (p.isLeader()) {
+					startWarm(p.getId(), queues);
+				}
+			}
+		} else {
+			scheduleWakeups(ids, queues, config);
+		}
+		dumpCostsWhenDone(threads, membership, linkModel, tracker, check);
 	}
 
 	/**
-	 * Main driver method
+	 * Start the election by putting a {@code MSG_WAKEUP} in the mailboxes of the
+	 * processes chosen by the wakeup policy. With {@code WakeupPolicy.STAGGERED},
+	 * every process is woken up at a uniformly random time within the configured
+	 * spread, from a thread of its own.
+	 * 
+	 * @param ids
+	 *            the ids of the processes
+	 * @param queues
+	 *            the mailboxes of the processes
+	 * @param config
+	 *            the simulation parameters
+	 */
+	private static void scheduleWakeups(int[] ids, Map<Integer, Mailbox> queues, SimulationConfig config) {
+		int[] order = ids.clone();
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = (int) (Math.random() * (i + 1));
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		switch (config.wakeup) {
+		case FIRST:
+			wake(ids[0], queues);
+			break;
+		case ALL:
+			for (int id : ids) {
+				wake(id, queues);
+			}
+			break;
+		case RANDOM:
+			for (int i = 0; i < Math.min(config.wakeupCount, order.length); i++) {
+				wake(order[i], queues);
+			}
+			break;
+		case STAGGERED:
+			long[] at = new long[order.length];
+			for (int i = 0; i < at.length; i++) {
+				at[i] = (long) (Math.random() * config.wakeupSpreadMillis);
+			}
+			Arrays.sort(at);
+			Thread t = new Thread(() -> {
+				long start = System.currentTimeMillis();
+				try {
+					for (int i = 0; i < order.length; i++) {
+						long wait = start + at[i] - System.currentTimeMillis();
+						if (wait > 0) {
+							Thread.sleep(wait);
+						}
+						wake(order[i], queues);
+					}
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}, "wakeups");
+			t.setDaemon(true);
+			t.start();
+			break;
+		}
+	}
+
+	/**
+	 * Wake a process up by putting {@code MSG_WAKEUP} in its mailbox
+	 * 
+	 * @param id
+	 *            the process
+	 * @param queues
+	 *            the mailboxes of the processes
+	 */
+	private static void wake(int id, Map<Integer, Mailbox> queues) {
+		try {
+			queues.get(id).put(new Message(id, id, MessageType.MSG_WAKEUP, null));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Start the workload of a simulation restored from a checkpoint by putting
+	 * {@code MSG_WARM_START} in the leader's mailbox
+	 * 
+	 * @param leaderId
+	 *            the leader
+	 * @param queues
+	 *            the mailboxes of the processes
+	 */
+	private static void startWarm(int leaderId, Map<Integer, Mailbox> queues) {
+		try {
+			queues.get(leaderId).put(new Message(leaderId, leaderId, MessageType.MSG_WARM_START, null));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Write out the costs once every process of a simulation has exited, so that
+	 * shutting down is accounted for too, and stop its link model. Waits on its
+	 * own thread, so that simulations can run side by side.
+	 * 
+	 * @param threads
+	 *            the threads running the processes
+	 * @param membership
+	 *            the members of the simulation, whose joiners are waited
+	 *            for too
+	 * @param linkModel
+	 *            the simulation's link model, or null
+	 * @param tracker
+	 *            the simulation's cost tracker
+	 * @param check
+	 *            run once every process has exited, before the costs are
+	 *            written out, or null. Checks the outcome with the oracle,
+	 *            and saves the checkpoint.
+	 */
+	private static void dumpCostsWhenDone(ArrayList<Thread> threads, Membership membership, LinkModel linkModel,
+			CostTracker tracker, Runnable check) {
+		new Thread(() -> {
+			try {
+				for (Thread t : threads) {
+					t.join();
+				}
+				membership.awaitJoiners();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			if (linkModel != null) {
+				linkModel.stop();
+			}
+			if (check != null) {
+				check.run();
+			}
+			tracker.dumpCosts();
+		}).start();
+	}
+
+	/**
+	 * Main driver method. With {@code oracle=exact} or {@code oracle=analytic},
+	 * the {@link Oracle} writes estimated costs to the output files instead
+	 * of simulations running. With {@code warmStart}, each simulation runs on
+	 * the network saved in its model's checkpoint, whatever the number of
+	 * processes asked for.
 	 * 
 	 * @param args
 	 *            {@code args[0]} is the number of processes desired. {@args[1-3]} are 
 	 *            the output filenames ({@code outfiles}) for MST, baseline, and shortest
-	 *            path simulations, respectively.
+	 *            path simulations, respectively, optionally followed by ones for the
+	 *            landmark, Boruvka and hierarchical simulations, which only run if given. Any further
+	 *            arguments are {@code key=value} overrides of {@link SimulationConfig}.
 	 */
 	public static void main(String[] args) {
-		int[] ids = genIds(Integer.parseInt(args[0]));
+		int numProcesses = Integer.parseInt(args[0]);
+		int numOutfiles = 0;
+		while (numOutfiles < OUTFILE_MODELS.length && 1 + numOutfiles < args.length
+				&& args[1 + numOutfiles].indexOf('=') < 0) {
+			numOutfiles++;
+		}
+		SimulationConfig config = SimulationConfig.parse(args, 1 + numOutfiles);
+		if (config.oracle == Oracle.Mode.ANALYTIC) {
+			// no network is generated, so any number of processes will do
+			for (int i = 0; i < numOutfiles; i++) {
+				Oracle.analytic(OUTFILE_MODELS[i], numProcesses, config).dump(args[1 + i]);
+			}
+			return;
+		}
+		int[] ids = genIds(numProcesses);
 		HashMap<Integer, HashMap<Integer, Double>> costs = genCosts(ids);
-		instantiateAndRun(ids, costs, Model.MST, args[1]);
-		instantiateAndRun(ids, costs, Model.BASELINE, args[2]);
-		instantiateAndRun(ids, costs, Model.SHORTESTPATH, args[3]);	
+		int[] spares = genSpares(ids, costs, config.joins);
+		if (config.oracle == Oracle.Mode.EXACT) {
+			Oracle oracle = new Oracle(ids, costs);
+			for (int i = 0; i < numOutfiles; i++) {
+				oracle.expectedWorkloadCost(OUTFILE_MODELS[i], config).dump(args[1 + i]);
+			}
+			return;
+		}
+		for (int i = 0; i < numOutfiles; i++) {
+			if (config.warmStart == null) {
+				instantiateAndRun(ids, costs, spares, OUTFILE_MODELS[i], args[1 + i], config, null);
+				continue;
+			}
+			// the checkpoint brings its own network
+			try {
+				Checkpoint warm = Checkpoint.open(Checkpoint.path(config.warmStart, OUTFILE_MODELS[i]),
+						OUTFILE_MODELS[i]);
+				int[] warmSpares = genSpares(warm.getIds(), warm.getCosts(), config.joins);
+				instantiateAndRun(warm.getIds(), warm.getCosts(), warmSpares, OUTFILE_MODELS[i], args[1 + i], config,
+						warm);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		return;
 	}
 }
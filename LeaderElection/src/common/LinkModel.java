@@ -0,0 +1,199 @@
+package common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.Pair;
+
+/**
+ * A simulated network in which every edge has a propagation delay and a
+ * bandwidth derived from its cost. Instead of landing in the receiver's queue
+ * immediately, a message is scheduled to arrive once it has been transmitted
+ * over the edge and has propagated across it; a dispatcher thread hands it to
+ * the receiver when that time comes.
+ *
+ * Each directed edge transmits one message at a time, so messages on the same
+ * edge arrive in the order they were sent, as the MST algorithm requires.
+ */
+public class LinkModel implements Runnable {
+
+	/**
+	 * A message waiting to arrive
+	 */
+	private static class Delivery implements Delayed {
+		/**
+		 * The message in flight
+		 */
+		private Message m;
+		/**
+		 * When it arrives, in {@link System#nanoTime()} terms
+		 */
+		private long due;
+		/**
+		 * Order of scheduling, to break ties between messages due at once
+		 */
+		private long seq;
+
+		/**
+		 * Simple constructor
+		 *
+		 * @param m
+		 * @param due
+		 * @param seq
+		 */
+		Delivery(Message m, long due, long seq) {
+			this.m = m;
+			this.due = due;
+			this.seq = seq;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			Delivery other = (Delivery) o;
+			if (due != other.due) {
+				return due < other.due ? -1 : 1;
+			}
+			return Long.compare(seq, other.seq);
+		}
+	}
+
+	/**
+	 * Messages in flight, ordered by arrival time
+	 */
+	private DelayQueue<Delivery> inFlight;
+
+	/**
+	 * When each directed edge finishes transmitting what has been put on it
+	 * so far, in {@link System#nanoTime()} terms
+	 */
+	private ConcurrentHashMap<Pair, Long> busyUntil;
+
+	/**
+	 * Counter used to order deliveries
+	 */
+	private AtomicLong seq;
+
+	/**
+	 * Message queues of all processes, see {@link Process}
+	 */
+	private Map<Integer, Mailbox> queues;
+
+	/**
+	 * Edge costs, see {@link Process}
+	 */
+	private HashMap<Integer, HashMap<Integer, Double>> costs;
+
+	/**
+	 * Delay and bandwidth parameters
+	 */
+	private SimulationConfig config;
+
+	/**
+	 * Thread running the dispatcher loop, once started
+	 */
+	private Thread dispatcher;
+
+	/**
+	 * Constructor
+	 *
+	 * @param queues
+	 *            message queues of all processes
+	 * @param costs
+	 *            edge costs
+	 * @param config
+	 *            parameters translating costs into delay and bandwidth
+	 */
+	public LinkModel(Map<Integer, Mailbox> queues,
+			HashMap<Integer, HashMap<Integer, Double>> costs, SimulationConfig config) {
+		this.inFlight = new DelayQueue<Delivery>();
+		this.busyUntil = new ConcurrentHashMap<Pair, Long>();
+		this.seq = new AtomicLong();
+		this.queues = queues;
+		this.costs = costs;
+		this.config = config;
+	}
+
+	/**
+	 * Start delivering messages on a daemon thread
+	 */
+	public void start() {
+		dispatcher = new Thread(this, "link-model");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Stop delivering messages, once every process has exited. Messages still
+	 * in flight are dropped.
+	 */
+	public void stop() {
+		if (dispatcher != null) {
+			dispatcher.interrupt();
+		}
+	}
+
+	/**
+	 * Put a message on the wire. A message to oneself arrives immediately.
+	 *
+	 * @param m
+	 *            the message
+	 * @param bytes
+	 *            its size, see {@link MessageCodec#encodedSize(Message)}
+	 * @return how long until it arrives, in milliseconds
+	 */
+	public double send(Message m, int bytes) {
+		long now = System.nanoTime();
+		long due = now;
+		if (m.getSender() != m.getReceiver()) {
+			double cost = costs.get(m.getSender()).get(m.getReceiver());
+			Pair edge = new Pair(m.getSender(), m.getReceiver());
+			long start = Math.max(now, busyUntil.getOrDefault(edge, now));
+			long transmit = toNanos(bytes * cost / config.bytesPerMs);
+			busyUntil.put(edge, start + transmit);
+			due = start + transmit + toNanos(cost * config.msPerCostUnit);
+		}
+		inFlight.put(new Delivery(m, due, seq.getAndIncrement()));
+		return (due - now) / 1e6;
+	}
+
+	/**
+	 * Convert milliseconds to nanoseconds
+	 *
+	 * @param ms
+	 *            the duration
+	 * @return the duration in nanoseconds
+	 */
+	private static long toNanos(double ms) {
+		return (long) (ms * 1e6);
+	}
+
+	/**
+	 * Dispatcher loop: hand each message to its receiver once it arrives, until
+	 * interrupted by {@link #stop()}. A message to a process that has left by
+	 * then is lost.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Message m = inFlight.take().m;
+				Mailbox receiver = queues.get(m.getReceiver());
+				if (receiver != null) {
+					receiver.put(m);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+}
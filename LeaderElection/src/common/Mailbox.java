@@ -0,0 +1,166 @@
+package common;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import common.Message.MessageType;
+
+/**
+ * The incoming messages of a process, split into lanes by class of traffic so
+ * that small control messages are not stuck behind large or deferred ones.
+ * Each lane is FIFO. The owning process takes messages out of the lanes by
+ * weighted round robin: in every round, each lane may hand out up to its
+ * weight in messages, with higher priority lanes served first. Lanes with no
+ * work do not hold up the others.
+ *
+ * With the FIFO policy, every message goes to the same lane and the mailbox
+ * behaves as a single queue.
+ *
+ * Whatever the policy, heartbeats skip the lanes and are handed out before
+ * anything else: a lease must not run out on a live leader because its
+ * renewal is stuck behind a backlog of other work.
+ */
+public class Mailbox {
+
+	/**
+	 * Classes of traffic, in order of priority
+	 */
+	public enum Lane {
+		CONTROL, // termination and acknowledgements
+		ELECTION, // leader election protocol messages
+		WORKLOAD, // broadcasts and queries
+		BULK // large transfers, such as distance matrices
+	}
+
+	/**
+	 * The queue of each lane, indexed by {@link Lane#ordinal()}
+	 */
+	private LinkedBlockingQueue<Message>[] lanes;
+
+	/**
+	 * Heartbeats, handed out ahead of every lane
+	 */
+	private LinkedBlockingQueue<Message> heartbeats;
+
+	/**
+	 * How many messages each lane may hand out per round
+	 */
+	private int[] weights;
+
+	/**
+	 * How many messages each lane may still hand out in the current round.
+	 * Only touched by the owning process.
+	 */
+	private int[] credits;
+
+	/**
+	 * Whether messages are split into lanes at all
+	 */
+	private boolean prioritized;
+
+	/**
+	 * Constructor
+	 *
+	 * @param config
+	 *            the simulation parameters, giving the policy and lane
+	 *            weights
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Mailbox(SimulationConfig config) {
+		Lane[] all = Lane.values();
+		this.lanes = new LinkedBlockingQueue[all.length];
+		for (int i = 0; i < all.length; i++) {
+			lanes[i] = new LinkedBlockingQueue<Message>();
+		}
+		this.heartbeats = new LinkedBlockingQueue<Message>();
+		this.prioritized = config.prioritizedMailbox;
+		this.weights = config.laneWeights.clone();
+		this.credits = config.laneWeights.clone();
+	}
+
+	/**
+	 * The lane that messages of a given type travel in
+	 *
+	 * @param type
+	 *            the type of message
+	 * @return its lane
+	 */
+	public static Lane laneOf(MessageType type) {
+		switch (type) {
+		case MSG_WAKEUP:
+		case MSG_WARM_START:
+		case MSG_COST_CHANGE:
+		case MSG_MEMBER_JOIN:
+		case MSG_MEMBER_LEAVE:
+		case MSG_HEARTBEAT:
+		case MSG_KILL:
+		case MSG_QUIESCENT:
+		case MSG_ACK_LEADER:
+			return Lane.CONTROL;
+		case MSG_LEADER_BROADCAST_SIMPLE:
+		case MSG_QUERY_SIMPLE:
+			return Lane.WORKLOAD;
+		case MSG_PATH_PARTIAL:
+		case MSG_PATH_FINAL:
+		case MSG_MEMBER_PATHS:
+			return Lane.BULK;
+		default:
+			return Lane.ELECTION;
+		}
+	}
+
+	/**
+	 * Add a message to the back of its lane, or of the heartbeats
+	 *
+	 * @param m
+	 *            the message
+	 * @throws InterruptedException
+	 */
+	public void put(Message m) throws InterruptedException {
+		if (m.getType() == MessageType.MSG_HEARTBEAT) {
+			heartbeats.put(m);
+			return;
+		}
+		int lane = prioritized ? laneOf(m.getType()).ordinal() : 0;
+		lanes[lane].put(m);
+	}
+
+	/**
+	 * Take the next message according to the scheduling policy. Only the
+	 * owning process should call this.
+	 *
+	 * @return the message, or null if there is none
+	 */
+	public Message poll() {
+		Message heartbeat = heartbeats.poll();
+		if (heartbeat != null) {
+			return heartbeat;
+		}
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < lanes.length; i++) {
+				if (credits[i] > 0) {
+					Message m = lanes[i].poll();
+					if (m != null) {
+						credits[i]--;
+						return m;
+					}
+				}
+			}
+			/* Every lane with work has used up its share: start a new round */
+			System.arraycopy(weights, 0, credits, 0, weights.length);
+		}
+		return null;
+	}
+
+	/**
+	 * The number of messages waiting, across all lanes
+	 *
+	 * @return the number of messages
+	 */
+	public int size() {
+		int size = heartbeats.size();
+		for (LinkedBlockingQueue<Message> lane : lanes) {
+			size += lane.size();
+		}
+		return size;
+	}
+}
@@ -0,0 +1,176 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The processes that are members of a simulation at any moment, shared by all
+ * of its processes. Processes join by being admitted from a pool of spares
+ * that were set up along with the simulation, and leave by removing
+ * themselves. The {@link mst.MSTBase} protocols keep the MST and the shortest
+ * paths correct as they come and go, without electing again.
+ *
+ * Every process, whether it started out as a member or joined later, keeps a
+ * fixed position: the initial processes in order, followed by the spares in
+ * the order they were added. Positions decide how much a process queries the
+ * leader, see {@link Process#queryDemand()}.
+ */
+public class Membership {
+
+	/**
+	 * IDs of the current members, in the order they became members
+	 */
+	private ArrayList<Integer> members;
+
+	/**
+	 * Maps the ID of every process that is or may become a member to its
+	 * position
+	 */
+	private HashMap<Integer, Integer> positions;
+
+	/**
+	 * Message queues of all processes, see {@link Process}. Shared with the
+	 * processes, so must allow mailboxes to come and go while they send.
+	 */
+	private Map<Integer, Mailbox> queues;
+
+	/**
+	 * Spare processes not yet admitted, with their mailboxes, in order
+	 */
+	private ArrayList<Process> spares;
+	private ArrayList<Mailbox> spareMailboxes;
+
+	/**
+	 * Threads running the processes admitted so far
+	 */
+	private ArrayList<Thread> joiners;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ids
+	 *            the IDs of the initial members
+	 * @param queues
+	 *            message queues of all processes, with those of the initial
+	 *            members in place
+	 */
+	public Membership(int[] ids, Map<Integer, Mailbox> queues) {
+		this.members = new ArrayList<Integer>();
+		this.positions = new HashMap<Integer, Integer>();
+		for (int id : ids) {
+			members.add(id);
+			positions.put(id, positions.size());
+		}
+		this.queues = queues;
+		this.spares = new ArrayList<Process>();
+		this.spareMailboxes = new ArrayList<Mailbox>();
+		this.joiners = new ArrayList<Thread>();
+	}
+
+	/**
+	 * Add a spare process, to be admitted later. Must be called before the
+	 * simulation starts.
+	 *
+	 * @param p
+	 *            the process, not yet running
+	 * @param mailbox
+	 *            its incoming messages
+	 */
+	public void addSpare(Process p, Mailbox mailbox) {
+		positions.put(p.getId(), positions.size());
+		spares.add(p);
+		spareMailboxes.add(mailbox);
+	}
+
+	/**
+	 * Admit the next spare process: make its mailbox reachable, make it a
+	 * member, and start running it.
+	 *
+	 * @return its ID, or {@code Process.ID_NONE} if there are no spares left
+	 */
+	public synchronized int admit() {
+		if (spares.isEmpty()) {
+			return Process.ID_NONE;
+		}
+		Process p = spares.remove(0);
+		queues.put(p.getId(), spareMailboxes.remove(0));
+		members.add(p.getId());
+		Thread t = new Thread(p);
+		t.start();
+		joiners.add(t);
+		return p.getId();
+	}
+
+	/**
+	 * Remove a member that is leaving. Messages still on their way to it are
+	 * lost.
+	 *
+	 * @param id
+	 *            the member
+	 */
+	public synchronized void remove(int id) {
+		members.remove(Integer.valueOf(id));
+		queues.remove(id);
+	}
+
+	/**
+	 * The current members
+	 *
+	 * @return their IDs, in the order they became members
+	 */
+	public synchronized int[] members() {
+		int[] ids = new int[members.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = members.get(i);
+		}
+		return ids;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return the number of current members
+	 */
+	public synchronized int size() {
+		return members.size();
+	}
+
+	/**
+	 * Whether a process is a current member
+	 *
+	 * @param id
+	 *            the process
+	 * @return whether it is a member
+	 */
+	public synchronized boolean contains(int id) {
+		return members.contains(id);
+	}
+
+	/**
+	 * The fixed position of a process, whether or not it is a member
+	 *
+	 * @param id
+	 *            the process
+	 * @return its position
+	 */
+	public int position(int id) {
+		return positions.get(id);
+	}
+
+	/**
+	 * Wait for every process admitted so far to exit
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void awaitJoiners() throws InterruptedException {
+		ArrayList<Thread> started;
+		synchronized (this) {
+			started = new ArrayList<Thread>(joiners);
+		}
+		for (Thread t : started) {
+			t.join();
+		}
+	}
+}
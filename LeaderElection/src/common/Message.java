@@ -9,11 +9,11 @@ public class Message {
 	/**
 	 * What type of message this is. All types across the various simulations
 	 * are defined in this enum type, being split into common, baseline, mst,
-	 * and shortest path types as indicated by their prefixes.
+	 * shortest path, landmark, repair, failover, hierarchy and membership types as indicated by their prefixes.
 	 */
 	public enum MessageType {
 		/* common */
-		MSG_ACK_LEADER, MSG_LEADER_BROADCAST_SIMPLE, MSG_QUERY_SIMPLE, MSG_KILL,
+		MSG_WAKEUP, MSG_ACK_LEADER, MSG_LEADER_BROADCAST_SIMPLE, MSG_QUERY_SIMPLE, MSG_QUIESCENT, MSG_KILL, MSG_WARM_START,
 
 		/* baseline */
 		MSG_BASELINE_ELECT_LEADER,
@@ -23,6 +23,27 @@ public class Message {
 
 		/* path */
 		MSG_PATH_PARTIAL, MSG_PATH_FINAL,
+
+		/* landmark */
+		MSG_LANDMARK_DISTANCE, MSG_LANDMARK_SIGNAL, MSG_LANDMARK_COLLECT, MSG_LANDMARK_ESTIMATE, MSG_LANDMARK_LEADER,
+
+		/* repair */
+		MSG_COST_CHANGE, MSG_REPAIR_UP, MSG_REPAIR_SWAP, MSG_REPAIR_RELINK, MSG_REPAIR_ATTACH, MSG_REPAIR_SPLIT,
+		MSG_REPAIR_SPLIT_ACK, MSG_REPAIR_SEARCH, MSG_REPAIR_TEST, MSG_REPAIR_ANSWER, MSG_REPAIR_REPORT, MSG_REPAIR_DONE,
+
+		/* failover */
+		MSG_HEARTBEAT, MSG_FAILOVER_SEARCH, MSG_FAILOVER_TEST, MSG_FAILOVER_ANSWER, MSG_FAILOVER_REPORT,
+		MSG_FAILOVER_CANDIDATES, MSG_FAILOVER_ATTACH, MSG_FAILOVER_RELINK, MSG_FAILOVER_JOIN, MSG_FAILOVER_JOINED,
+		MSG_FAILOVER_LEADER, MSG_FAILOVER_ACK, MSG_FAILOVER_CANCEL,
+
+		/* hierarchy */
+		MSG_CLUSTER_FORM, MSG_CLUSTER_SIZE, MSG_CLUSTER_LEAD,
+
+		/* membership */
+		MSG_MEMBER_JOIN, MSG_MEMBER_HELLO, MSG_MEMBER_ADD, MSG_MEMBER_MERGE, MSG_MEMBER_SETTLE, MSG_MEMBER_LINK,
+		MSG_MEMBER_LINKED, MSG_MEMBER_SETTLED, MSG_MEMBER_ORIENT, MSG_MEMBER_ORIENTED, MSG_MEMBER_LEAVE,
+		MSG_MEMBER_SEARCH, MSG_MEMBER_TEST, MSG_MEMBER_ANSWER, MSG_MEMBER_REPORT, MSG_MEMBER_ATTACH, MSG_MEMBER_GONE,
+		MSG_MEMBER_PATHS,
 	}
 
 	/**
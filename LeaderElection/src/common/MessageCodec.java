@@ -0,0 +1,716 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import baseline.BaselineMessageContent;
+import common.Message.MessageType;
+import landmark.LandmarkMessageContent;
+import mst.MSTMessageContent;
+import shortestpath.RouteMessageContent;
+import shortestpath.ShortestPathMessageContent;
+import util.DistanceMatrix;
+import util.MatrixDelta;
+
+/**
+ * A versioned binary codec for {@link Message}s and every kind of
+ * {@link MessageContent} used by the simulations. This gives messages a real
+ * size in bytes, and lets them leave the JVM.
+ *
+ * The wire format is a version byte, followed by the message type, sender and
+ * receiver as varints, followed by a kind byte and the content:
+ * <ul>
+ * <li>plain content: the body as length-prefixed UTF-8</li>
+ * <li>baseline content: the sender's UUID as a varint</li>
+ * <li>MST content: the argument count plus one, 0 if absent, then one bit
+ * per argument, eight to a byte, set if the argument is a whole number, then
+ * each argument: whole numbers, such as ids and levels, as zigzag varints, and
+ * anything else as a double</li>
+ * <li>shortest path content: the ids of the matrix in index order, delta
+ * encoded, then every distance row by row, then every next hop row by row as
+ * a dense index. Distances are packed as floats when that loses nothing, and
+ * as doubles otherwise.</li>
+ * <li>shortest path delta: the matrix size and the number of cells, then the
+ * gaps between the positions of successive cells, then their distances packed
+ * as above, then their next hops</li>
+ * <li>both kinds of shortest path content end with the query rates known to
+ * the sender, as a count plus one followed by the doubles; 0 if absent</li>
+ * <li>route content: the leader as a varint, then the number of nodes and
+ * each node's next hop as a dense index</li>
+ * <li>landmark content: the round as a varint, then the distances as a
+ * count plus one followed by the doubles</li>
+ * <li>quiescence content: the query count as a varint</li>
+ * <li>query content: the origin as a varint, then its query rate as a
+ * double, then the body as above</li>
+ * <li>chunk content: the chunk's position and the number of chunks as
+ * varints, then its length-prefixed bytes</li>
+ * </ul>
+ *
+ * Encoding writes into a direct buffer taken from {@link BufferPool}, which
+ * should be released once the bytes have been consumed.
+ */
+public class MessageCodec {
+
+	/**
+	 * The current version of the wire format
+	 */
+	public static final int VERSION = 6;
+
+	/**
+	 * Tags for the kinds of content that can follow the header
+	 */
+	private static final int KIND_NONE = 0;
+	private static final int KIND_PLAIN = 1;
+	private static final int KIND_BASELINE = 2;
+	private static final int KIND_MST = 3;
+	private static final int KIND_PATH = 4;
+	private static final int KIND_QUIESCENCE = 5;
+	private static final int KIND_CHUNK = 6;
+	private static final int KIND_PATH_DELTA = 7;
+	private static final int KIND_ROUTE = 8;
+	private static final int KIND_QUERY = 9;
+	private static final int KIND_LANDMARK = 10;
+
+	/**
+	 * Flag set if the distances of a matrix were packed as floats
+	 */
+	private static final int FLAG_FLOAT = 1;
+
+	// ENCODING ////////////////////////////////////////////////////////////
+
+	/**
+	 * Encode a message into a pooled direct buffer
+	 *
+	 * @param m
+	 *            the message to encode
+	 * @return a buffer ready to be read, holding exactly the encoded message.
+	 *         Hand it back with {@link BufferPool#release(ByteBuffer)}.
+	 */
+	public static ByteBuffer encode(Message m) {
+		boolean useFloat = floatSafe(m.getContent());
+		ByteBuffer buf = BufferPool.shared().acquire(headerSize(m) + contentSize(m.getContent(), useFloat));
+		buf.put((byte) VERSION);
+		putVarInt(buf, m.getType().ordinal());
+		putSignedVarInt(buf, m.getSender());
+		putSignedVarInt(buf, m.getReceiver());
+		putContent(buf, m.getContent(), useFloat);
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * The number of bytes that {@link #encode(Message)} would produce, without
+	 * writing anything
+	 *
+	 * @param m
+	 *            the message
+	 * @return its encoded size
+	 */
+	public static int encodedSize(Message m) {
+		MessageContent mc = m.getContent();
+		return headerSize(m) + contentSize(mc, floatSafe(mc));
+	}
+
+	/**
+	 * Size of the version byte and the varint header fields
+	 *
+	 * @param m
+	 *            the message
+	 * @return the header size
+	 */
+	private static int headerSize(Message m) {
+		return 1 + varIntSize(m.getType().ordinal()) + varIntSize(zigzag(m.getSender()))
+				+ varIntSize(zigzag(m.getReceiver()));
+	}
+
+	/**
+	 * Whether every distance in this content's matrix survives a round trip
+	 * through a float. Random edge costs almost never do, so their matrices
+	 * go as doubles; whole-number costs do.
+	 *
+	 * @param mc
+	 *            the content
+	 * @return true if the distances can be packed as floats; false if they
+	 *         can't, or there is no matrix
+	 */
+	private static boolean floatSafe(MessageContent mc) {
+		if (!(mc instanceof ShortestPathMessageContent)) {
+			return false;
+		}
+		ShortestPathMessageContent spmc = (ShortestPathMessageContent) mc;
+		double[] dist = (spmc.getDelta() != null) ? spmc.getDelta().getDist() : spmc.getPaths().distances();
+		for (double d : dist) {
+			if ((double) (float) d != d) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Size of the kind byte and the content that follows it
+	 *
+	 * @param mc
+	 *            the content
+	 * @param useFloat
+	 *            whether distances are packed as floats, for shortest path
+	 *            content
+	 * @return the content size
+	 */
+	private static int contentSize(MessageContent mc, boolean useFloat) {
+		if (mc == null) {
+			return 1;
+		} else if (mc instanceof BaselineMessageContent) {
+			return 1 + varIntSize(zigzag(((BaselineMessageContent) mc).getUuid()));
+		} else if (mc instanceof QueryMessageContent) {
+			return 1 + varIntSize(zigzag(((QueryMessageContent) mc).getOrigin())) + 8 + stringSize(mc.getBody());
+		} else if (mc instanceof QuiescenceMessageContent) {
+			return 1 + varIntSize(((QuiescenceMessageContent) mc).getQueries());
+		} else if (mc instanceof ChunkMessageContent) {
+			ChunkMessageContent chunk = (ChunkMessageContent) mc;
+			int len = chunk.getData().length;
+			return 1 + varIntSize(chunk.getSeq()) + varIntSize(chunk.getTotal()) + varIntSize(len) + len;
+		} else if (mc instanceof RouteMessageContent) {
+			RouteMessageContent route = (RouteMessageContent) mc;
+			int size = 1 + varIntSize(zigzag(route.getLeaderId())) + varIntSize(route.getNextHops().length);
+			for (int hop : route.getNextHops()) {
+				size += varIntSize(hop + 1);
+			}
+			return size;
+		} else if (mc instanceof LandmarkMessageContent) {
+			LandmarkMessageContent landmark = (LandmarkMessageContent) mc;
+			return 1 + varIntSize(landmark.getRound()) + doublesSize(landmark.getDistances());
+		} else if (mc instanceof MSTMessageContent) {
+			return 1 + argsSize(((MSTMessageContent) mc).getArgs());
+		} else if (mc instanceof ShortestPathMessageContent && ((ShortestPathMessageContent) mc).getDelta() != null) {
+			MatrixDelta delta = ((ShortestPathMessageContent) mc).getDelta();
+			int size = 1 + varIntSize(delta.getN()) + varIntSize(delta.size()) + 1 + delta.size() * (useFloat ? 4 : 8);
+			int last = -1;
+			for (int c : delta.getCells()) {
+				size += varIntSize(c - last - 1);
+				last = c;
+			}
+			for (int hop : delta.getNext()) {
+				size += varIntSize(hop + 1);
+			}
+			return size + doublesSize(((ShortestPathMessageContent) mc).getRates());
+		} else if (mc instanceof ShortestPathMessageContent) {
+			DistanceMatrix pd = ((ShortestPathMessageContent) mc).getPaths();
+			int n = pd.size();
+			int size = 1 + varIntSize(n) + 1 + n * n * (useFloat ? 4 : 8);
+			int prev = 0;
+			for (int id : pd.getIds()) {
+				size += varIntSize(zigzag(id - prev));
+				prev = id;
+			}
+			for (int hop : pd.nextHops()) {
+				size += varIntSize(hop + 1);
+			}
+			return size + doublesSize(((ShortestPathMessageContent) mc).getRates());
+		} else {
+			return 1 + stringSize(mc.getBody());
+		}
+	}
+
+	/**
+	 * Write the kind byte and the content
+	 *
+	 * @param buf
+	 *            where to write
+	 * @param mc
+	 *            the content
+	 * @param useFloat
+	 *            whether distances are packed as floats, for shortest path
+	 *            content
+	 */
+	private static void putContent(ByteBuffer buf, MessageContent mc, boolean useFloat) {
+		if (mc == null) {
+			buf.put((byte) KIND_NONE);
+		} else if (mc instanceof BaselineMessageContent) {
+			buf.put((byte) KIND_BASELINE);
+			putSignedVarInt(buf, ((BaselineMessageContent) mc).getUuid());
+		} else if (mc instanceof QueryMessageContent) {
+			buf.put((byte) KIND_QUERY);
+			putSignedVarInt(buf, ((QueryMessageContent) mc).getOrigin());
+			buf.putDouble(((QueryMessageContent) mc).getRate());
+			putString(buf, mc.getBody());
+		} else if (mc instanceof QuiescenceMessageContent) {
+			buf.put((byte) KIND_QUIESCENCE);
+			putVarInt(buf, ((QuiescenceMessageContent) mc).getQueries());
+		} else if (mc instanceof ChunkMessageContent) {
+			ChunkMessageContent chunk = (ChunkMessageContent) mc;
+			buf.put((byte) KIND_CHUNK);
+			putVarInt(buf, chunk.getSeq());
+			putVarInt(buf, chunk.getTotal());
+			putVarInt(buf, chunk.getData().length);
+			buf.put(chunk.getData());
+		} else if (mc instanceof RouteMessageContent) {
+			RouteMessageContent route = (RouteMessageContent) mc;
+			buf.put((byte) KIND_ROUTE);
+			putSignedVarInt(buf, route.getLeaderId());
+			putVarInt(buf, route.getNextHops().length);
+			for (int hop : route.getNextHops()) {
+				putVarInt(buf, hop + 1);
+			}
+		} else if (mc instanceof LandmarkMessageContent) {
+			LandmarkMessageContent landmark = (LandmarkMessageContent) mc;
+			buf.put((byte) KIND_LANDMARK);
+			putVarInt(buf, landmark.getRound());
+			putDoubles(buf, landmark.getDistances());
+		} else if (mc instanceof MSTMessageContent) {
+			buf.put((byte) KIND_MST);
+			putArgs(buf, ((MSTMessageContent) mc).getArgs());
+		} else if (mc instanceof ShortestPathMessageContent && ((ShortestPathMessageContent) mc).getDelta() != null) {
+			buf.put((byte) KIND_PATH_DELTA);
+			MatrixDelta delta = ((ShortestPathMessageContent) mc).getDelta();
+			putVarInt(buf, delta.getN());
+			putVarInt(buf, delta.size());
+			buf.put((byte) (useFloat ? FLAG_FLOAT : 0));
+			int last = -1;
+			for (int c : delta.getCells()) {
+				putVarInt(buf, c - last - 1);
+				last = c;
+			}
+			for (double d : delta.getDist()) {
+				if (useFloat) {
+					buf.putFloat((float) d);
+				} else {
+					buf.putDouble(d);
+				}
+			}
+			for (int hop : delta.getNext()) {
+				putVarInt(buf, hop + 1);
+			}
+			putDoubles(buf, ((ShortestPathMessageContent) mc).getRates());
+		} else if (mc instanceof ShortestPathMessageContent) {
+			buf.put((byte) KIND_PATH);
+			DistanceMatrix pd = ((ShortestPathMessageContent) mc).getPaths();
+			putVarInt(buf, pd.size());
+			int prev = 0;
+			for (int id : pd.getIds()) {
+				putSignedVarInt(buf, id - prev);
+				prev = id;
+			}
+			buf.put((byte) (useFloat ? FLAG_FLOAT : 0));
+			for (double d : pd.distances()) {
+				if (useFloat) {
+					buf.putFloat((float) d);
+				} else {
+					buf.putDouble(d);
+				}
+			}
+			/* shifted by one so that a missing hop is a single zero byte */
+			for (int hop : pd.nextHops()) {
+				putVarInt(buf, hop + 1);
+			}
+			putDoubles(buf, ((ShortestPathMessageContent) mc).getRates());
+		} else {
+			buf.put((byte) KIND_PLAIN);
+			putString(buf, mc.getBody());
+		}
+	}
+
+	// DECODING ////////////////////////////////////////////////////////////
+
+	/**
+	 * Decode a message previously written by {@link #encode(Message)}
+	 *
+	 * @param buf
+	 *            the buffer, positioned at the start of the message. On
+	 *            return it is positioned just after it.
+	 * @return the decoded message
+	 */
+	public static Message decode(ByteBuffer buf) {
+		int version = buf.get();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported message codec version " + version);
+		}
+		MessageType type = MessageType.values()[getVarInt(buf)];
+		int sender = getSignedVarInt(buf);
+		int receiver = getSignedVarInt(buf);
+		return new Message(sender, receiver, type, getContent(buf));
+	}
+
+	/**
+	 * Read the kind byte and the content that follows it
+	 *
+	 * @param buf
+	 *            where to read from
+	 * @return the content, or null
+	 */
+	private static MessageContent getContent(ByteBuffer buf) {
+		int kind = buf.get();
+		switch (kind) {
+		case KIND_NONE:
+			return null;
+		case KIND_PLAIN:
+			return new MessageContent(getString(buf));
+		case KIND_BASELINE:
+			return new BaselineMessageContent(getSignedVarInt(buf));
+		case KIND_QUERY: {
+			int origin = getSignedVarInt(buf);
+			double rate = buf.getDouble();
+			return new QueryMessageContent(origin, rate, getString(buf));
+		}
+		case KIND_QUIESCENCE:
+			return new QuiescenceMessageContent(getVarInt(buf));
+		case KIND_CHUNK: {
+			int seq = getVarInt(buf);
+			int total = getVarInt(buf);
+			byte[] data = new byte[getVarInt(buf)];
+			buf.get(data);
+			return new ChunkMessageContent(seq, total, data);
+		}
+		case KIND_MST:
+			return new MSTMessageContent(getArgs(buf));
+		case KIND_PATH: {
+			int n = getVarInt(buf);
+			int[] ids = new int[n];
+			int prev = 0;
+			for (int i = 0; i < n; i++) {
+				ids[i] = prev + getSignedVarInt(buf);
+				prev = ids[i];
+			}
+			boolean useFloat = (buf.get() & FLAG_FLOAT) != 0;
+			DistanceMatrix pd = new DistanceMatrix(ids);
+			double[] dist = pd.distances();
+			for (int c = 0; c < n * n; c++) {
+				dist[c] = useFloat ? buf.getFloat() : buf.getDouble();
+			}
+			int[] next = pd.nextHops();
+			for (int c = 0; c < n * n; c++) {
+				next[c] = getVarInt(buf) - 1;
+			}
+			return new ShortestPathMessageContent(pd, getDoubles(buf));
+		}
+		case KIND_ROUTE: {
+			int leaderId = getSignedVarInt(buf);
+			int[] hops = new int[getVarInt(buf)];
+			for (int i = 0; i < hops.length; i++) {
+				hops[i] = getVarInt(buf) - 1;
+			}
+			return new RouteMessageContent(leaderId, hops);
+		}
+		case KIND_LANDMARK: {
+			int round = getVarInt(buf);
+			return new LandmarkMessageContent(round, getDoubles(buf));
+		}
+		case KIND_PATH_DELTA: {
+			int n = getVarInt(buf);
+			int count = getVarInt(buf);
+			boolean useFloat = (buf.get() & FLAG_FLOAT) != 0;
+			int[] cells = new int[count];
+			int last = -1;
+			for (int k = 0; k < count; k++) {
+				cells[k] = last + 1 + getVarInt(buf);
+				last = cells[k];
+			}
+			double[] dist = new double[count];
+			for (int k = 0; k < count; k++) {
+				dist[k] = useFloat ? buf.getFloat() : buf.getDouble();
+			}
+			int[] next = new int[count];
+			for (int k = 0; k < count; k++) {
+				next[k] = getVarInt(buf) - 1;
+			}
+			return new ShortestPathMessageContent(new MatrixDelta(n, cells, dist, next), getDoubles(buf));
+		}
+		default:
+			throw new IllegalArgumentException("Unknown message content kind " + kind);
+		}
+	}
+
+	// PRIMITIVES ////////////////////////////////////////////////////////////
+
+	/**
+	 * Map a signed int onto an unsigned one so that small magnitudes stay
+	 * small
+	 *
+	 * @param v
+	 *            the signed value
+	 * @return the zigzag encoding of {@code v}
+	 */
+	private static int zigzag(int v) {
+		return (v << 1) ^ (v >> 31);
+	}
+
+	/**
+	 * Number of bytes an unsigned varint takes
+	 *
+	 * @param v
+	 *            the value, treated as unsigned
+	 * @return its size in bytes
+	 */
+	public static int varIntSize(int v) {
+		int size = 1;
+		while ((v & ~0x7F) != 0) {
+			v >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Write an unsigned varint, seven bits per byte, low bits first
+	 *
+	 * @param buf
+	 *            where to write
+	 * @param v
+	 *            the value, treated as unsigned
+	 */
+	public static void putVarInt(ByteBuffer buf, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+
+	/**
+	 * Read an unsigned varint
+	 *
+	 * @param buf
+	 *            where to read from
+	 * @return the value
+	 */
+	public static int getVarInt(ByteBuffer buf) {
+		int v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get();
+			v |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
+
+	/**
+	 * Write a signed varint using zigzag encoding
+	 *
+	 * @param buf
+	 *            where to write
+	 * @param v
+	 *            the value
+	 */
+	public static void putSignedVarInt(ByteBuffer buf, int v) {
+		putVarInt(buf, zigzag(v));
+	}
+
+	/**
+	 * Read a signed varint written by {@link #putSignedVarInt(ByteBuffer, int)}
+	 *
+	 * @param buf
+	 *            where to read from
+	 * @return the value
+	 */
+	public static int getSignedVarInt(ByteBuffer buf) {
+		int v = getVarInt(buf);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Size of a length-prefixed, nullable UTF-8 string
+	 *
+	 * @param s
+	 *            the string
+	 * @return its encoded size
+	 */
+	private static int stringSize(String s) {
+		if (s == null) {
+			return 1;
+		}
+		int len = s.getBytes(StandardCharsets.UTF_8).length;
+		return varIntSize(len + 1) + len;
+	}
+
+	/**
+	 * Write a nullable string as its UTF-8 length plus one, followed by the
+	 * bytes. A length of zero means null.
+	 *
+	 * @param buf
+	 *            where to write
+	 * @param s
+	 *            the string
+	 */
+	private static void putString(ByteBuffer buf, String s) {
+		if (s == null) {
+			putVarInt(buf, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		putVarInt(buf, bytes.length + 1);
+		buf.put(bytes);
+	}
+
+	/**
+	 * Read a string written by {@link #putString(ByteBuffer, String)}
+	 *
+	 * @param buf
+	 *            where to read from
+	 * @return the string, or null
+	 */
+	private static String getString(ByteBuffer buf) {
+		int len = getVarInt(buf);
+		if (len == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[len - 1];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Size of a nullable array of doubles
+	 *
+	 * @param ds
+	 *            the array
+	 * @return its encoded size
+	 */
+	private static int doublesSize(double[] ds) {
+		return (ds == null) ? 1 : varIntSize(ds.length + 1) + 8 * ds.length;
+	}
+
+	/**
+	 * Write a nullable array of doubles as its length plus one, followed by
+	 * the values. A length of zero means null.
+	 *
+	 * @param buf
+	 *            where to write
+	 * @param ds
+	 *            the array
+	 */
+	private static void putDoubles(ByteBuffer buf, double[] ds) {
+		if (ds == null) {
+			putVarInt(buf, 0);
+			return;
+		}
+		putVarInt(buf, ds.length + 1);
+		for (double d : ds) {
+			buf.putDouble(d);
+		}
+	}
+
+	/**
+	 * Read an array written by {@link #putDoubles(ByteBuffer, double[])}
+	 *
+	 * @param buf
+	 *            where to read from
+	 * @return the array, or null
+	 */
+	private static double[] getDoubles(ByteBuffer buf) {
+		int len = getVarInt(buf);
+		if (len == 0) {
+			return null;
+		}
+		double[] ds = new double[len - 1];
+		for (int i = 0; i < ds.length; i++) {
+			ds[i] = buf.getDouble();
+		}
+		return ds;
+	}
+
+	/**
+	 * Whether a double is a whole number that survives a round trip through
+	 * an int, sign of zero included
+	 *
+	 * @param d
+	 *            the value
+	 * @return true if it can be written as a varint
+	 */
+	private static boolean isWhole(double d) {
+		return Double.doubleToRawLongBits((double) (int) d) == Double.doubleToRawLongBits(d);
+	}
+
+	/**
+	 * Size of a nullable array of MST arguments
+	 *
+	 * @param args
+	 *            the array
+	 * @return its encoded size
+	 */
+	private static int argsSize(double[] args) {
+		if (args == null) {
+			return 1;
+		}
+		int size = varIntSize(args.length + 1) + (args.length + 7) / 8;
+		for (double d : args) {
+			size += isWhole(d) ? varIntSize(zigzag((int) d)) : 8;
+		}
+		return size;
+	}
+
+	/**
+	 * Write a nullable array of MST arguments as its length plus one, then a
+	 * bit per argument set if it is a whole number, then the arguments: whole
+	 * numbers as zigzag varints, anything else as doubles. A length of zero
+	 * means null.
+	 *
+	 * @param buf
+	 *            where to write
+	 * @param args
+	 *            the array
+	 */
+	private static void putArgs(ByteBuffer buf, double[] args) {
+		if (args == null) {
+			putVarInt(buf, 0);
+			return;
+		}
+		putVarInt(buf, args.length + 1);
+		for (int i = 0; i < args.length; i += 8) {
+			int bits = 0;
+			for (int j = i; j < Math.min(i + 8, args.length); j++) {
+				if (isWhole(args[j])) {
+					bits |= 1 << (j - i);
+				}
+			}
+			buf.put((byte) bits);
+		}
+		for (double d : args) {
+			if (isWhole(d)) {
+				putSignedVarInt(buf, (int) d);
+			} else {
+				buf.putDouble(d);
+			}
+		}
+	}
+
+	/**
+	 * Read an array written by {@link #putArgs(ByteBuffer, double[])}
+	 *
+	 * @param buf
+	 *            where to read from
+	 * @return the array, or null
+	 */
+	private static double[] getArgs(ByteBuffer buf) {
+		int len = getVarInt(buf);
+		if (len == 0) {
+			return null;
+		}
+		double[] args = new double[len - 1];
+		byte[] whole = new byte[(args.length + 7) / 8];
+		buf.get(whole);
+		for (int i = 0; i < args.length; i++) {
+			if ((whole[i / 8] & (1 << (i % 8))) != 0) {
+				args[i] = getSignedVarInt(buf);
+			} else {
+				args[i] = buf.getDouble();
+			}
+		}
+		return args;
+	}
+
+	/**
+	 * Copy the remaining bytes of a buffer out to the heap, without moving its
+	 * position
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @return its remaining bytes
+	 */
+	public static byte[] toBytes(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.remaining()];
+		buf.duplicate().get(bytes);
+		return bytes;
+	}
+}
@@ -1,11 +1,13 @@
 package common;
 // TODO do we really need comments for these srsly adlfj.sfdslfjsafkfs.agklaf;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
 
 import common.CostTracker.Stage;
 import common.Message.MessageType;
+import util.DecayingCounter;
 
 /**
  * This is an abstract class simulating a process in our simulated distributed system. 
@@ -14,7 +16,7 @@ import common.Message.MessageType;
  *   2. The leader broadcasts to the others.
  *   3. The others respond to the leader with a basic query.
  * After being initialized, each process simply handles one incoming message per second
- * in a FIFO manner, until its workload is complete. 
+ * in the order given by its {@link Mailbox}, until its workload is complete. 
  * 
  * The communication-related algorithms for electing a leader, broadcasting,
  * and querying the leader must be implemented by subclasses that override this.
@@ -39,18 +41,25 @@ public abstract class Process implements Runnable {
 	protected int leaderId;
 	/**
 	 * Array of IDs of all processes, indexed in order of initialization.
+	 * Processes may join and leave later, see {@code membership}.
 	 */
 	protected int[] allProcesses;
+	/**
+	 * The processes that are members of the simulation right now. Only
+	 * differs from {@code allProcesses} once processes join or leave.
+	 */
+	protected Membership membership;
 
 	/**
-	 * FIFO queue of incoming messages for this process
+	 * Incoming messages for this process, split into lanes by class of traffic
 	 */
-	protected LinkedBlockingQueue<Message> incomingMessages;
+	protected Mailbox incomingMessages;
 	/**
 	 * Map of ID to message queue for all processes, used by processes to send
-	 * messages to one another. 
+	 * messages to one another. The queues of processes that join or leave come
+	 * and go.
 	 */
-	protected HashMap<Integer, LinkedBlockingQueue<Message>> queues;
+	protected Map<Integer, Mailbox> queues;
 	
 	/**
 	 * This maps pairs of processes to the cost of direct communication between them.
@@ -68,6 +77,16 @@ public abstract class Process implements Runnable {
 	 */
 	protected CostTracker costTracker;
 	
+	/**
+	 * Parameters of the simulation this process is part of.
+	 */
+	protected SimulationConfig config;
+	/**
+	 * The simulated network messages are sent over, or null if messages are 
+	 * delivered instantly.
+	 */
+	protected LinkModel linkModel;
+	
 	/**
 	 * Indicates whether this process has been elected leader in the system.
 	 */
@@ -79,6 +98,72 @@ public abstract class Process implements Runnable {
 	 */
 	int numSimpleQueriesReceived;
 
+	/**
+	 * This process's estimate of how often it queries the leader: a count of
+	 * its queries that decays over time. It starts out at 0, or with
+	 * {@code config.queryPrior} at the number of queries it sends per
+	 * workload, as if it had been running the workload all along.
+	 */
+	protected DecayingCounter queryRate;
+	/**
+	 * The number of queries received from each process by the leader, by ID
+	 * of the process that sent them.
+	 */
+	protected HashMap<Integer, Integer> queriesByOrigin = new HashMap<Integer, Integer>();
+	/**
+	 * Each process's estimate of its query rate, as reported by its latest
+	 * query to the leader, decaying from when it arrived. By ID of the
+	 * process.
+	 */
+	protected HashMap<Integer, DecayingCounter> ratesByOrigin = new HashMap<Integer, DecayingCounter>();
+	/**
+	 * When the leader next re-evaluates its placement from
+	 * {@code ratesByOrigin}, in milliseconds
+	 */
+	private long nextPlacementReview;
+
+	/**
+	 * The process the leader's broadcast reached this process from. Termination
+	 * reports are sent back to it. {@code ID_NONE} for the leader.
+	 */
+	protected int disseminationParent = ID_NONE;
+	/**
+	 * The number of processes this process forwards messages from the leader to,
+	 * in whatever structure the protocol uses to disseminate them; -1 until the
+	 * process first forwards such a message. Set by subclasses as they forward.
+	 */
+	protected int disseminationChildren = -1;
+	/**
+	 * The number of chunks of the leader's broadcast payload received so far.
+	 */
+	int numBroadcastChunksReceived = 0;
+	/**
+	 * The number of queries this process has sent to the leader.
+	 */
+	int numSimpleQueriesSent = 0;
+	/**
+	 * The number of children in the dissemination structure that have reported 
+	 * being done, and the total number of queries they reported.
+	 */
+	int numQuiescentReports = 0;
+	int numQueriesReported = 0;
+	/**
+	 * Whether this process has reported being done to its dissemination parent.
+	 */
+	boolean reportedQuiescent = false;
+
+	/**
+	 * Whether this process has crashed. A crashed process stops handling
+	 * messages and exits, leaving anything sent to it unread.
+	 */
+	protected boolean crashed = false;
+
+	/**
+	 * Whether this process has left the simulation. A process that left
+	 * exits, and messages sent to it are lost.
+	 */
+	protected boolean left = false;
+
 	/**
 	 * Whether to output debugging messages.
 	 */
@@ -98,7 +183,7 @@ public abstract class Process implements Runnable {
 	 * @param costTracker
 	 */
 	public Process(int id, int[] allProcesses, HashMap<Integer, HashMap<Integer, Double>> costs,
-			HashMap<Integer, LinkedBlockingQueue<Message>> queues, LinkedBlockingQueue<Message> incomingMessages,
+			Map<Integer, Mailbox> queues, Mailbox incomingMessages,
 			CostTracker costTracker) {
 		this.queues = queues;
 		this.incomingMessages = incomingMessages;
@@ -109,14 +194,142 @@ public abstract class Process implements Runnable {
 		this.isLeader = false;
 		this.costTracker = costTracker;
 		this.numSimpleQueriesReceived = 0;
+		this.config = new SimulationConfig();
+		this.linkModel = null;
+		this.membership = new Membership(allProcesses, queues);
+		this.queryRate = new DecayingCounter(config.rateHalfLifeMillis);
+	}
 
+	/**
+	 * Simple setter, used by {@link ElectionRunner} before the process starts running.
+	 * 
+	 * @param config	parameters of the simulation
+	 */
+	public void setConfig(SimulationConfig config) {
+		this.config = config;
+		resetQueryRate();
+	}
+	/**
+	 * Simple setter, used by {@link ElectionRunner} before the process starts
+	 * running, and before its configuration for a process that joins later.
+	 * All processes of a simulation share one.
+	 * 
+	 * @param membership	the processes that are members of the simulation
+	 */
+	public void setMembership(Membership membership) {
+		this.membership = membership;
+		resetQueryRate();
+	}
+	/**
+	 * Start the estimate of this process's query rate afresh: at 0, or from
+	 * the configured workload if that is to be taken as a prior.
+	 */
+	private void resetQueryRate() {
+		queryRate = new DecayingCounter(config.rateHalfLifeMillis);
+		if (config.queryPrior) {
+			queryRate.add(queryDemand());
+		}
+	}
+	/**
+	 * The number of queries this process sends the leader in the workload,
+	 * from its position in the {@link Membership}, which is its position in
+	 * {@code allProcesses} unless it joined later. See {@link SimulationConfig#queryMax}.
+	 * 
+	 * @return	the number of queries
+	 */
+	public int queryDemand() {
+		return queryDemand(membership.position(id), config);
+	}
+	/**
+	 * The number of queries the process at a given position in the list of
+	 * processes sends the leader in the workload.
+	 * 
+	 * @param pos		the position of the process
+	 * @param config	parameters of the simulation
+	 * @return			the number of queries
+	 */
+	public static int queryDemand(int pos, SimulationConfig config) {
+		return (int) Math.max(1, Math.round(config.queryMax / Math.pow(pos + 1, config.querySkew)));
+	}
+	/**
+	 * Simple setter, used by {@link ElectionRunner} before the process starts running.
+	 * 
+	 * @param linkModel	the simulated network to send messages over, or null for instant delivery
+	 */
+	public void setLinkModel(LinkModel linkModel) {
+		this.linkModel = linkModel;
+	}
+	/**
+	 * Simple getter
+	 * 
+	 * @return {@code id}
+	 */
+	public int getId() {
+		return id;
+	}
+	/**
+	 * Simple getter
+	 * 
+	 * @return {@code isLeader}
+	 */
+	public boolean isLeader() {
+		return isLeader;
+	}
+	/**
+	 * Simple getter
+	 * 
+	 * @return {@code crashed}
+	 */
+	public boolean hasCrashed() {
+		return crashed;
+	}
+	/**
+	 * Simple getter
+	 * 
+	 * @return {@code left}
+	 */
+	public boolean hasLeft() {
+		return left;
 	}
 
 	// OUTGOING MESSAGES ///////////////////////////////////////////////////////
 	/** 
-	 * Initiates the leader election. Implementation is determined by subclass.
+	 * Initiates the leader election, on receiving {@code MSG_WAKEUP}. Several processes 
+	 * may be woken up, and a process may already have joined the election by the time
+	 * its wakeup arrives, in which case this does nothing. Implementation is determined
+	 * by subclass.
 	 */
 	public abstract void triggerLeaderElection();
+	/**
+	 * Starts the workload straight away on the leader, on receiving
+	 * {@code MSG_WARM_START}, when the election was restored from a 
+	 * {@link Checkpoint} rather than run.
+	 */
+	protected void warmStart() {
+		startWorkloadSimple();
+	}
+	/**
+	 * Writes the state this process needs for the workload once the election
+	 * is over to a checkpoint. Subclasses that keep more such state write it
+	 * after calling this.
+	 * 
+	 * @param cp	the checkpoint being saved
+	 * @throws IOException	if the checkpoint cannot be written
+	 */
+	public void saveElection(Checkpoint cp) throws IOException {
+		cp.getOutput().writeInt(leaderId);
+	}
+	/**
+	 * Reads back the state written by {@link #saveElection(Checkpoint)}, in 
+	 * place of electing a leader.
+	 * 
+	 * @param cp	the checkpoint being restored
+	 * @throws IOException	if the checkpoint cannot be read
+	 */
+	public void restoreElection(Checkpoint cp) throws IOException {
+		leaderId = cp.getInput().readInt();
+		isLeader = (leaderId == id);
+	}
 	/**
 	 * During leader election, once a process recognizes the identity of the leader, it
 	 * send a message to the leader acknowledging the fact. This allows the leader to 
@@ -143,24 +356,67 @@ public abstract class Process implements Runnable {
 	 * @param mc			the content of the query
 	 */
 	public abstract void queryLeader(MessageContent mc);
+	/**
+	 * Forget any workload run so far, for a new leader to run it again from the
+	 * start: the broadcast, the queries and the termination reports.
+	 */
+	protected void resetWorkload() {
+		numSimpleQueriesReceived = 0;
+		queriesByOrigin.clear();
+		ratesByOrigin.clear();
+		disseminationParent = ID_NONE;
+		disseminationChildren = -1;
+		numBroadcastChunksReceived = 0;
+		numSimpleQueriesSent = 0;
+		numQuiescentReports = 0;
+		numQueriesReported = 0;
+		reportedQuiescent = false;
+	}
 	/**
 	 * The first part of the simple test workload, in which the leader broadcasts to everyone
 	 * else. The leader is responsible for running this after leader election completes. 
+	 * 
+	 * If a payload size is configured, the leader broadcasts that many bytes instead of a
+	 * greeting, split into chunks of at most the configured chunk size. Chunks are broadcast
+	 * one after the other, so processes along the way can forward one while the next is 
+	 * still on its way.
 	 */
 	public void startWorkloadSimple() {
 		assert(isLeader);
-		broadcast(MessageType.MSG_LEADER_BROADCAST_SIMPLE, new MessageContent("Hello!"));
+		nextPlacementReview = System.currentTimeMillis() + config.placementReviewMillis;
+		if (config.broadcastBytes == 0) {
+			broadcast(MessageType.MSG_LEADER_BROADCAST_SIMPLE, new MessageContent("Hello!"));
+			return;
+		}
+		byte[] payload = new byte[config.broadcastBytes];
+		int chunk = (config.chunkBytes == 0) ? payload.length : config.chunkBytes;
+		int total = config.broadcastChunks();
+		for (int seq = 0; seq < total; seq++) {
+			int from = seq * chunk;
+			byte[] data = Arrays.copyOfRange(payload, from, Math.min(from + chunk, payload.length));
+			broadcast(MessageType.MSG_LEADER_BROADCAST_SIMPLE, new ChunkMessageContent(seq, total, data));
+		}
 	}
 	/** 
-	 * Send a message from one node to another directly, and register the cost.
+	 * Send a message from one node to another directly, and register the cost. If
+	 * a {@link LinkModel} is in use, the message arrives after the edge's delay.
+	 * A message to a process that has left is lost.
 	 * 
 	 * @param m		the message to be sent
 	 */
 	public void sendMessage(Message m) {
-		registerCost(m);
+		int bytes = MessageCodec.encodedSize(m);
+		registerCost(m, bytes);
+		if (linkModel != null) {
+			linkModel.send(m, bytes);
+			return;
+		}
+		Mailbox receiver = queues.get(m.getReceiver());
+		if (receiver == null) {
+			return;
+		}
 		try {
-			BlockingQueue<Message> queue = queues.get(m.getReceiver());
-			queue.put(m);
+			receiver.put(m);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -176,16 +432,27 @@ public abstract class Process implements Runnable {
 	protected boolean processMessage(Message m) {
 		boolean finished = false;
 		switch (m.getType()) {
+		case MSG_WAKEUP:
+			triggerLeaderElection();
+			break;
+		case MSG_WARM_START:
+			warmStart();
+			break;
 		case MSG_ACK_LEADER:
-			processMessageAckLeader();
+			processMessageAckLeader(m);
 			break;
 		case MSG_LEADER_BROADCAST_SIMPLE:
+			disseminationParent = m.getSender();
 			processLeaderBroadcastSimple(m);
 			break;
 		case MSG_QUERY_SIMPLE:
 			finished = processQuerySimple(m);
 			break;
+		case MSG_QUIESCENT:
+			finished = processQuiescent(m);
+			break;
 		case MSG_KILL:
+			processKill(m);
 			finished = true;
 			break;
 		default:
@@ -203,8 +470,10 @@ public abstract class Process implements Runnable {
 	protected abstract boolean processMessageSpecial(Message m);
 	/**
 	 * Top-level handler for message acknowledging the leader's identity, sent during leader election.
+	 * 
+	 * @param m		the message received
 	 */
-	protected abstract void processMessageAckLeader();
+	protected abstract void processMessageAckLeader(Message m);
 	/**
 	 * Handler for messages broadcasted by the leader as part of the test workload. Does any necessary
 	 * forwarding of the message depending on the communication protocol, and then has this process
@@ -215,14 +484,26 @@ public abstract class Process implements Runnable {
 	protected abstract void processLeaderBroadcastSimple(Message m);
 	/**
 	 * Shared code used by handler for messages broadcasted by the leader as part of the test workload. 
-	 * Here, this process sends a query back to the leader.
+	 * Here, this process sends its queries back to the leader, once the whole payload has arrived.
 	 * 
 	 * @param m		the message received
 	 */
 	protected void processLeaderBroadcastSimpleForReceiver(Message m) {
 		assert(!isLeader);
+		if (m.getContent() instanceof ChunkMessageContent) {
+			numBroadcastChunksReceived++;
+			if (numBroadcastChunksReceived < ((ChunkMessageContent) m.getContent()).getTotal()) {
+				return;
+			}
+		}
 		System.out.println(id + " has received!");
-		queryLeader(new MessageContent("Why are you talking to me?"));
+		int demand = queryDemand();
+		for (int q = 0; q < demand; q++) {
+			queryRate.add(1);
+			queryLeader(new QueryMessageContent(id, queryRate.get(), "Why are you talking to me?"));
+		}
+		numSimpleQueriesSent += demand;
+		checkQuiescent();
 	}
 	/**
 	 * Top-level handler for queries made to the leader during the test workload. Includes any 
@@ -242,29 +523,111 @@ public abstract class Process implements Runnable {
 	 */
 	protected boolean processQuerySimpleForLeader(Message m) {
 		numSimpleQueriesReceived++;
-		if (numSimpleQueriesReceived == allProcesses.length - 1) {
-			costTracker.dumpCosts();
-			System.out.println("All queries received!");
-			for (int i = 0; i < allProcesses.length; i++) {
-				if (id != allProcesses[i]) {
-					sendMessage(new Message(id, allProcesses[i], MessageType.MSG_KILL, null));
-				}
-			}
-			return true;
+		if (m.getContent() instanceof QueryMessageContent) {
+			QueryMessageContent query = (QueryMessageContent) m.getContent();
+			queriesByOrigin.merge(query.getOrigin(), 1, Integer::sum);
+			DecayingCounter rate = new DecayingCounter(config.rateHalfLifeMillis);
+			rate.add(query.getRate());
+			ratesByOrigin.put(query.getOrigin(), rate);
 		}
-		return false;
+		long now = System.currentTimeMillis();
+		if (now >= nextPlacementReview) {
+			nextPlacementReview = now + config.placementReviewMillis;
+			reconsiderPlacement();
+		}
+		return checkAllQueriesReceived();
 	}
 
+	// TERMINATION ////////////////////////////////////////////////////////////
+	/**
+	 * Handler for a child in the dissemination structure reporting that it and
+	 * everything below it are done querying the leader.
+	 * 
+	 * @param m		the message received, with a {@link QuiescenceMessageContent}
+	 * @return		whether this process should exit after handling this message
+	 */
+	protected boolean processQuiescent(Message m) {
+		numQuiescentReports++;
+		numQueriesReported += ((QuiescenceMessageContent) m.getContent()).getQueries();
+		if (isLeader) {
+			return checkAllQueriesReceived();
+		}
+		checkQuiescent();
+		return false;
+	}
+	/**
+	 * Used by non-leaders: once this process has sent its query and all of its
+	 * children in the dissemination structure have reported, report to the
+	 * dissemination parent how many queries were sent from this part of it.
+	 */
+	protected void checkQuiescent() {
+		if (reportedQuiescent || numSimpleQueriesSent == 0 || disseminationChildren < 0
+				|| numQuiescentReports < disseminationChildren) {
+			return;
+		}
+		reportedQuiescent = true;
+		sendMessage(new Message(id, disseminationParent, MessageType.MSG_QUIESCENT,
+				new QuiescenceMessageContent(numSimpleQueriesSent + numQueriesReported)));
+	}
+	/**
+	 * Used by the leader: once every child in the dissemination structure has
+	 * reported, and as many queries have arrived as were reported sent, the
+	 * workload is over and the leader shuts the simulation down. This way the
+	 * leader never needs to know how many processes there are.
+	 * 
+	 * @return		whether the leader should exit
+	 */
+	protected boolean checkAllQueriesReceived() {
+		if (disseminationChildren < 0 || numQuiescentReports < disseminationChildren
+				|| numSimpleQueriesReceived < numQueriesReported) {
+			return false;
+		}
+		System.out.println("All queries received!");
+		reconsiderPlacement();
+		reviewPlacement();
+		terminate();
+		return true;
+	}
+	/**
+	 * Used by the leader once all queries of the workload have arrived: look at
+	 * where they came from, see {@code queriesByOrigin}, and report how well
+	 * placed the leader is for them. Does nothing by default.
+	 */
+	protected void reviewPlacement() {
+	}
+	/**
+	 * Used by the leader every {@code config.placementReviewMillis} during the
+	 * workload, as queries arrive, and once they are all in: re-evaluate where
+	 * the leader is best placed from the query rates processes reported, see
+	 * {@code ratesByOrigin}. Does nothing by default.
+	 */
+	protected void reconsiderPlacement() {
+	}
+	/**
+	 * Shut down the simulation, by sending {@code MSG_KILL} down the structure the
+	 * leader's broadcasts travel along. Only the leader runs this.
+	 */
+	protected void terminate() {
+		broadcast(MessageType.MSG_KILL, null);
+	}
+	/**
+	 * Handler for {@code MSG_KILL}: pass it on to this process's children in the
+	 * dissemination structure, after which this process exits. Implementation is 
+	 * determined by subclass.
+	 * 
+	 * @param m		the message received
+	 */
+	protected abstract void processKill(Message m);
 
 	// COST TRACKING ////////////////////////////////////////////////////////////
 	/**
-	 * Registers the cost of sending a message to the global {@code CostTracker} object. 
+	 * The stage whose costs a message of the given type counts towards.
 	 * 
-	 * @param m		the message being sent
+	 * @param type	the type of the message
+	 * @return		the stage, or null if the message is not charged to any stage
 	 */
-	protected void registerCost(Message m) {
-		Stage s = null;
-		switch (m.getType()) {
+	protected static Stage stageOf(MessageType type) {
+		switch (type) {
 		case MSG_MST_CONNECT:
 		case MSG_MST_ACCEPT:
 		case MSG_MST_REJECT:
@@ -277,25 +640,91 @@ public abstract class Process implements Runnable {
 		case MSG_ACK_LEADER:
 		case MSG_PATH_PARTIAL:
 		case MSG_PATH_FINAL:
-			s = Stage.ELECTION;
-			break;
+		case MSG_LANDMARK_DISTANCE:
+		case MSG_LANDMARK_SIGNAL:
+		case MSG_LANDMARK_COLLECT:
+		case MSG_LANDMARK_ESTIMATE:
+		case MSG_LANDMARK_LEADER:
+		case MSG_CLUSTER_FORM:
+		case MSG_CLUSTER_SIZE:
+		case MSG_CLUSTER_LEAD:
+			return Stage.ELECTION;
+		case MSG_REPAIR_UP:
+		case MSG_REPAIR_SWAP:
+		case MSG_REPAIR_RELINK:
+		case MSG_REPAIR_ATTACH:
+		case MSG_REPAIR_SPLIT:
+		case MSG_REPAIR_SPLIT_ACK:
+		case MSG_REPAIR_SEARCH:
+		case MSG_REPAIR_TEST:
+		case MSG_REPAIR_ANSWER:
+		case MSG_REPAIR_REPORT:
+		case MSG_REPAIR_DONE:
+			return Stage.REPAIR;
+		case MSG_HEARTBEAT:
+			return Stage.LEASE;
+		case MSG_FAILOVER_SEARCH:
+		case MSG_FAILOVER_TEST:
+		case MSG_FAILOVER_ANSWER:
+		case MSG_FAILOVER_REPORT:
+		case MSG_FAILOVER_CANDIDATES:
+		case MSG_FAILOVER_ATTACH:
+		case MSG_FAILOVER_RELINK:
+		case MSG_FAILOVER_JOIN:
+		case MSG_FAILOVER_JOINED:
+		case MSG_FAILOVER_LEADER:
+		case MSG_FAILOVER_ACK:
+		case MSG_FAILOVER_CANCEL:
+			return Stage.FAILOVER;
+		case MSG_MEMBER_HELLO:
+		case MSG_MEMBER_ADD:
+		case MSG_MEMBER_MERGE:
+		case MSG_MEMBER_SETTLE:
+		case MSG_MEMBER_LINK:
+		case MSG_MEMBER_LINKED:
+		case MSG_MEMBER_SETTLED:
+		case MSG_MEMBER_ORIENT:
+		case MSG_MEMBER_ORIENTED:
+		case MSG_MEMBER_SEARCH:
+		case MSG_MEMBER_TEST:
+		case MSG_MEMBER_ANSWER:
+		case MSG_MEMBER_REPORT:
+		case MSG_MEMBER_ATTACH:
+		case MSG_MEMBER_GONE:
+		case MSG_MEMBER_PATHS:
+			return Stage.MEMBERSHIP;
 		case MSG_LEADER_BROADCAST_SIMPLE:
-			s = Stage.BROADCAST;
-			break;
+			return Stage.BROADCAST;
 		case MSG_QUERY_SIMPLE:
-			s = Stage.QUERY;
-			break;
+			return Stage.QUERY;
+		case MSG_QUIESCENT:
 		case MSG_KILL:
-			break;
+			return Stage.SHUTDOWN;
+		default:
+			return null;
 		}
-		if (m.getType() != MessageType.MSG_KILL && id != m.getReceiver()) {
-			this.costTracker.registerCosts(s, id, costs.get(id).get(m.getReceiver()));
+	}
+	/**
+	 * Registers the cost of sending a message to the global {@code CostTracker} object. 
+	 * 
+	 * @param m		the message being sent
+	 * @param bytes	the encoded size of the message
+	 */
+	protected void registerCost(Message m, int bytes) {
+		Stage s = stageOf(m.getType());
+		if (s == null) {
+			return;
+		}
+		costTracker.markSent(s);
+		if (id != m.getReceiver()) {
+			this.costTracker.registerCosts(s, id, costs.get(id).get(m.getReceiver()), bytes);
 		}
 	}
 
 	// RUNTIME //////////////////////////////////////////////////////////////
 	/**
-	 * Handle and remove the oldest message on this process's message queue, if one exists.
+	 * Handle and remove the next message from this process's mailbox, if one exists. 
+	 * Which message comes next is decided by the mailbox's scheduling policy.
 	 * 
 	 * @return	whether this process is done running and should exit
 	 */
@@ -304,25 +733,37 @@ public abstract class Process implements Runnable {
 		if (m == null) {
 			return false;
 		}
+		Stage s = stageOf(m.getType());
+		if (s != null) {
+			costTracker.markReceived(s);
+		}
 		return processMessage(m);
 	}
 	/**
-	 * Main run loop. Check for and handle one incoming message per second, until the 
-	 * workload is complete. 
+	 * Called once per tick, before checking for a message, so that processes
+	 * can act on the passing of time, such as a lease running out. Does
+	 * nothing by default.
+	 */
+	protected void onTick() {
+	}
+	/**
+	 * Main run loop. Check for and handle one incoming message per tick (a second by
+	 * default), until the workload is complete or this process crashes or leaves. 
 	 */
 	@Override
 	public void run() {
 		/* signals that the workload is complete, and we should break from the loop and exit */
 		boolean done = false;
 		
-		while (!done) {
+		while (!done && !crashed && !left) {
 			try {
+				onTick();
 				done = checkForMessages();
 			} catch (InterruptedException e1) {
 				e1.printStackTrace();
 			}
 			try {
-				Thread.sleep(1000);
+				Thread.sleep(config.tickMillis);
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
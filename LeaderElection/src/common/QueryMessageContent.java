@@ -0,0 +1,49 @@
+package common;
+
+/**
+ * Content of a query sent to the leader during the workload. It records the
+ * process the query came from, since it may be forwarded along the way, so
+ * that the leader can tell how much each process queries it, along with that
+ * process's own estimate of its query rate.
+ */
+public class QueryMessageContent extends MessageContent {
+	/**
+	 * The process that sent the query
+	 */
+	private int origin;
+	/**
+	 * The origin's estimate of its query rate when it sent the query
+	 */
+	private double rate;
+
+	/**
+	 * Simple constructor
+	 *
+	 * @param origin
+	 * @param rate
+	 * @param body
+	 */
+	public QueryMessageContent(int origin, double rate, String body) {
+		super(body);
+		this.origin = origin;
+		this.rate = rate;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code origin}
+	 */
+	public int getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code rate}
+	 */
+	public double getRate() {
+		return rate;
+	}
+}
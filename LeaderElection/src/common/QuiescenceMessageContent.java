@@ -0,0 +1,34 @@
+package common;
+
+/**
+ * Content of the message a process sends up the dissemination structure once
+ * it and everything below it have finished querying the leader. It carries
+ * how many queries were sent from that part of the structure, which lets the
+ * leader tell when all queries have arrived without knowing how many
+ * processes there are.
+ */
+public class QuiescenceMessageContent extends MessageContent {
+	/**
+	 * Number of queries sent by the reporting process and everything below it
+	 */
+	private int queries;
+
+	/**
+	 * Simple constructor
+	 *
+	 * @param queries
+	 */
+	public QuiescenceMessageContent(int queries) {
+		super();
+		this.queries = queries;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code queries}
+	 */
+	public int getQueries() {
+		return queries;
+	}
+}
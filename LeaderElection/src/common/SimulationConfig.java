@@ -0,0 +1,487 @@
+package common;
+
+import common.ElectionRunner.WakeupPolicy;
+import oracle.Oracle;
+import shortestpath.ShortestPathProcess.LeaderMethod;
+
+/**
+ * Tunable parameters of a simulation, shared by the {@link ElectionRunner} and
+ * every {@link Process} it launches. Every optional behaviour is off by
+ * default, so that mailboxes and shortest path messages work as in the
+ * original simulation; each parameter can be overridden from the command line
+ * with a {@code key=value} argument after the output filenames.
+ */
+public class SimulationConfig {
+
+	/**
+	 * How long a process sleeps between handling two messages, in
+	 * milliseconds
+	 */
+	public long tickMillis = 1000;
+
+	/**
+	 * Whether messages are delivered through the {@link LinkModel}, rather
+	 * than instantly
+	 */
+	public boolean linkModel = false;
+
+	/**
+	 * Propagation delay of an edge per unit of edge cost, in milliseconds
+	 */
+	public double msPerCostUnit = 10;
+
+	/**
+	 * Bandwidth of an edge of cost 1, in bytes per millisecond. An edge of
+	 * cost c has bandwidth {@code bytesPerMs / c}.
+	 */
+	public double bytesPerMs = 1000;
+
+	/**
+	 * Whether each {@link Mailbox} splits messages into lanes by class of
+	 * traffic, rather than keeping a single FIFO queue
+	 */
+	public boolean prioritizedMailbox = false;
+
+	/**
+	 * Weight of each {@link Mailbox.Lane}, in lane order: how many messages
+	 * it may hand out per round of scheduling
+	 */
+	public int[] laneWeights = { 8, 4, 2, 1 };
+
+	/**
+	 * Which processes are woken up to start the election, and when
+	 */
+	public WakeupPolicy wakeup = WakeupPolicy.FIRST;
+
+	/**
+	 * Number of processes woken up with {@code WakeupPolicy.RANDOM}
+	 */
+	public int wakeupCount = 1;
+
+	/**
+	 * Time over which processes are woken up with
+	 * {@code WakeupPolicy.STAGGERED}, in milliseconds
+	 */
+	public long wakeupSpreadMillis = 1000;
+
+	/**
+	 * Fan-out of the tree the baseline leader shuts the simulation down along
+	 */
+	public int killFanout = 2;
+
+	/**
+	 * Size in bytes of the payload the leader broadcasts in the workload. If 0,
+	 * the leader broadcasts a short greeting instead.
+	 */
+	public int broadcastBytes = 0;
+
+	/**
+	 * Largest chunk the broadcast payload is split into, in bytes. Each chunk
+	 * is forwarded as soon as it arrives, pipelining the broadcast down the
+	 * tree. If 0, the payload is sent whole, store-and-forward.
+	 */
+	public int chunkBytes = 0;
+
+	/**
+	 * Whether shortest path elections send only the entries of a distance
+	 * matrix that improve on what the receiver knew to begin with, rather
+	 * than the whole matrix
+	 */
+	public boolean pathDeltas = false;
+
+	/**
+	 * Whether shortest path elections end by sending the final distance matrix
+	 * to every node, rather than only the leader and each node's next hop
+	 * towards it
+	 */
+	public boolean pathFinalMatrix = true;
+
+	/**
+	 * Whether the shortest path leader broadcasts, and shuts down, along the
+	 * tree of shortest paths to it, rather than along the MST
+	 */
+	public boolean pathBroadcastTree = false;
+
+	/**
+	 * How shortest path elections score candidate leaders
+	 */
+	public LeaderMethod leaderMethod = LeaderMethod.METHOD_SUM;
+
+	/**
+	 * Which percentile of shortest path costs candidates are scored by, with
+	 * {@code LeaderMethod.METHOD_PERCENTILE}
+	 */
+	public int leaderPercentile = 50;
+
+	/**
+	 * Number of queries the busiest process sends the leader in the workload.
+	 * The process at position p in the list of processes sends
+	 * {@code queryMax / (p + 1)^querySkew} of them, rounded, and at least one.
+	 */
+	public int queryMax = 1;
+
+	/**
+	 * How quickly query volume falls off from the busiest process, see
+	 * {@code queryMax}. 0 makes every process send the same number of queries.
+	 */
+	public double querySkew = 0;
+
+	/**
+	 * Half-life of each process's estimate of its own query rate, in
+	 * milliseconds
+	 */
+	public double rateHalfLifeMillis = 60000;
+
+	/**
+	 * Whether each process's estimate of its own query rate starts out at the
+	 * number of queries it sends per workload, as a prior, rather than at 0
+	 */
+	public boolean queryPrior = false;
+
+	/**
+	 * How often the leader re-evaluates its placement from the query rates
+	 * reported with the queries it receives, in milliseconds. It also does
+	 * once all queries are in.
+	 */
+	public long placementReviewMillis = 1000;
+
+	/**
+	 * Number of landmarks landmark elections estimate closeness from. At
+	 * least as many as there are processes makes the estimate exact.
+	 */
+	public int landmarks = 4;
+
+	/**
+	 * Whether the centralized {@link Oracle} checks each simulation once it
+	 * is done, or estimates costs in place of simulating
+	 */
+	public Oracle.Mode oracle = Oracle.Mode.OFF;
+
+	/**
+	 * Number of edge costs that change, one after another, once an MST
+	 * election is over and before its workload starts. The MST is repaired
+	 * after each change rather than elected again.
+	 */
+	public int costChanges = 0;
+
+	/**
+	 * Number of processes that join, one after another, once an MST or
+	 * shortest path election is over and after any cost changes, and the
+	 * number of processes that then leave. The MST, and the shortest paths,
+	 * are patched for each rather than elected again. The leader never leaves.
+	 */
+	public int joins = 0;
+	public int leaves = 0;
+
+	/**
+	 * Milliseconds between the heartbeats an MST leader sends down the tree to
+	 * renew its lease, or 0 for no leases
+	 */
+	public long heartbeatMillis = 0;
+
+	/**
+	 * Milliseconds a heartbeat's lease lasts, counted in ticks of the process
+	 * holding it. A child of the leader whose lease runs out takes the leader
+	 * to have crashed, and calls failover off if it hears from it again.
+	 */
+	public long leaseMillis = 1000;
+
+	/**
+	 * Whether an MST leader crashes just as it would start the workload, so
+	 * that the processes fail over to a new leader
+	 */
+	public boolean leaderCrash = false;
+
+	/**
+	 * Largest number of processes in a cluster of the hierarchical model. A
+	 * subtree of the MST that reaches it becomes a cluster of its own, and
+	 * groups that do not fit in their parent's cluster become clusters too,
+	 * so clusters may hold fewer.
+	 */
+	public int clusterSize = 8;
+
+	/**
+	 * Path each simulation's converged election state is saved to once it is
+	 * done, followed by the model's name, or null to save nothing
+	 */
+	public String checkpoint = null;
+
+	/**
+	 * Path that checkpoints are restored from, followed by the model's name,
+	 * so that simulations skip the election; or null to elect as usual
+	 */
+	public String warmStart = null;
+
+	/**
+	 * Parse {@code key=value} overrides
+	 *
+	 * @param args
+	 *            command line arguments
+	 * @param from
+	 *            index of the first override in {@code args}
+	 * @return the resulting configuration
+	 */
+	public static SimulationConfig parse(String[] args, int from) {
+		SimulationConfig config = new SimulationConfig();
+		for (int i = from; i < args.length; i++) {
+			int eq = args[i].indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("Expected key=value, got " + args[i]);
+			}
+			config.set(args[i].substring(0, eq), args[i].substring(eq + 1));
+		}
+		if (config.leaderCrash && config.heartbeatMillis == 0) {
+			throw new IllegalArgumentException("A leader crash is only noticed with heartbeats; set heartbeatMs");
+		}
+		if (config.heartbeatMillis > 0 && config.leaseMillis <= config.heartbeatMillis) {
+			throw new IllegalArgumentException("Leases must outlast the time between heartbeats, got leaseMs="
+					+ config.leaseMillis + " and heartbeatMs=" + config.heartbeatMillis);
+		}
+		if (config.joins + config.leaves > 0 && !config.pathFinalMatrix) {
+			throw new IllegalArgumentException("Joins and leaves patch the final distance matrix; set pathFinal=matrix");
+		}
+		return config;
+	}
+
+	/**
+	 * Override a single parameter
+	 *
+	 * @param key
+	 *            the name of the parameter
+	 * @param value
+	 *            its new value
+	 */
+	public void set(String key, String value) {
+		switch (key) {
+		case "tickMs":
+			tickMillis = Long.parseLong(value);
+			break;
+		case "linkModel":
+			linkModel = Boolean.parseBoolean(value);
+			break;
+		case "msPerCost":
+			msPerCostUnit = Double.parseDouble(value);
+			break;
+		case "bytesPerMs":
+			bytesPerMs = Double.parseDouble(value);
+			break;
+		case "mailbox":
+			if (!value.equals("fifo") && !value.equals("weighted")) {
+				throw new IllegalArgumentException("Unknown mailbox policy " + value);
+			}
+			prioritizedMailbox = value.equals("weighted");
+			break;
+		case "laneWeights":
+			String[] parts = value.split(",");
+			if (parts.length != Mailbox.Lane.values().length) {
+				throw new IllegalArgumentException("Expected one weight per lane, got " + value);
+			}
+			for (int i = 0; i < parts.length; i++) {
+				laneWeights[i] = Integer.parseInt(parts[i]);
+				if (laneWeights[i] <= 0) {
+					throw new IllegalArgumentException("Lane weights must be positive, got " + value);
+				}
+			}
+			break;
+		case "wakeup":
+			switch (value) {
+			case "first":
+				wakeup = WakeupPolicy.FIRST;
+				break;
+			case "all":
+				wakeup = WakeupPolicy.ALL;
+				break;
+			case "random":
+				wakeup = WakeupPolicy.RANDOM;
+				break;
+			case "staggered":
+				wakeup = WakeupPolicy.STAGGERED;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown wakeup policy " + value);
+			}
+			break;
+		case "wakeupCount":
+			wakeupCount = Integer.parseInt(value);
+			if (wakeupCount <= 0) {
+				throw new IllegalArgumentException("Number of wakeups must be positive, got " + value);
+			}
+			break;
+		case "wakeupSpreadMs":
+			wakeupSpreadMillis = Long.parseLong(value);
+			if (wakeupSpreadMillis < 0) {
+				throw new IllegalArgumentException("Wakeup spread must not be negative, got " + value);
+			}
+			break;
+		case "killFanout":
+			killFanout = Integer.parseInt(value);
+			if (killFanout <= 0) {
+				throw new IllegalArgumentException("Fan-out must be positive, got " + value);
+			}
+			break;
+		case "broadcastBytes":
+			broadcastBytes = Integer.parseInt(value);
+			if (broadcastBytes < 0) {
+				throw new IllegalArgumentException("Payload size must not be negative, got " + value);
+			}
+			break;
+		case "chunkBytes":
+			chunkBytes = Integer.parseInt(value);
+			if (chunkBytes < 0) {
+				throw new IllegalArgumentException("Chunk size must not be negative, got " + value);
+			}
+			break;
+		case "pathEncoding":
+			if (!value.equals("full") && !value.equals("delta")) {
+				throw new IllegalArgumentException("Unknown path encoding " + value);
+			}
+			pathDeltas = value.equals("delta");
+			break;
+		case "pathFinal":
+			if (!value.equals("matrix") && !value.equals("leader")) {
+				throw new IllegalArgumentException("Unknown final dissemination " + value);
+			}
+			pathFinalMatrix = value.equals("matrix");
+			break;
+		case "pathBroadcast":
+			if (!value.equals("mst") && !value.equals("tree")) {
+				throw new IllegalArgumentException("Unknown broadcast structure " + value);
+			}
+			pathBroadcastTree = value.equals("tree");
+			break;
+		case "leaderMethod":
+			switch (value) {
+			case "sum":
+				leaderMethod = LeaderMethod.METHOD_SUM;
+				break;
+			case "max":
+				leaderMethod = LeaderMethod.METHOD_MAX;
+				break;
+			case "weighted":
+				leaderMethod = LeaderMethod.METHOD_WEIGHTED_SUM;
+				break;
+			case "percentile":
+				leaderMethod = LeaderMethod.METHOD_PERCENTILE;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown leader method " + value);
+			}
+			break;
+		case "leaderPercentile":
+			leaderPercentile = Integer.parseInt(value);
+			if (leaderPercentile < 0 || leaderPercentile > 100) {
+				throw new IllegalArgumentException("Percentile must be between 0 and 100, got " + value);
+			}
+			break;
+		case "queryMax":
+			queryMax = Integer.parseInt(value);
+			if (queryMax <= 0) {
+				throw new IllegalArgumentException("Query volume must be positive, got " + value);
+			}
+			break;
+		case "querySkew":
+			querySkew = Double.parseDouble(value);
+			break;
+		case "rateHalfLifeMs":
+			rateHalfLifeMillis = Double.parseDouble(value);
+			if (rateHalfLifeMillis <= 0) {
+				throw new IllegalArgumentException("Half-life must be positive, got " + value);
+			}
+			break;
+		case "queryPrior":
+			queryPrior = Boolean.parseBoolean(value);
+			break;
+		case "placementReviewMs":
+			placementReviewMillis = Long.parseLong(value);
+			if (placementReviewMillis <= 0) {
+				throw new IllegalArgumentException("Placement review period must be positive, got " + value);
+			}
+			break;
+		case "landmarks":
+			landmarks = Integer.parseInt(value);
+			if (landmarks <= 0) {
+				throw new IllegalArgumentException("Number of landmarks must be positive, got " + value);
+			}
+			break;
+		case "oracle":
+			switch (value) {
+			case "off":
+				oracle = Oracle.Mode.OFF;
+				break;
+			case "check":
+				oracle = Oracle.Mode.CHECK;
+				break;
+			case "exact":
+				oracle = Oracle.Mode.EXACT;
+				break;
+			case "analytic":
+				oracle = Oracle.Mode.ANALYTIC;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown oracle mode " + value);
+			}
+			break;
+		case "heartbeatMs":
+			heartbeatMillis = Long.parseLong(value);
+			if (heartbeatMillis < 0) {
+				throw new IllegalArgumentException("Time between heartbeats must not be negative, got " + value);
+			}
+			break;
+		case "leaseMs":
+			leaseMillis = Long.parseLong(value);
+			if (leaseMillis <= 0) {
+				throw new IllegalArgumentException("Lease must be positive, got " + value);
+			}
+			break;
+		case "leaderCrash":
+			leaderCrash = Boolean.parseBoolean(value);
+			break;
+		case "clusterSize":
+			clusterSize = Integer.parseInt(value);
+			if (clusterSize < 1) {
+				throw new IllegalArgumentException("Cluster size must be positive, got " + value);
+			}
+			break;
+		case "checkpoint":
+			checkpoint = value;
+			break;
+		case "warmStart":
+			warmStart = value;
+			break;
+		case "costChanges":
+			costChanges = Integer.parseInt(value);
+			if (costChanges < 0) {
+				throw new IllegalArgumentException("Number of cost changes must not be negative, got " + value);
+			}
+			break;
+		case "joins":
+			joins = Integer.parseInt(value);
+			if (joins < 0) {
+				throw new IllegalArgumentException("Number of joins must not be negative, got " + value);
+			}
+			break;
+		case "leaves":
+			leaves = Integer.parseInt(value);
+			if (leaves < 0) {
+				throw new IllegalArgumentException("Number of leaves must not be negative, got " + value);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown option " + key);
+		}
+	}
+
+	/**
+	 * Number of messages the leader broadcasts in the workload: one per chunk
+	 * of the payload, or one greeting if there is no payload
+	 *
+	 * @return the number of broadcasts
+	 */
+	public int broadcastChunks() {
+		if (broadcastBytes == 0) {
+			return 1;
+		}
+		int chunk = (chunkBytes == 0) ? broadcastBytes : chunkBytes;
+		return (broadcastBytes + chunk - 1) / chunk;
+	}
+}
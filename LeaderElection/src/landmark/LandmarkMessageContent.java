@@ -0,0 +1,52 @@
+package landmark;
+
+import common.MessageContent;
+
+/**
+ * Message content used by {@link LandmarkProcess} during its distributed
+ * Bellman-Ford: the sender's current distance to each source of the round.
+ */
+public class LandmarkMessageContent extends MessageContent {
+	/**
+	 * Which round of shortest path computation this belongs to: 0 while
+	 * distances to the landmarks are computed, 1 while distances to the
+	 * leader are
+	 */
+	private int round;
+
+	/**
+	 * The sender's best known distance to each source of the round, in the
+	 * order the sources were announced
+	 */
+	private double[] distances;
+
+	/**
+	 * Simple constructor
+	 *
+	 * @param round
+	 * @param distances
+	 */
+	public LandmarkMessageContent(int round, double[] distances) {
+		super();
+		this.round = round;
+		this.distances = distances;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code round}
+	 */
+	public int getRound() {
+		return round;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code distances}
+	 */
+	public double[] getDistances() {
+		return distances;
+	}
+}
@@ -0,0 +1,648 @@
+package landmark;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import common.Checkpoint;
+import common.CostTracker;
+import common.Mailbox;
+import common.Message;
+import common.Message.MessageType;
+import common.MessageContent;
+import mst.MSTBase;
+import mst.MSTMessageContent;
+import util.DistanceMatrix;
+
+/**
+ * This is a subclass of MSTBase. This class simulates a process that
+ * implements leader election by estimating closeness centrality from
+ * distances to a few landmark nodes, rather than from all-pairs shortest
+ * paths as {@link shortestpath.ShortestPathProcess} does. The leader is the
+ * node with the lowest estimated sum of shortest path costs to every other
+ * node.
+ *
+ * Once the MST is built, its root draws k landmarks at random, and announces
+ * them down the MST. Each landmark then starts a distributed Bellman-Ford,
+ * all of them at once: every node keeps only its distance to each landmark,
+ * and the neighbor it goes through, and tells every neighbor whenever one
+ * of these distances improves. Termination is detected by the root with
+ * Dijkstra-Scholten: every message of the computation is signalled back to
+ * its sender once handled, and a node signals the message that engaged it
+ * only once all of its own messages have been signalled back.
+ *
+ * A node's distances to the landmarks are a random sample of its distances
+ * to every node, so n - 1 times their mean estimates its closeness. The
+ * estimates are gathered up the MST to its root, which picks the leader and
+ * announces it down the MST. The leader then runs one more Bellman-Ford from
+ * itself alone, after which every node knows its next hop on the shortest
+ * path to the leader.
+ *
+ * Every node holds O(k) distances, instead of an n by n matrix. Broadcast
+ * operates via the connections of the MST, and query from a machine to the
+ * leader operates via the shortest path.
+ */
+public class LandmarkProcess extends MSTBase {
+	// STATIC CONSTANTS
+	// ///////////////////////////////////////////////////////////
+
+	/**
+	 * The round of shortest path computation a node is in. ROUND_NONE until
+	 * the landmarks are announced. ROUND_LANDMARKS while distances to the
+	 * landmarks are computed. ROUND_LEADER once the leader is announced, while
+	 * distances to the leader are computed.
+	 */
+	public static final int ROUND_NONE = -1;
+	public static final int ROUND_LANDMARKS = 0;
+	public static final int ROUND_LEADER = 1;
+
+	// INSTANCE FIELDS
+	// ////////////////////////////////////////////////////////////
+
+	/**
+	 * The round this node is in
+	 */
+	int round = ROUND_NONE;
+
+	/**
+	 * The sources of the current round: the landmarks, or just the leader
+	 */
+	int[] sources;
+
+	/**
+	 * This node's best known distance to each source of the current round
+	 */
+	double[] dist;
+
+	/**
+	 * The neighbor on this node's best known path to each source of the
+	 * current round, itself for a source, or ID_NONE if there is none yet
+	 */
+	int[] via;
+
+	/**
+	 * Whether this node is the root of the MST, which drives the rounds
+	 */
+	boolean root = false;
+
+	/**
+	 * Whether this node is taking part in the current round's computation,
+	 * in the sense of Dijkstra-Scholten
+	 */
+	boolean engaged = false;
+
+	/**
+	 * The node whose message engaged this node, which is signalled once this
+	 * node is done. ID_NONE for the root.
+	 */
+	int engager = ID_NONE;
+
+	/**
+	 * The number of messages of the computation this node has sent that have
+	 * not been signalled back yet
+	 */
+	int deficit = 0;
+
+	/**
+	 * While estimates are gathered up the MST: the number of children that
+	 * have reported, and the best estimate seen so far with its node
+	 */
+	int reportsReceived = 0;
+	double bestEstimate = Double.MAX_VALUE;
+	int bestId = ID_NONE;
+
+	/**
+	 * The leader's estimated closeness, as announced with it
+	 */
+	double leaderEstimate = Double.MAX_VALUE;
+
+	// CONSTRUCTOR ////////////////////////////////////////////////////////////
+	/**
+	 * Just calls the constructor in {@link MSTBase}.
+	 *
+	 * @param id
+	 * @param allProcesses
+	 * @param costs
+	 * @param queues
+	 * @param incomingMessages
+	 * @param costTracker
+	 */
+	public LandmarkProcess(int id, int[] allProcesses,
+			HashMap<Integer, HashMap<Integer, Double>> costs,
+			Map<Integer, Mailbox> queues,
+			Mailbox incomingMessages,
+			CostTracker costTracker) {
+		super(id, allProcesses, costs, queues, incomingMessages, costTracker);
+	}
+
+	// ROUNDS ////////////////////////////////////////////////////////////
+
+	/**
+	 * Processes the FINISH message, which the root of the MST sends itself
+	 * once the MST is built. The root picks the landmarks, and adds them
+	 * after the leader id in the message content, which is passed down the
+	 * MST. Every node then starts computing its distances to the landmarks.
+	 *
+	 * @param m: the FINISH message. The message content is expected to
+	 * contain the id of the MST root, followed by the ids of the landmarks
+	 * unless it comes from the root itself.
+	 */
+	@Override
+	public void processFinish(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		leaderId = (int) args[0];
+		if (m.getSender() == id) {
+			root = true;
+			engaged = true;
+			int[] landmarks = pickLandmarks();
+			System.out.println("Landmarks are " + Arrays.toString(landmarks));
+			args = new double[landmarks.length + 1];
+			args[0] = leaderId;
+			for (int i = 0; i < landmarks.length; i++) {
+				args[i + 1] = landmarks[i];
+			}
+		} else {
+			engage(m.getSender());
+		}
+		int[] landmarks = new int[args.length - 1];
+		for (int i = 0; i < landmarks.length; i++) {
+			landmarks[i] = (int) args[i + 1];
+		}
+		beginRound(ROUND_LANDMARKS, landmarks, m.getType(), new MSTMessageContent(args));
+		checkDone();
+	}
+
+	/**
+	 * Draw the landmarks uniformly at random, without replacement. Used by
+	 * the root only.
+	 *
+	 * @return the ids of the landmarks
+	 */
+	private int[] pickLandmarks() {
+		int[] ids = allProcesses.clone();
+		int k = Math.min(config.landmarks, ids.length);
+		for (int i = 0; i < k; i++) {
+			int j = i + (int) (Math.random() * (ids.length - i));
+			int tmp = ids[i];
+			ids[i] = ids[j];
+			ids[j] = tmp;
+		}
+		return Arrays.copyOf(ids, k);
+	}
+
+	/**
+	 * Start a round of shortest path computation: pass on its announcement
+	 * to this node's children in the MST, and if this node is a source of the
+	 * round, tell every neighbor.
+	 *
+	 * @param newRound: the round
+	 * @param newSources: the sources of the round
+	 * @param type: the type of the announcement
+	 * @param announcement: the content of the announcement
+	 */
+	private void beginRound(int newRound, int[] newSources, MessageType type, MessageContent announcement) {
+		round = newRound;
+		sources = newSources;
+		dist = new double[sources.length];
+		via = new int[sources.length];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		Arrays.fill(via, ID_NONE);
+		passMessageMST(type, announcement);
+		deficit += numChildren;
+		boolean isSource = false;
+		for (int i = 0; i < sources.length; i++) {
+			if (sources[i] == id) {
+				dist[i] = 0;
+				via[i] = id;
+				isSource = true;
+			}
+		}
+		if (isSource) {
+			sendDistances(ID_NONE);
+		}
+	}
+
+	/**
+	 * Called on the root once a round of shortest path computation has
+	 * terminated everywhere. After the landmarks' round, the estimates are
+	 * gathered; after the leader's, every node knows its way to the leader,
+	 * so the leader is told to start the workload.
+	 */
+	private void roundDone() {
+		if (round == ROUND_LANDMARKS) {
+			processCollect();
+		} else {
+			ackLeader();
+		}
+	}
+
+	// BELLMAN-FORD ////////////////////////////////////////////////////////////
+
+	/**
+	 * Tell every neighbor this node's distances to the sources of the round.
+	 *
+	 * @param skip: a neighbor not to tell, or ID_NONE
+	 */
+	private void sendDistances(int skip) {
+		LandmarkMessageContent content = new LandmarkMessageContent(round, dist.clone());
+		for (int nextId : allProcesses) {
+			if (nextId != id && nextId != skip) {
+				deficit++;
+				sendMessage(new Message(id, nextId, MessageType.MSG_LANDMARK_DISTANCE, content));
+			}
+		}
+	}
+
+	/**
+	 * Processes a neighbor's distances to the sources of the round. Any
+	 * distance that gets shorter by going through the neighbor is updated,
+	 * and if any did, every other neighbor is told. Distances of a round this
+	 * node hasn't heard announced yet are put back in the queue.
+	 *
+	 * @param m: the DISTANCE message
+	 */
+	public void processDistance(Message m) {
+		LandmarkMessageContent mContent = (LandmarkMessageContent) m.getContent();
+		if (mContent.getRound() > round) {
+			try {
+				incomingMessages.put(m);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		int sender = m.getSender();
+		engage(sender);
+		double edge = costs.get(id).get(sender);
+		double[] theirs = mContent.getDistances();
+		boolean improved = false;
+		for (int i = 0; i < dist.length; i++) {
+			if (edge + theirs[i] < dist[i]) {
+				dist[i] = edge + theirs[i];
+				via[i] = sender;
+				improved = true;
+			}
+		}
+		if (improved) {
+			sendDistances(sender);
+		}
+		checkDone();
+	}
+
+	// TERMINATION DETECTION ////////////////////////////////////////////////////
+
+	/**
+	 * On receiving a message of the computation: if this node isn't taking
+	 * part yet, it is now, on behalf of the sender. Otherwise, the message is
+	 * signalled back right away.
+	 *
+	 * @param sender: the sender of the message
+	 */
+	private void engage(int sender) {
+		if (!engaged) {
+			engaged = true;
+			engager = sender;
+		} else {
+			sendMessage(new Message(id, sender, MessageType.MSG_LANDMARK_SIGNAL, null));
+		}
+	}
+
+	/**
+	 * Processes a signal that a message this node sent has been handled.
+	 */
+	public void processSignal() {
+		deficit--;
+		checkDone();
+	}
+
+	/**
+	 * Once every message this node sent has been signalled back, it stops
+	 * taking part, and signals the node that engaged it. When the root stops,
+	 * the round is over everywhere.
+	 */
+	private void checkDone() {
+		if (!engaged || deficit > 0) {
+			return;
+		}
+		engaged = false;
+		if (root) {
+			roundDone();
+		} else {
+			sendMessage(new Message(id, engager, MessageType.MSG_LANDMARK_SIGNAL, null));
+		}
+	}
+
+	// CHOOSING THE LEADER ////////////////////////////////////////////////////
+
+	/**
+	 * This node's closeness estimated from its distances to the landmarks: the
+	 * mean distance to the landmarks other than itself, times the number of
+	 * other nodes. Exact if every node is a landmark.
+	 *
+	 * @return the estimated sum of shortest path costs to every other node
+	 */
+	private double estimateCloseness() {
+		double sum = 0;
+		int samples = 0;
+		for (int i = 0; i < sources.length; i++) {
+			if (sources[i] != id) {
+				sum += dist[i];
+				samples++;
+			}
+		}
+		return (samples == 0) ? Double.MAX_VALUE : sum * (allProcesses.length - 1) / samples;
+	}
+
+	/**
+	 * Processes the COLLECT message, sent down the MST by the root once the
+	 * distances to the landmarks are known everywhere: start from this node's
+	 * own estimate, and pass the message on to this node's children.
+	 */
+	public void processCollect() {
+		bestEstimate = estimateCloseness();
+		bestId = id;
+		reportsReceived = 0;
+		passMessageMST(MessageType.MSG_LANDMARK_COLLECT, null);
+		reportEstimate();
+	}
+
+	/**
+	 * Processes an ESTIMATE message from a child in the MST, keeping the better
+	 * of its estimate and the best one so far.
+	 *
+	 * @param m: the ESTIMATE message. The message content is expected to contain
+	 * an array of two elements, the estimate and the node it belongs to.
+	 */
+	public void processEstimate(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		reportsReceived++;
+		if (args[0] < bestEstimate) {
+			bestEstimate = args[0];
+			bestId = (int) args[1];
+		}
+		reportEstimate();
+	}
+
+	/**
+	 * Once every child has reported, report the best estimate to the parent in
+	 * the MST. The root instead makes the node with the best estimate the
+	 * leader, and starts the leader's round.
+	 */
+	private void reportEstimate() {
+		if (reportsReceived < numChildren) {
+			return;
+		}
+		double[] args = new double[2];
+		args[0] = bestEstimate;
+		args[1] = bestId;
+		if (!root) {
+			sendMessage(new Message(id, inBranch, MessageType.MSG_LANDMARK_ESTIMATE,
+					new MSTMessageContent(args)));
+			return;
+		}
+		System.out.println("Landmark Leader is " + bestId);
+		engaged = true;
+		announceLeader(args);
+		checkDone();
+	}
+
+	/**
+	 * Processes the LEADER message, sent down the MST by the root: learn the
+	 * leader, and start computing the distance to it.
+	 *
+	 * @param m: the LEADER message. The message content is expected to contain
+	 * an array of two elements, the leader's estimated closeness and its id.
+	 */
+	public void processLeader(Message m) {
+		engage(m.getSender());
+		announceLeader(((MSTMessageContent) m.getContent()).getArgs());
+		checkDone();
+	}
+
+	/**
+	 * Start the leader's round, passing on its announcement, and only then
+	 * take on the leader, since passing messages down the MST relies on
+	 * {@code leaderId} being its root.
+	 *
+	 * @param args: the leader's estimated closeness and its id
+	 */
+	private void announceLeader(double[] args) {
+		int newLeader = (int) args[1];
+		beginRound(ROUND_LEADER, new int[] { newLeader }, MessageType.MSG_LANDMARK_LEADER,
+				new MSTMessageContent(args));
+		leaderId = newLeader;
+		isLeader = (leaderId == id);
+		leaderEstimate = args[0];
+	}
+
+	/**
+	 * As the leader, once all queries are in: compare the exact closeness of
+	 * this leader against that of the best placement, as shortest path
+	 * election would have found it, and record both along with the estimate.
+	 * The exact shortest paths are computed here from every edge cost,
+	 * outside the simulation, and aren't charged as messages.
+	 */
+	@Override
+	protected void reviewPlacement() {
+		int n = allProcesses.length;
+		DistanceMatrix exact = new DistanceMatrix(allProcesses);
+		int[] all = new int[n];
+		for (int i = 0; i < n; i++) {
+			all[i] = i;
+			for (int j = 0; j < n; j++) {
+				exact.set(i, j, (i == j) ? 0 : costs.get(allProcesses[i]).get(allProcesses[j]), j);
+			}
+		}
+		exact.relaxThrough(all);
+		double[] d = exact.distances();
+		double best = Double.MAX_VALUE;
+		double current = 0;
+		for (int i = 0; i < n; i++) {
+			double val = 0;
+			for (int j = 0; j < n; j++) {
+				val += d[i * n + j];
+			}
+			best = Math.min(best, val);
+			if (allProcesses[i] == id) {
+				current = val;
+			}
+		}
+		costTracker.registerMetric("closeness of leader", current);
+		costTracker.registerMetric("estimated closeness of leader", leaderEstimate);
+		costTracker.registerMetric("closeness of best placement", best);
+		costTracker.registerMetric("relative closeness error of leader", current / best - 1);
+	}
+
+	/**
+	 * Switch statement for messages involved in landmark leader election.
+	 */
+	@Override
+	public boolean processMessageSpecial(Message m) {
+		boolean done = super.processMessageSpecial(m);
+		if (done)
+			return true;
+		switch (m.getType()) {
+		case MSG_LANDMARK_DISTANCE:
+			processDistance(m);
+			return true;
+		case MSG_LANDMARK_SIGNAL:
+			processSignal();
+			return true;
+		case MSG_LANDMARK_COLLECT:
+			processCollect();
+			return true;
+		case MSG_LANDMARK_ESTIMATE:
+			processEstimate(m);
+			return true;
+		case MSG_LANDMARK_LEADER:
+			processLeader(m);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	// WORKLOAD ////////////////////////////////////////////////////////////
+
+	/**
+	 * To trigger leader election, begin the MST discovery process.
+	 */
+	@Override
+	public void triggerLeaderElection() {
+		wakeup();
+	}
+
+	/**
+	 * The next node on the shortest path from this node to the leader
+	 *
+	 * @return its id, or this node's own id for the leader
+	 */
+	private int leaderHop() {
+		return isLeader ? id : via[0];
+	}
+
+	/**
+	 * Writes this node's next hop towards the leader on top of the MST.
+	 *
+	 * @param cp: the checkpoint being saved
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	@Override
+	public void saveElection(Checkpoint cp) throws IOException {
+		super.saveElection(cp);
+		cp.getOutput().writeInt(leaderHop());
+	}
+
+	/**
+	 * Reads back this node's next hop towards the leader, as if the leader's
+	 * round had just ended.
+	 *
+	 * @param cp: the checkpoint being restored
+	 * @throws IOException if the checkpoint cannot be read
+	 */
+	@Override
+	public void restoreElection(Checkpoint cp) throws IOException {
+		super.restoreElection(cp);
+		round = ROUND_LEADER;
+		sources = new int[] { leaderId };
+		via = new int[] { cp.getInput().readInt() };
+	}
+
+	/**
+	 * Pass message to other MST edges, skipping the sender node. Unlike
+	 * {@link #passMessageMST}, this works wherever in the MST the leader is.
+	 *
+	 * @param messageType - message type to pass
+	 * @param m - message content to pass
+	 * @param sender - node to avoid
+	 */
+	protected void passMessageTree(MessageType messageType, MessageContent m, int sender) {
+		int count = 0;
+		for (int nextId : branches()) {
+			if (nextId != sender) {
+				this.sendMessage(new Message(id, nextId, messageType, m));
+				count++;
+			}
+		}
+		disseminationChildren = count;
+	}
+
+	/**
+	 * Sent once the leader's round is over, from the root to the leader along
+	 * the shortest path, to say every node knows its way to the leader. The
+	 * leader then starts the workload.
+	 */
+	@Override
+	protected void ackLeader() {
+		if (!isLeader) {
+			sendMessage(new Message(id, leaderHop(), MessageType.MSG_ACK_LEADER, null));
+		} else {
+			System.out.println("Leader acked!");
+			startWorkloadSimple();
+		}
+	}
+
+	/**
+	 * Processes the ACK_LEADER message by calling {@link ackLeader}.
+	 */
+	@Override
+	protected void processMessageAckLeader(Message m) {
+		ackLeader();
+	}
+
+	/**
+	 * Broadcasts a message from the leader to other nodes in the network
+	 * via the MST connections.
+	 */
+	@Override
+	public void broadcast(MessageType messageType, MessageContent mc) {
+		assert (id == this.leaderId);
+		passMessageTree(messageType, mc, ID_NONE);
+	}
+
+	/**
+	 * Process a broadcast message as an intermediate node, passing the
+	 * broadcast to further nodes via the MST connections.
+	 */
+	@Override
+	protected void processLeaderBroadcastSimple(Message m) {
+		assert (!isLeader);
+		passMessageTree(m.getType(), m.getContent(), m.getSender());
+		super.processLeaderBroadcastSimpleForReceiver(m);
+	}
+
+	/**
+	 * Queries the leader by moving one step in the direction of the leader on
+	 * the shortest path to the leader.
+	 */
+	@Override
+	public void queryLeader(MessageContent mc) {
+		assert (!isLeader);
+		sendMessage(new Message(id, leaderHop(), MessageType.MSG_QUERY_SIMPLE, mc));
+	}
+
+	/**
+	 * Process a query to the leader, calling the method implemented in
+	 * {@link common.Process} if a leader, and otherwise passing the
+	 * message further in the direction of the leader.
+	 */
+	@Override
+	protected boolean processQuerySimple(Message m) {
+		if (id == leaderId) {
+			return super.processQuerySimpleForLeader(m);
+		} else {
+			queryLeader(m.getContent());
+			return false;
+		}
+	}
+
+	/**
+	 * Pass the kill message further from the leader via the MST connections,
+	 * before exiting.
+	 */
+	@Override
+	protected void processKill(Message m) {
+		passMessageTree(m.getType(), m.getContent(), m.getSender());
+	}
+}
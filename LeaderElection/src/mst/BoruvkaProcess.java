@@ -0,0 +1,274 @@
+package mst;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import common.CostTracker;
+import common.Mailbox;
+import common.Message;
+import common.Message.MessageType;
+
+/**
+ * This is a subclass of {@link MSTProcess} that builds the MST in phases, in
+ * the manner of Boruvka, rather than with GHS. Broadcast and query both send
+ * messages along the edges of the MST, as in {@link MSTProcess}.
+ *
+ * Every fragment has a single root and a phase number, the number of merges
+ * it is the result of. In each phase, the root floods INITIATE over the
+ * fragment, its processes find their minimum weight outgoing edges with the
+ * same TEST, ACCEPT and REJECT messages as GHS, and the minimum over the
+ * fragment is reported back to the root. The root then has a CONNECT sent
+ * over it.
+ *
+ * Unlike GHS, a fragment never waits to be accepted: a CONNECT from a fragment
+ * of the same phase attaches it to the receiving fragment as soon as the
+ * receiving process has found its own minimum weight outgoing edge, and it
+ * joins the next phase of whatever the receiving fragment becomes. Until then
+ * the edge is still a candidate for the receiving fragment's own choice. Since
+ * every fragment connects over its minimum weight outgoing edge, the
+ * fragments linked this way form a tree in which exactly two fragments
+ * connect over the same edge. Those two merge into a fragment of the next
+ * phase, rooted at the endpoint with the lower id, which starts the next
+ * phase for the whole tree. A fragment of a lower phase is absorbed, and
+ * joins the search in progress if there is one, as in GHS.
+ *
+ * All fragments in a tree thus move to the next phase together, and each
+ * phase at least halves the number of fragments, so there are at most
+ * log n phases. Once a root finds no outgoing edge, its fragment spans
+ * the network, and it is the leader.
+ */
+public class BoruvkaProcess extends MSTProcess {
+
+	// INSTANCE FIELDS
+	// ////////////////////////////////////////////////////////////
+
+	/**
+	 * The process this process last sent a CONNECT to, or -1 if none. If a
+	 * CONNECT arrives from it, both fragments chose the same edge.
+	 */
+	int connectEdge = -1;
+
+	/**
+	 * Whether {@code bestEdge} is an edge of this process, rather than the
+	 * child that reported the best edge
+	 */
+	boolean bestIsOwn = false;
+
+	// CONSTRUCTOR ////////////////////////////////////////////////////////////
+	/**
+	 * Just calls the constructor in {@link MSTProcess}.
+	 *
+	 * @param id
+	 * @param allProcesses
+	 * @param costs
+	 * @param queues
+	 * @param incomingMessages
+	 * @param costTracker
+	 */
+	public BoruvkaProcess(int id, int[] allProcesses, HashMap<Integer, HashMap<Integer, Double>> costs,
+			Map<Integer, Mailbox> queues, Mailbox incomingMessages,
+			CostTracker costTracker) {
+		super(id, allProcesses, costs, queues, incomingMessages, costTracker);
+	}
+
+	// PHASES ////////////////////////////////////////////////////////////
+	/**
+	 * Wakes up current process, which becomes a fragment of its own in phase
+	 * 0. Its minimum weight outgoing edge is its minimum weight edge, so it
+	 * connects over that edge straight away.
+	 */
+	@Override
+	public void wakeup() {
+		if (sn != SN_SLEEPING) {
+			return;
+		}
+		sn = SN_FOUND;
+		ln = 0;
+		fn = id;
+		findCount = 0;
+		connect(getMinEdge());
+	}
+
+	/**
+	 * Starts the next phase with this process as the root of its fragment:
+	 * floods INITIATE over the fragment, and looks for its own minimum
+	 * weight outgoing edge. The new phase is higher than either of the two
+	 * merging fragments'.
+	 *
+	 * @param otherPhase: the phase of the fragment being merged with
+	 */
+	private void startPhase(int otherPhase) {
+		ln = Math.max(ln, otherPhase) + 1;
+		fn = id;
+		sn = SN_FIND;
+		inBranch = -1;
+		bestEdge = -1;
+		bestWt = Double.MAX_VALUE;
+		for (int nextId : branches()) {
+			double[] args = new double[3];
+			args[0] = ln;
+			args[1] = fn;
+			args[2] = sn;
+			this.sendMessage(new Message(id, nextId, MessageType.MSG_MST_INITIATE,
+					new MSTMessageContent(args)));
+			findCount = findCount + 1;
+		}
+		test();
+	}
+
+	/**
+	 * Sends a CONNECT over an edge of this process, the minimum weight
+	 * outgoing edge of its fragment. If a CONNECT already came over the same
+	 * edge, the two fragments chose the same edge, and merge.
+	 *
+	 * @param nextId: the process at the other end of the edge
+	 */
+	private void connect(int nextId) {
+		boolean merge = (edgeState(nextId) == SE_BRANCH);
+		setEdgeState(nextId, SE_BRANCH);
+		connectEdge = nextId;
+		double[] args = new double[1];
+		args[0] = ln;
+		this.sendMessage(new Message(id, nextId, MessageType.MSG_MST_CONNECT,
+				new MSTMessageContent(args)));
+		if (merge && id < nextId) {
+			startPhase(ln);
+		}
+	}
+
+	/**
+	 * Processes the CONNECT message.
+	 *
+	 * 1. If this process sent a CONNECT over the same edge, both fragments
+	 * chose it, and the endpoint with the lower id starts the next phase,
+	 * whatever phases the two fragments were in.
+	 * 2. If the sender's phase is lower than this process's, its fragment is
+	 * absorbed into this one, as in GHS.
+	 * 3. If this process is still looking for its own minimum weight outgoing
+	 * edge, the CONNECT waits, as the edge may turn out to be this fragment's
+	 * choice too. Attaching the sender's fragment now would make the edge a
+	 * BRANCH, which is never tested, and the two fragments would then choose
+	 * different edges, with neither starting the next phase.
+	 * 4. Otherwise, the sender's fragment is attached to this one, and joins
+	 * the next phase of the fragment once it starts.
+	 *
+	 * @param m: the message being processed. Must be of type MSG_MST_CONNECT.
+	 * The message content is expected to contain an array of one element
+	 * containing the phase.
+	 */
+	@Override
+	public void processConnect(Message m) {
+		int sender = m.getSender();
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+
+		if (sn == SN_SLEEPING) {
+			wakeup();
+		}
+
+		if (sender == connectEdge) {
+			if (id < sender) {
+				startPhase((int) args[0]);
+			}
+		} else if (args[0] < ln) {
+			setEdgeState(sender, SE_BRANCH);
+			double[] newargs = new double[3];
+			newargs[0] = ln;
+			newargs[1] = fn;
+			newargs[2] = sn;
+			this.sendMessage(new Message(id, sender,
+					MessageType.MSG_MST_INITIATE,
+					new MSTMessageContent(newargs)));
+			if (sn == SN_FIND) {
+				findCount++;
+			}
+		} else if (sn == SN_FIND) {
+			try {
+				this.incomingMessages.put(m);
+			} catch (InterruptedException e) {
+				System.out.println("Couldn't add incoming message back to queue");
+				e.printStackTrace();
+			}
+		} else {
+			setEdgeState(sender, SE_BRANCH);
+		}
+	}
+
+	/**
+	 * Processes an ACCEPT message, noting whether the edge became the best
+	 * one so far before handling it as GHS does.
+	 *
+	 * @param sender: the sender of the ACCEPT message
+	 */
+	@Override
+	public void processAccept(int sender) {
+		if (costs.get(id).get(sender) < bestWt) {
+			bestIsOwn = true;
+		}
+		super.processAccept(sender);
+	}
+
+	/**
+	 * Processes a REPORT message from a child, updating bestWt and bestEdge
+	 * if it found a lower cost edge than the best so far.
+	 *
+	 * @param m: the REPORT message. The message content is expected to
+	 * contain an array of one element containing the weight of the minimum
+	 * edge.
+	 */
+	@Override
+	public void processReport(Message m) {
+		double w = ((MSTMessageContent) m.getContent()).getArgs()[0];
+		findCount -= 1;
+		if (w < bestWt) {
+			bestWt = w;
+			bestEdge = m.getSender();
+			bestIsOwn = false;
+		}
+		report();
+	}
+
+	/**
+	 * Reports once this process has found its own minimum weight outgoing
+	 * edge and has heard from all its children. The root instead has the
+	 * fragment connect over the best edge, or if there is none, becomes the
+	 * leader.
+	 */
+	@Override
+	public void report() {
+		if (findCount != 0 || testEdge != -1) {
+			return;
+		}
+		sn = SN_FOUND;
+		if (inBranch != -1) {
+			double[] args = new double[1];
+			args[0] = bestWt;
+			this.sendMessage(new Message(id, inBranch,
+					MessageType.MSG_MST_REPORT, new MSTMessageContent(args)));
+		} else if (bestWt < Double.MAX_VALUE) {
+			changeRoot();
+		} else {
+			leaderId = id;
+			isLeader = true;
+			System.out.println("Boruvka Leader is " + leaderId);
+			costTracker.registerMetric("number of MST phases", ln);
+			double[] args = new double[1];
+			args[0] = leaderId;
+			this.sendMessage(new Message(id, id, MessageType.MSG_MST_FINISH,
+					new MSTMessageContent(args)));
+		}
+	}
+
+	/**
+	 * Passes the decision to connect down the fragment towards the best
+	 * edge, and connects over it once there.
+	 */
+	@Override
+	public void changeRoot() {
+		if (bestIsOwn) {
+			connect(bestEdge);
+		} else {
+			this.sendMessage(new Message(id, bestEdge,
+					MessageType.MSG_MST_CHANGEROOT, new MSTMessageContent(null)));
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package mst;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import common.CostTracker;
+import common.Mailbox;
+import common.Message;
+import common.Message.MessageType;
+import common.MessageContent;
+
+/**
+ * This is a subclass of {@link MSTProcess} that splits the MST into clusters,
+ * each with a leader of its own, so that no single leader receives every
+ * query. The MST and its leader are elected as in {@link MSTProcess}, and
+ * the leader's broadcast travels the whole MST as usual.
+ *
+ * Before the workload, the leader floods CLUSTER_FORM down the MST, and the
+ * size of each subtree is reported back up with CLUSTER_SIZE. Every process
+ * takes in what is left of its children's subtrees, smallest first, for as
+ * long as its own group stays within {@code clusterSize} processes; a child
+ * whose group does not fit is told with CLUSTER_LEAD to lead it as a cluster
+ * of its own. A process whose group reaches {@code clusterSize} leads it as a
+ * cluster, and reports nothing of it further up. Whatever is left at the
+ * root makes up the cluster of the MST leader, which is also the top-level
+ * leader of the cluster leaders: they and their paths to it form the MST
+ * with every cluster contracted to a point, rooted at it. No cluster holds
+ * more than {@code clusterSize} processes, but clusters cut off a parent's
+ * group may hold fewer.
+ *
+ * Every process queries its cluster leader, which is the first cluster leader
+ * on its path to the root, so queries travel up the MST as usual and stop
+ * there. Each cluster leader knows from the reports how many queries its
+ * cluster sends, and once they have all arrived, sends a single aggregated
+ * query on to the top-level leader with their number. The top-level leader
+ * thus receives the queries of its own cluster and one per other cluster,
+ * rather than one per process, and shuts the simulation down once it has
+ * them all.
+ */
+public class HierarchicalProcess extends MSTProcess {
+
+	// INSTANCE FIELDS
+	// ////////////////////////////////////////////////////////////
+
+	/**
+	 * Whether the clusters have been formed. Only used for the leader.
+	 */
+	boolean clustersFormed = false;
+
+	/**
+	 * Number of children still to report their size while clusters form
+	 */
+	int clusterPending = 0;
+
+	/**
+	 * The number of processes, and of queries they send, in the subtree of
+	 * this process that is not part of a cluster below it, and the number of
+	 * clusters in its whole subtree
+	 */
+	int sizeBelow = 0;
+	int demandBelow = 0;
+	int clustersBelow = 0;
+
+	/**
+	 * What is left of each child's subtree, as reported while clusters form:
+	 * the child, and the number of processes and of queries left in it
+	 */
+	ArrayList<int[]> childGroups = new ArrayList<int[]>();
+
+	/**
+	 * Whether this process leads a cluster
+	 */
+	boolean isClusterLeader = false;
+
+	/**
+	 * Number of queries the cluster this process leads sends it, and the
+	 * number received so far
+	 */
+	int clusterDemand = 0;
+	int clusterReceived = 0;
+
+	/**
+	 * Number of clusters, and the aggregated queries received from the other
+	 * cluster leaders so far: how many, the number of queries they stand for,
+	 * and the largest number any of them stands for. Only used for the leader.
+	 */
+	int numClusters = 0;
+	int aggregatesReceived = 0;
+	int aggregatedQueries = 0;
+	int largestAggregate = 0;
+
+	// CONSTRUCTOR ////////////////////////////////////////////////////////////
+	/**
+	 * Just calls the constructor in {@link MSTProcess}.
+	 *
+	 * @param id
+	 * @param allProcesses
+	 * @param costs
+	 * @param queues
+	 * @param incomingMessages
+	 * @param costTracker
+	 */
+	public HierarchicalProcess(int id, int[] allProcesses, HashMap<Integer, HashMap<Integer, Double>> costs,
+			Map<Integer, Mailbox> queues, Mailbox incomingMessages,
+			CostTracker costTracker) {
+		super(id, allProcesses, costs, queues, incomingMessages, costTracker);
+	}
+
+	// CLUSTERS ////////////////////////////////////////////////////////////
+	/**
+	 * Forms the clusters the first time the leader would start the workload,
+	 * and starts it once they are formed.
+	 */
+	@Override
+	public void startWorkloadSimple() {
+		if (!clustersFormed) {
+			formClusters();
+			return;
+		}
+		super.startWorkloadSimple();
+	}
+
+	/**
+	 * Forgets the clusters along with the rest of the workload, since a new
+	 * leader forms them again over its own tree.
+	 */
+	@Override
+	protected void resetWorkload() {
+		super.resetWorkload();
+		clustersFormed = false;
+		clusterPending = 0;
+		sizeBelow = 0;
+		demandBelow = 0;
+		clustersBelow = 0;
+		childGroups.clear();
+		isClusterLeader = false;
+		clusterDemand = 0;
+		clusterReceived = 0;
+		numClusters = 0;
+		aggregatesReceived = 0;
+		aggregatedQueries = 0;
+		largestAggregate = 0;
+	}
+
+	/**
+	 * Passes CLUSTER_FORM on to the children of this process, and starts
+	 * counting its subtree with itself. The leader sends no queries, so it
+	 * leaves itself out of the demand.
+	 */
+	private void formClusters() {
+		sizeBelow = 1;
+		demandBelow = (id == leaderId) ? 0 : queryDemand();
+		clustersBelow = 0;
+		childGroups.clear();
+		passMessageMST(MessageType.MSG_CLUSTER_FORM, null);
+		clusterPending = disseminationChildren;
+		reportClusterSize();
+	}
+
+	/**
+	 * Processes the MSG_CLUSTER_SIZE message, noting what is left of the
+	 * child's subtree.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the number of processes and of queries left in the child's
+	 * subtree, and the number of clusters in it.
+	 */
+	private void processClusterSize(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		childGroups.add(new int[] { m.getSender(), (int) args[0], (int) args[1] });
+		clustersBelow += (int) args[2];
+		clusterPending--;
+		reportClusterSize();
+	}
+
+	/**
+	 * Processes the MSG_CLUSTER_LEAD message: the parent had no room for what
+	 * is left of this process's subtree, which this process leads as a
+	 * cluster.
+	 */
+	private void processClusterLead() {
+		isClusterLeader = true;
+		clusterDemand = demandBelow;
+	}
+
+	/**
+	 * Takes what is left of the children's subtrees into this process's
+	 * group, smallest first and by id on ties, while the group stays within
+	 * {@code clusterSize} processes. Every child whose group does not fit
+	 * leads it as a cluster.
+	 */
+	private void takeChildGroups() {
+		Collections.sort(childGroups, (a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1])
+				: Integer.compare(a[0], b[0]));
+		for (int[] group : childGroups) {
+			if (sizeBelow + group[1] <= config.clusterSize) {
+				sizeBelow += group[1];
+				demandBelow += group[2];
+			} else {
+				clustersBelow++;
+				sendMessage(new Message(id, group[0], MessageType.MSG_CLUSTER_LEAD, new MSTMessageContent(null)));
+			}
+		}
+	}
+
+	/**
+	 * Once every child has reported, decides whether this process leads a
+	 * cluster and reports what is left of its subtree to its parent. The
+	 * leader always leads a cluster, and starts the workload.
+	 */
+	private void reportClusterSize() {
+		if (clusterPending > 0) {
+			return;
+		}
+		takeChildGroups();
+		if (id == leaderId) {
+			isClusterLeader = true;
+			clusterDemand = demandBelow;
+			numClusters = clustersBelow + 1;
+			clustersFormed = true;
+			System.out.println("Formed " + numClusters + " clusters");
+			costTracker.registerMetric("number of clusters", numClusters);
+			super.startWorkloadSimple();
+			return;
+		}
+		double[] args;
+		if (sizeBelow >= config.clusterSize) {
+			isClusterLeader = true;
+			clusterDemand = demandBelow;
+			args = new double[] { 0, 0, clustersBelow + 1 };
+		} else {
+			args = new double[] { sizeBelow, demandBelow, clustersBelow };
+		}
+		sendMessage(new Message(id, inBranch, MessageType.MSG_CLUSTER_SIZE, new MSTMessageContent(args)));
+	}
+
+	// QUERIES ////////////////////////////////////////////////////////////
+	/**
+	 * Sends a query to the leader of this process's cluster, up the MST. A
+	 * cluster leader answers its own queries.
+	 *
+	 * @param mContent: the message content to send.
+	 */
+	@Override
+	public void queryLeader(MessageContent mContent) {
+		if (isClusterLeader) {
+			receiveClusterQuery();
+			return;
+		}
+		super.queryLeader(mContent);
+	}
+
+	/**
+	 * Processes a MSG_QUERY_SIMPLE message. A query from the cluster is
+	 * answered by its leader, and an aggregated query from another cluster
+	 * leader, which carries an {@link MSTMessageContent}, by the top-level
+	 * leader. Anything else is passed on to the parent.
+	 *
+	 * @param m: the QUERY message
+	 * @return whether this process should exit
+	 */
+	@Override
+	protected boolean processQuerySimple(Message m) {
+		boolean aggregate = m.getContent() instanceof MSTMessageContent;
+		if (aggregate && id == leaderId) {
+			int queries = (int) ((MSTMessageContent) m.getContent()).getArgs()[0];
+			aggregatesReceived++;
+			aggregatedQueries += queries;
+			largestAggregate = Math.max(largestAggregate, queries);
+			return checkAllClustersDone();
+		}
+		if (!aggregate && isClusterLeader) {
+			return receiveClusterQuery();
+		}
+		super.queryLeader(m.getContent());
+		return false;
+	}
+
+	/**
+	 * Counts a query from this process's cluster. Once they have all arrived,
+	 * a cluster leader other than the top-level leader sends one query on for
+	 * all of them.
+	 *
+	 * @return whether this process should exit
+	 */
+	private boolean receiveClusterQuery() {
+		clusterReceived++;
+		if (clusterReceived < clusterDemand) {
+			return false;
+		}
+		if (id == leaderId) {
+			return checkAllClustersDone();
+		}
+		sendMessage(new Message(id, inBranch, MessageType.MSG_QUERY_SIMPLE,
+				new MSTMessageContent(new double[] { clusterReceived })));
+		return false;
+	}
+
+	/**
+	 * Used by the top-level leader: once the queries of its own cluster and an
+	 * aggregated query from every other cluster have arrived, the workload is
+	 * over and it shuts the simulation down.
+	 *
+	 * @return whether the leader should exit
+	 */
+	private boolean checkAllClustersDone() {
+		if (clusterReceived < clusterDemand || aggregatesReceived < numClusters - 1) {
+			return false;
+		}
+		System.out.println("All queries received!");
+		costTracker.registerMetric("number of queries received by the top-level leader",
+				clusterReceived + aggregatesReceived);
+		costTracker.registerMetric("largest number of queries received by a cluster leader",
+				Math.max(clusterReceived, largestAggregate));
+		costTracker.registerMetric("number of queries answered by cluster leaders",
+				clusterReceived + aggregatedQueries);
+		terminate();
+		return true;
+	}
+
+	/**
+	 * Does nothing: cluster leaders count the queries of their clusters
+	 * themselves, so no quiescence reports are needed to end the workload.
+	 */
+	@Override
+	protected void checkQuiescent() {
+	}
+
+	/**
+	 * Takes a message and calls the appropriate function, handling the
+	 * cluster messages here and passing the rest on to {@link MSTProcess}.
+	 *
+	 * @param m: the message
+	 * @return whether the process should exit
+	 */
+	@Override
+	public boolean processMessageSpecial(Message m) {
+		switch (m.getType()) {
+		case MSG_CLUSTER_FORM:
+			formClusters();
+			return false;
+		case MSG_CLUSTER_SIZE:
+			processClusterSize(m);
+			return false;
+		case MSG_CLUSTER_LEAD:
+			processClusterLead();
+			return false;
+		default:
+			return super.processMessageSpecial(m);
+		}
+	}
+}
@@ -1,11 +1,16 @@
 package mst;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
 
+import common.Checkpoint;
 import common.CostTracker;
+import common.Mailbox;
 import common.Message;
 import common.MessageContent;
 import common.Process;
@@ -44,6 +49,15 @@ public abstract class MSTBase extends Process {
 	public static final int SE_BRANCH = 2;
 	public static final int SE_REJECTED = 3;
 
+	/**
+	 * What becomes of an edge while a process joins: it stays in the tree,
+	 * it leaves the tree, or it is the heaviest edge found so far on the path
+	 * to the joining process, whose fate is decided further up.
+	 */
+	private static final int FATE_KEEP = 1;
+	private static final int FATE_DROP = 2;
+	private static final int FATE_UP = 3;
+
 	// INSTANCE FIELDS
 	// ////////////////////////////////////////////////////////////
 
@@ -69,10 +83,40 @@ public abstract class MSTBase extends Process {
 	double fn;
 
 	/**
-	 * A hashmap of the state edges are in. The key is the id of the process,
-	 * and the value is either SE_BASIC, SE_BRANCH, or SE_REJECTED.
+	 * The ids of the processes this process has an edge to, sorted by
+	 * increasing edge weight (ties broken by id). Set at construction, and
+	 * only changed as processes join, whose edges are added at the end, or
+	 * leave. The position of a process in this array is its neighbor index.
+	 */
+	int[] edgesByWeight;
+
+	/**
+	 * Maps the id of a process this process has an edge to, to its neighbor
+	 * index.
+	 */
+	HashMap<Integer, Integer> neighborIndex;
+
+	/**
+	 * The state each edge is in, by neighbor index: either SE_BASIC, 
+	 * SE_BRANCH, or SE_REJECTED.
+	 */
+	byte[] se;
+
+	/**
+	 * The ids of the processes connected by BRANCH edges, in the order the
+	 * edges became branches. An edge only stops being a BRANCH when a repair
+	 * takes it out of the tree. Never modified in place, so callers can
+	 * iterate it while sending.
 	 */
-	protected HashMap<Integer, Integer> se;
+	int[] branchList = new int[0];
+
+	/**
+	 * Position in {@code edgesByWeight} of the first edge that may still be
+	 * BASIC. An edge never returns to BASIC once it leaves it, even when a
+	 * repair takes it out of the tree, so every edge before this one is a
+	 * BRANCH or REJECTED, and the cursor only moves forward.
+	 */
+	int basicCursor = 0;
 
 	/**
 	 * A count of the number of processes a response is still expected from. It
@@ -120,6 +164,99 @@ public abstract class MSTBase extends Process {
 	 */
 	protected int numBranch = -1;
 
+	// MEMBERSHIP STATE
+	// ////////////////////////////////////////////////////////////
+
+	/**
+	 * Number of processes the leader still has to let join, and then to let
+	 * leave, before starting the workload, or -1 if it has not started on
+	 * them. Only used for the leader.
+	 */
+	int joinsLeft = -1;
+	int leavesLeft = -1;
+
+	/**
+	 * Sequence number of the latest membership change this process took part
+	 * in, or -1 if none
+	 */
+	int memberSeq = -1;
+
+	/**
+	 * The process joining or leaving in the current change
+	 */
+	int memberSubject = ID_NONE;
+
+	/**
+	 * The process the current change reached this process from, which it
+	 * reports back to, or ID_NONE where the change started
+	 */
+	int memberParent = ID_NONE;
+
+	/**
+	 * Number of processes still to report back to this process during the
+	 * current change
+	 */
+	int memberPending = 0;
+
+	/**
+	 * During a join: the heaviest edge on the path from this process to the
+	 * joining process, in the tree of this process's subtree and the joining
+	 * process, as far as it is known: its weight and endpoints. Which edge it
+	 * is: the child that reported it, or ID_NONE for this process's own edge
+	 * to the joining process, and whether it is the child's report or the
+	 * edge to the child.
+	 */
+	double mergeWt;
+	int mergeLower;
+	int mergeUpper;
+	int mergeChild = ID_NONE;
+	boolean mergeReported = false;
+
+	/**
+	 * During a join: the fate of this process's own edge to the joining
+	 * process, and by child, the fates of the edge it reported and of the
+	 * edge to it
+	 */
+	int ownFate = FATE_UP;
+	HashMap<Integer, Integer> reportFate = new HashMap<Integer, Integer>();
+	HashMap<Integer, Integer> edgeFate = new HashMap<Integer, Integer>();
+
+	/**
+	 * During a leave: the neighbors of the leaving process in the tree, which
+	 * head the pieces the tree falls into without it, and the piece this
+	 * process is in, by the id of its head
+	 */
+	int[] pieceHeads = new int[0];
+	int piece = ID_NONE;
+
+	/**
+	 * During a leave, for each piece, by position in {@code pieceHeads}: the
+	 * cheapest edge to it found by this process and its children, the child
+	 * that found it or ID_NONE if it is an edge of this process, and in that
+	 * case its other endpoint
+	 */
+	double[] pieceBest;
+	int[] pieceTowards;
+	int[] pieceOut;
+
+	/**
+	 * During a leave: whether this process has tested all its own edges it
+	 * needs to, and the non-tree edges it tests, by increasing current cost,
+	 * with the position of the next one to test
+	 */
+	boolean memberOwnDone = false;
+	int[] memberCandidates;
+	int memberCursor = 0;
+
+	/**
+	 * At the leaving process: the cheapest edges from each piece to every
+	 * other, by position in {@code pieceHeads}, the number of pieces still to
+	 * report them, and the number of edges still to be linked
+	 */
+	double[][] pieceEdges;
+	int piecesPending = 0;
+	int linksPending = 0;
+
 	// CONSTRUCTOR ////////////////////////////////////////////////////////////
 	/**
 	 * Constructor. Calls the {@link Process} constructor, and also initalizes
@@ -134,40 +271,295 @@ public abstract class MSTBase extends Process {
 	 */
 	public MSTBase(int id, int[] allProcesses,
 			HashMap<Integer, HashMap<Integer, Double>> costs,
-			HashMap<Integer, LinkedBlockingQueue<Message>> queues,
-			LinkedBlockingQueue<Message> incomingMessages,
+			Map<Integer, Mailbox> queues,
+			Mailbox incomingMessages,
 			CostTracker costTracker) {
 		super(id, allProcesses, costs, queues, incomingMessages, costTracker);
 		this.ln = 0;
 		this.sn = SN_SLEEPING;
 		this.fn = -1;
-		this.se = new HashMap<Integer, Integer>();
-		Iterator<Integer> it = costs.get(id).keySet().iterator();
-		while (it.hasNext()) {
-			int nextId = it.next();
-			this.se.put(nextId, SE_BASIC);
+		resetNeighbors(allProcesses);
+	}
+
+	/**
+	 * Gets the state of the edge to a process.
+	 * 
+	 * @param nextId: id of the process at the other end
+	 * @return SE_BASIC, SE_BRANCH, or SE_REJECTED
+	 */
+	protected int edgeState(int nextId) {
+		return se[neighborIndex.get(nextId)];
+	}
+
+	/**
+	 * Sets the state of the edge to a process, adding it to 
+	 * {@code branchList} if it becomes a BRANCH.
+	 * 
+	 * @param nextId: id of the process at the other end
+	 * @param state: SE_BASIC, SE_BRANCH, or SE_REJECTED
+	 */
+	protected void setEdgeState(int nextId, int state) {
+		int i = neighborIndex.get(nextId);
+		if (state == SE_BRANCH && se[i] != SE_BRANCH) {
+			branchList = Arrays.copyOf(branchList, branchList.length + 1);
+			branchList[branchList.length - 1] = nextId;
 		}
+		se[i] = (byte) state;
 	}
 
 	/**
-	 * Gets the index of the minimum adjacent edge.
+	 * Takes a BRANCH edge out of the tree, rejecting it and removing it from
+	 * {@code branchList}.
 	 * 
-	 * @return id of minimum adjacent edge.
+	 * @param nextId: id of the process at the other end
 	 */
-	public int getMinEdge() {
-		int minEdge = -1;
-		double minCost = Double.MAX_VALUE;
-		HashMap<Integer, Double> edgeCosts = costs.get(id);
-		Iterator<Map.Entry<Integer, Double>> it = edgeCosts.entrySet()
-				.iterator();
-		while (it.hasNext()) {
-			Map.Entry<Integer, Double> pair = it.next();
-			if (pair.getValue() < minCost) {
-				minEdge = pair.getKey();
-				minCost = pair.getValue();
+	protected void removeBranch(int nextId) {
+		int i = neighborIndex.get(nextId);
+		if (se[i] != SE_BRANCH) {
+			return;
+		}
+		se[i] = (byte) SE_REJECTED;
+		int[] remaining = new int[branchList.length - 1];
+		int k = 0;
+		for (int branch : branchList) {
+			if (branch != nextId) {
+				remaining[k++] = branch;
+			}
+		}
+		branchList = remaining;
+	}
+
+	/**
+	 * Writes the MST as this process knows it: its fragment's level and name,
+	 * its parent, and the state of every edge that is not BASIC, branches
+	 * first and in order, by the id of the process at the other end. Saving
+	 * the edges by id lets a checkpoint leave out processes that crashed.
+	 * 
+	 * @param cp: the checkpoint being saved
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	@Override
+	public void saveElection(Checkpoint cp) throws IOException {
+		super.saveElection(cp);
+		DataOutputStream out = cp.getOutput();
+		out.writeInt(ln);
+		out.writeDouble(fn);
+		out.writeInt(inBranch);
+		int count = 0;
+		for (byte state : se) {
+			if (state != SE_BASIC) {
+				count++;
+			}
+		}
+		out.writeInt(count);
+		for (int branch : branchList) {
+			out.writeInt(branch);
+			out.writeByte(SE_BRANCH);
+		}
+		for (int nextId : edgesByWeight) {
+			if (edgeState(nextId) == SE_REJECTED) {
+				out.writeInt(nextId);
+				out.writeByte(SE_REJECTED);
+			}
+		}
+	}
+
+	/**
+	 * Reads back the MST as this process knew it, in place of building it.
+	 * Edges to processes that are not in the checkpoint are skipped, and the
+	 * number of children follows from the branches.
+	 * 
+	 * @param cp: the checkpoint being restored
+	 * @throws IOException if the checkpoint cannot be read
+	 */
+	@Override
+	public void restoreElection(Checkpoint cp) throws IOException {
+		super.restoreElection(cp);
+		DataInputStream in = cp.getInput();
+		ln = in.readInt();
+		fn = in.readDouble();
+		sn = SN_FOUND;
+		inBranch = in.readInt();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			int nextId = in.readInt();
+			int state = in.readByte();
+			if (neighborIndex.containsKey(nextId)) {
+				setEdgeState(nextId, state);
+			}
+		}
+		numBranch = branchList.length;
+		numChildren = (inBranch == ID_NONE) ? numBranch : numBranch - 1;
+	}
+
+	/**
+	 * Gets the processes connected to this process by BRANCH edges: its 
+	 * neighbors in the MST, once the MST is built. Must not be modified.
+	 * 
+	 * @return their ids
+	 */
+	public int[] branches() {
+		return branchList;
+	}
+
+	/**
+	 * Sorts this process's edges to the given processes by weight into
+	 * {@code edgesByWeight}, every one of them BASIC. Done once, at
+	 * construction, or when joining.
+	 * 
+	 * @param others: the processes, which may include this one
+	 */
+	protected void resetNeighbors(int[] others) {
+		final HashMap<Integer, Double> edgeCosts = costs.get(id);
+		Integer[] sorted = new Integer[others.length];
+		int count = 0;
+		for (int other : others) {
+			if (other != id) {
+				sorted[count++] = other;
+			}
+		}
+		Arrays.sort(sorted, 0, count, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int byWeight = Double.compare(edgeCosts.get(a), edgeCosts.get(b));
+				return (byWeight != 0) ? byWeight : Integer.compare(a, b);
+			}
+		});
+		edgesByWeight = new int[count];
+		neighborIndex = new HashMap<Integer, Integer>();
+		for (int i = 0; i < count; i++) {
+			edgesByWeight[i] = sorted[i];
+			neighborIndex.put(sorted[i], i);
+		}
+		se = new byte[count];
+		Arrays.fill(se, (byte) SE_BASIC);
+		branchList = new int[0];
+		basicCursor = 0;
+	}
+
+	/**
+	 * Adds an edge to a process that joined, at the end of
+	 * {@code edgesByWeight} whatever its weight, so every edge before
+	 * {@code basicCursor} is still not BASIC. The MST is built by then, and
+	 * whatever looks for edges after that sorts them by current cost anyway.
+	 * 
+	 * @param nextId: id of the process that joined
+	 */
+	protected void addNeighbor(int nextId) {
+		if (nextId == id || neighborIndex.containsKey(nextId)) {
+			return;
+		}
+		neighborIndex.put(nextId, edgesByWeight.length);
+		edgesByWeight = Arrays.copyOf(edgesByWeight, edgesByWeight.length + 1);
+		edgesByWeight[edgesByWeight.length - 1] = nextId;
+		se = Arrays.copyOf(se, se.length + 1);
+		se[se.length - 1] = (byte) SE_BASIC;
+	}
+
+	/**
+	 * Removes the edge to a process that left, taking it out of the tree
+	 * first if it is a BRANCH.
+	 * 
+	 * @param nextId: id of the process that left
+	 */
+	protected void removeNeighbor(int nextId) {
+		if (!neighborIndex.containsKey(nextId)) {
+			return;
+		}
+		removeBranch(nextId);
+		int gone = neighborIndex.remove(nextId);
+		int[] edges = new int[edgesByWeight.length - 1];
+		byte[] states = new byte[se.length - 1];
+		for (int i = 0, k = 0; i < edgesByWeight.length; i++) {
+			if (i != gone) {
+				edges[k] = edgesByWeight[i];
+				states[k] = se[i];
+				neighborIndex.put(edges[k], k);
+				k++;
 			}
 		}
-		return minEdge;
+		edgesByWeight = edges;
+		se = states;
+		if (gone < basicCursor) {
+			basicCursor--;
+		}
+	}
+
+	/**
+	 * Gets the neighbors of this process over edges that are not in the tree,
+	 * by increasing current cost. Edge costs may have changed since the MST
+	 * was built, and processes may have joined, so {@code edgesByWeight} may
+	 * be out of order.
+	 *
+	 * @param skip: a neighbor to leave out, or ID_NONE
+	 * @return their ids
+	 */
+	protected int[] nonTreeEdgesByCost(int skip) {
+		final HashMap<Integer, Double> edgeCosts = costs.get(id);
+		Integer[] sorted = new Integer[edgesByWeight.length];
+		int count = 0;
+		for (int nextId : edgesByWeight) {
+			if (edgeState(nextId) != SE_BRANCH && nextId != skip) {
+				sorted[count++] = nextId;
+			}
+		}
+		Arrays.sort(sorted, 0, count, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(edgeCosts.get(a), edgeCosts.get(b));
+			}
+		});
+		int[] result = new int[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = sorted[i];
+		}
+		return result;
+	}
+
+	/**
+	 * The MST of the pieces a tree fell into, by Prim's algorithm, from the
+	 * cheapest edges between them.
+	 * 
+	 * @param edges: the cheapest edge from each piece to each other found by
+	 * the first piece, which need not be the same as the one found by the
+	 * second; Double.MAX_VALUE if none
+	 * @param root: the piece to start from
+	 * @return the piece each piece hangs from, or -1 for the root
+	 */
+	protected static int[] primOverPieces(double[][] edges, int root) {
+		int k = edges.length;
+		boolean[] joined = new boolean[k];
+		double[] dist = new double[k];
+		int[] parent = new int[k];
+		Arrays.fill(dist, Double.MAX_VALUE);
+		Arrays.fill(parent, -1);
+		dist[root] = 0;
+		for (int round = 0; round < k; round++) {
+			int next = -1;
+			for (int i = 0; i < k; i++) {
+				if (!joined[i] && (next == -1 || dist[i] < dist[next])) {
+					next = i;
+				}
+			}
+			joined[next] = true;
+			for (int i = 0; i < k; i++) {
+				double w = Math.min(edges[next][i], edges[i][next]);
+				if (!joined[i] && w < dist[i]) {
+					dist[i] = w;
+					parent[i] = next;
+				}
+			}
+		}
+		return parent;
+	}
+
+	/**
+	 * Gets the index of the minimum adjacent edge.
+	 * 
+	 * @return id of minimum adjacent edge, or -1 if there are no edges.
+	 */
+	public int getMinEdge() {
+		return (edgesByWeight.length == 0) ? -1 : edgesByWeight[0];
 	}
 
 	/**
@@ -175,11 +567,15 @@ public abstract class MSTBase extends Process {
 	 * and is also called if a process receives a message while in SLEEPING
 	 * state. This function sets its state to found, sets the minimum outgoing
 	 * edge to BRANCH, and sends a CONNECT message to the process connected by
-	 * the minimum outgoing edge.
+	 * the minimum outgoing edge. Any number of processes may wake up of their
+	 * own accord; a process that is already awake ignores further wakeups.
 	 */
 	public void wakeup() {
+		if (sn != SN_SLEEPING) {
+			return;
+		}
 		int minEdge = getMinEdge();
-		se.put(minEdge, SE_BRANCH);
+		setEdgeState(minEdge, SE_BRANCH);
 		sn = SN_FOUND;
 		ln = 0;
 		findCount = 0;
@@ -216,7 +612,7 @@ public abstract class MSTBase extends Process {
 		}
 
 		if (args[0] < ln) {
-			se.put(sender, SE_BRANCH);
+			setEdgeState(sender, SE_BRANCH);
 			double[] newargs = new double[3];
 			newargs[0] = ln;
 			newargs[1] = fn;
@@ -227,7 +623,7 @@ public abstract class MSTBase extends Process {
 			if (sn == SN_FIND) {
 				findCount++;
 			}
-		} else if (se.get(sender) == SE_BASIC) {
+		} else if (edgeState(sender) == SE_BASIC) {
 			try {
 				this.incomingMessages.put(m);
 			} catch (InterruptedException e) {
@@ -274,8 +670,8 @@ public abstract class MSTBase extends Process {
 	 * @param sender: the sender of the REJECT message
 	 */
 	public void processReject(int sender) {
-		if (se.get(sender) == SE_BASIC) {
-			se.put(sender, SE_REJECTED);
+		if (edgeState(sender) == SE_BASIC) {
+			setEdgeState(sender, SE_REJECTED);
 		}
 		test();
 	}
@@ -319,6 +715,7 @@ public abstract class MSTBase extends Process {
 					if (id == leaderId) {
 						this.isLeader = true;
 						System.out.println("MST Leader is " + this.leaderId);
+						costTracker.registerMetric("number of MST phases", ln);
 						double[] newargs = new double[1];
 						newargs[0] = leaderId;
 						this.sendMessage(new Message(id, leaderId,
@@ -337,7 +734,7 @@ public abstract class MSTBase extends Process {
 	 * edge of the fragment, and sends a CONNECT message.
 	 */
 	public void changeRoot() {
-		if (se.get(bestEdge) == SE_BRANCH) {
+		if (edgeState(bestEdge) == SE_BRANCH) {
 			this.sendMessage(new Message(id, bestEdge,
 					MessageType.MSG_MST_CHANGEROOT, new MSTMessageContent(null)));
 		} else {
@@ -345,7 +742,7 @@ public abstract class MSTBase extends Process {
 			args[0] = ln;
 			this.sendMessage(new Message(id, bestEdge,
 					MessageType.MSG_MST_CONNECT, new MSTMessageContent(args)));
-			se.put(bestEdge, SE_BRANCH);
+			setEdgeState(bestEdge, SE_BRANCH);
 		}
 	}
 
@@ -381,10 +778,8 @@ public abstract class MSTBase extends Process {
 		inBranch = m.getSender();
 		bestEdge = -1;
 		bestWt = Double.MAX_VALUE;
-		Iterator<Integer> it = se.keySet().iterator();
-		while (it.hasNext()) {
-			int nextId = it.next();
-			if (nextId != m.getSender() && se.get(nextId) == SE_BRANCH) {
+		for (int nextId : branches()) {
+			if (nextId != m.getSender()) {
 				double[] newargs = new double[3];
 				newargs[0] = ln;
 				newargs[1] = fn;
@@ -410,23 +805,18 @@ public abstract class MSTBase extends Process {
 	 * REJECT, test is called again, which will find the next
 	 * smallest weight edge.
 	 * If there does not exist a BASIC edge, {@link report} is called.
+	 * 
+	 * The minimum weight BASIC edge is found by moving {@code basicCursor}
+	 * past edges that are no longer BASIC, so over the whole construction
+	 * of the MST, each edge is skipped at most once.
 	 */
 	public void test() {
-		boolean hasBasic = false;
-		Iterator<Integer> it = se.keySet().iterator();
-		double weight = Double.MAX_VALUE;
-		while (it.hasNext()) {
-			int nextId = it.next();
-			if (se.get(nextId) == SE_BASIC) {
-				hasBasic = true;
-				double currweight = costs.get(id).get(nextId);
-				if (currweight < weight) {
-					testEdge = nextId;
-					weight = currweight;
-				}
-			}
+		while (basicCursor < edgesByWeight.length
+				&& se[basicCursor] != SE_BASIC) {
+			basicCursor++;
 		}
-		if (hasBasic) {
+		if (basicCursor < edgesByWeight.length) {
+			testEdge = edgesByWeight[basicCursor];
 			double[] newargs = new double[2];
 			newargs[0] = ln;
 			newargs[1] = fn;
@@ -468,8 +858,8 @@ public abstract class MSTBase extends Process {
 			this.sendMessage(new Message(id, m.getSender(),
 					MessageType.MSG_MST_ACCEPT, null));
 		} else {
-			if (se.get(m.getSender()) == SE_BASIC) {
-				se.put(m.getSender(), SE_REJECTED);
+			if (edgeState(m.getSender()) == SE_BASIC) {
+				setEdgeState(m.getSender(), SE_REJECTED);
 			}
 			if (testEdge != m.getSender()) {
 				this.sendMessage(new Message(id, m.getSender(),
@@ -501,20 +891,17 @@ public abstract class MSTBase extends Process {
 	/**
 	 * Passes a message to all of its children in the MST. Allows propagation
 	 * of messages along the edges of an MST. Also checks if this process is
-	 * a leaf.
+	 * a leaf, and records the number of children it passed the message to.
 	 * 
 	 * @param messageType: the type of the message
 	 * @param m: the message content
 	 * @return true if the process is a leaf, false otherwise.
 	 */
 	protected boolean passMessageMST(MessageType messageType, MessageContent m) {
-		Iterator<Integer> it = se.keySet().iterator();
 		boolean isLeaf = true;
 		int count = 0;
-		while (it.hasNext()) {
-			int nextId = it.next();
-			if ((id == leaderId || nextId != inBranch)
-					&& se.get(nextId) == SE_BRANCH) {
+		for (int nextId : branches()) {
+			if (id == leaderId || nextId != inBranch) {
 				isLeaf = false;
 				count = count + 1;
 				this.sendMessage(new Message(id, nextId, messageType, m));
@@ -524,9 +911,727 @@ public abstract class MSTBase extends Process {
 			numChildren = count;
 			numBranch = isLeader ? numChildren : numChildren + 1;
 		}
+		disseminationChildren = count;
 		return isLeaf;
 	}
 
+	// MEMBERSHIP ////////////////////////////////////////////////////////////
+
+	/**
+	 * Called on the leader once the MST is built, and after each membership
+	 * change. Stands in for the fleet scaling: lets a spare process join,
+	 * and once they all have, asks a random process other than the leader to
+	 * leave, as long as the leader is not left on its own. Each change patches
+	 * the MST rather than electing it again, and the next one starts once
+	 * every process knows the outcome. Once all are done, goes on with
+	 * {@link #membershipDone()}.
+	 */
+	protected void nextMembershipChange() {
+		if (joinsLeft < 0) {
+			joinsLeft = config.joins;
+			leavesLeft = config.leaves;
+		}
+		int seq = memberSeq + 1;
+		if (joinsLeft > 0) {
+			joinsLeft--;
+			int joiner = membership.admit();
+			if (joiner != ID_NONE) {
+				notifyMember(joiner, MessageType.MSG_MEMBER_JOIN, seq);
+				return;
+			}
+		}
+		if (leavesLeft > 0 && membership.size() > 2) {
+			leavesLeft--;
+			int[] members = membership.members();
+			int leaver = leaderId;
+			while (leaver == leaderId) {
+				leaver = members[(int) (Math.random() * members.length)];
+			}
+			notifyMember(leaver, MessageType.MSG_MEMBER_LEAVE, seq);
+			return;
+		}
+		if (config.joins + config.leaves > 0) {
+			costTracker.registerMetric("number of processes after joins and leaves", membership.size());
+		}
+		membershipDone();
+	}
+
+	/**
+	 * Called on the leader once all membership changes are done. Starts the
+	 * workload by default.
+	 */
+	protected void membershipDone() {
+		startWorkloadSimple();
+	}
+
+	/**
+	 * Tells a process to join or leave, by putting a message in its mailbox.
+	 * Comes from outside the simulation rather than the leader, so it is not
+	 * charged.
+	 *
+	 * @param target: the process
+	 * @param type: MSG_MEMBER_JOIN or MSG_MEMBER_LEAVE
+	 * @param seq: the sequence number of the change
+	 */
+	private void notifyMember(int target, MessageType type, int seq) {
+		double[] args = { seq };
+		try {
+			queues.get(target).put(new Message(target, target, type, new MSTMessageContent(args)));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sends a membership message to another process.
+	 *
+	 * @param type: the type of the message
+	 * @param receiver: the process to send it to
+	 * @param args: the arguments, the first of which is the sequence number
+	 */
+	private void sendMember(MessageType type, int receiver, double... args) {
+		sendMessage(new Message(id, receiver, type, new MSTMessageContent(args)));
+	}
+
+	/**
+	 * Gets the neighbors of this process in the tree, but for one.
+	 *
+	 * @param skip: the neighbor to leave out, or ID_NONE
+	 * @return their ids
+	 */
+	private int[] branchesExcept(int skip) {
+		int[] branches = branches();
+		int[] result = new int[branches.length];
+		int count = 0;
+		for (int nextId : branches) {
+			if (nextId != skip) {
+				result[count++] = nextId;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * The next process on the way from this process to the leader. The
+	 * parent in the MST by default.
+	 *
+	 * @return its id
+	 */
+	protected int hopToLeader() {
+		return inBranch;
+	}
+
+	/**
+	 * Called on every process as a process joins, once it has an edge to it.
+	 * Does nothing by default.
+	 *
+	 * @param joiner: the process joining
+	 */
+	protected void memberAdded(int joiner) {
+	}
+
+	/**
+	 * Called on every process once a process has left, and the edge to it is
+	 * gone. Does nothing by default.
+	 *
+	 * @param leaver: the process that left
+	 */
+	protected void memberRemoved(int leaver) {
+	}
+
+	/**
+	 * Called on every process once it knows its place in the tree after a
+	 * change. Does nothing by default.
+	 */
+	protected void reoriented() {
+	}
+
+	/**
+	 * Whether this process can take part in orienting the tree after a
+	 * change. Always true by default.
+	 *
+	 * @return whether it can
+	 */
+	protected boolean readyToOrient() {
+		return true;
+	}
+
+	/**
+	 * Whether one edge is lighter than another, with ties broken by the ids
+	 * of their endpoints, so that every process agrees.
+	 *
+	 * @param w1: weight of the first edge
+	 * @param a1: one endpoint of the first edge
+	 * @param b1: the other endpoint of the first edge
+	 * @param w2: weight of the second edge
+	 * @param a2: one endpoint of the second edge
+	 * @param b2: the other endpoint of the second edge
+	 * @return whether the first edge is lighter
+	 */
+	private static boolean lighter(double w1, int a1, int b1, double w2, int a2, int b2) {
+		if (w1 != w2) {
+			return w1 < w2;
+		}
+		if (Math.min(a1, b1) != Math.min(a2, b2)) {
+			return Math.min(a1, b1) < Math.min(a2, b2);
+		}
+		return Math.max(a1, b1) < Math.max(a2, b2);
+	}
+
+	/**
+	 * Defers a message until this process has caught up with the change it
+	 * belongs to, by putting it back in the mailbox.
+	 *
+	 * @param m: the message
+	 */
+	private void deferMember(Message m) {
+		try {
+			incomingMessages.put(m);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// MEMBERSHIP: JOIN ////////////////////////////////////////////////////////
+
+	/**
+	 * Processes the MSG_MEMBER_JOIN message, on a process that was just let
+	 * in. Its edges are to every process that is a member now, and it sends
+	 * HELLO over the cheapest of them, which is in the new MST whatever else
+	 * is. The HELLO travels on to the leader.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number.
+	 */
+	private void processMemberJoin(Message m) {
+		int seq = (int) ((MSTMessageContent) m.getContent()).getArgs()[0];
+		resetNeighbors(membership.members());
+		sn = SN_FOUND;
+		memberSeq = seq;
+		memberSubject = id;
+		System.out.println(id + " is joining");
+		sendMember(MessageType.MSG_MEMBER_HELLO, getMinEdge(), seq, id);
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_HELLO message by passing it on towards the
+	 * leader, which lets every process know of the joining process.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number and the joining process.
+	 */
+	private void processMemberHello(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (id != leaderId) {
+			sendMember(MessageType.MSG_MEMBER_HELLO, hopToLeader(), args);
+			return;
+		}
+		addMember((int) args[0], (int) args[1], ID_NONE);
+	}
+
+	/**
+	 * Adds the edge to the joining process, and passes the ADD on down the
+	 * tree. Then works out the new MST as Chin and Houck do for a new vertex:
+	 * bottom up, every process keeps track of the heaviest edge on the one
+	 * path from it to the joining process in the new MST of its subtree, and
+	 * the joining process, starting from its own edge to it. Each child
+	 * offers another path, through the edge to the child and the heaviest
+	 * edge the child found. The two paths close a cycle, whose heaviest edge
+	 * is the heavier of the two heaviest edges, and leaves the tree. The
+	 * lighter of the edge to the child and the child's edge stays in for
+	 * good. Costs O(n) messages, rather than electing again.
+	 *
+	 * @param seq: the sequence number of the change
+	 * @param joiner: the joining process
+	 * @param parent: the process the ADD came from, or ID_NONE at the leader
+	 */
+	private void addMember(int seq, int joiner, int parent) {
+		memberSeq = seq;
+		memberSubject = joiner;
+		memberParent = parent;
+		addNeighbor(joiner);
+		memberAdded(joiner);
+		mergeWt = costs.get(id).get(joiner);
+		mergeLower = id;
+		mergeUpper = joiner;
+		mergeChild = ID_NONE;
+		ownFate = FATE_UP;
+		reportFate.clear();
+		edgeFate.clear();
+		int[] children = branchesExcept(parent);
+		memberPending = children.length;
+		for (int child : children) {
+			sendMember(MessageType.MSG_MEMBER_ADD, child, seq, joiner);
+		}
+		mergeReport();
+	}
+
+	/**
+	 * Sets the fate of the edge that is the heaviest found so far.
+	 *
+	 * @param fate: FATE_KEEP, FATE_DROP or FATE_UP
+	 */
+	private void setMergeFate(int fate) {
+		if (mergeChild == ID_NONE) {
+			ownFate = fate;
+		} else if (mergeReported) {
+			reportFate.put(mergeChild, fate);
+		} else {
+			edgeFate.put(mergeChild, fate);
+		}
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_MERGE message, from a child with the heaviest
+	 * edge on its path to the joining process.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number, and the weight and endpoints of the edge.
+	 */
+	private void processMemberMerge(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		int child = m.getSender();
+		double edgeWt = costs.get(id).get(child);
+		boolean reportHeavier = lighter(edgeWt, child, id, args[1], (int) args[2], (int) args[3]);
+		double heavyWt = reportHeavier ? args[1] : edgeWt;
+		int heavyLower = reportHeavier ? (int) args[2] : child;
+		int heavyUpper = reportHeavier ? (int) args[3] : id;
+		(reportHeavier ? edgeFate : reportFate).put(child, FATE_KEEP);
+		HashMap<Integer, Integer> heavyFate = reportHeavier ? reportFate : edgeFate;
+		if (lighter(mergeWt, mergeLower, mergeUpper, heavyWt, heavyLower, heavyUpper)) {
+			heavyFate.put(child, FATE_DROP);
+		} else {
+			setMergeFate(FATE_DROP);
+			heavyFate.put(child, FATE_UP);
+			mergeWt = heavyWt;
+			mergeLower = heavyLower;
+			mergeUpper = heavyUpper;
+			mergeChild = child;
+			mergeReported = reportHeavier;
+		}
+		memberPending--;
+		mergeReport();
+	}
+
+	/**
+	 * Reports the heaviest edge on the path to the joining process once every
+	 * child has. At the leader, the edge left is in the new MST, and the
+	 * fates of the others are settled down the tree.
+	 */
+	private void mergeReport() {
+		if (memberPending > 0) {
+			return;
+		}
+		if (memberParent != ID_NONE) {
+			sendMember(MessageType.MSG_MEMBER_MERGE, memberParent, memberSeq, mergeWt, mergeLower, mergeUpper);
+		} else {
+			settle(true, false);
+		}
+	}
+
+	/**
+	 * Settles the fate of every edge this process decided on, once the fate
+	 * of the edge it reported is known: cuts the edges to children that
+	 * leave the tree, tells every child what became of its edges, and links
+	 * up with the joining process if its own edge stays in.
+	 *
+	 * @param keep: whether the edge this process reported stays in the tree
+	 * @param cut: whether the edge to the parent leaves the tree
+	 */
+	private void settle(boolean keep, boolean cut) {
+		if (ownFate == FATE_UP) {
+			ownFate = keep ? FATE_KEEP : FATE_DROP;
+		}
+		for (HashMap<Integer, Integer> fates : Arrays.asList(reportFate, edgeFate)) {
+			for (Integer child : fates.keySet()) {
+				if (fates.get(child) == FATE_UP) {
+					fates.put(child, keep ? FATE_KEEP : FATE_DROP);
+				}
+			}
+		}
+		if (cut) {
+			// the new parent is only known once the tree is oriented
+			removeBranch(memberParent);
+			inBranch = ID_NONE;
+		}
+		memberPending = 0;
+		for (int child : edgeFate.keySet()) {
+			boolean cutChild = (edgeFate.get(child) == FATE_DROP);
+			if (cutChild) {
+				removeBranch(child);
+			}
+			sendMember(MessageType.MSG_MEMBER_SETTLE, child, memberSeq, (reportFate.get(child) == FATE_KEEP) ? 1 : 0,
+					cutChild ? 1 : 0);
+			memberPending++;
+		}
+		if (ownFate == FATE_KEEP) {
+			setEdgeState(memberSubject, SE_BRANCH);
+			sendMember(MessageType.MSG_MEMBER_LINK, memberSubject, memberSeq, id);
+			memberPending++;
+		}
+		settled();
+	}
+
+	/**
+	 * Tells the parent once this process and all its children have settled.
+	 * At the leader, the new tree is complete, and is oriented from it.
+	 */
+	private void settled() {
+		if (memberPending > 0) {
+			return;
+		}
+		if (memberParent != ID_NONE) {
+			sendMember(MessageType.MSG_MEMBER_SETTLED, memberParent, memberSeq);
+		} else {
+			orient(ID_NONE, ID_NONE);
+		}
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_LINK message, taking the edge it came over
+	 * into the tree.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number and the process to tell once the edge is
+	 * linked.
+	 */
+	private void processMemberLink(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		setEdgeState(m.getSender(), SE_BRANCH);
+		sendMember(MessageType.MSG_MEMBER_LINKED, (int) args[1], args[0]);
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_LINKED message: at a leaving process, counts
+	 * the edges that replaced its own, and otherwise counts towards settling.
+	 */
+	private void processMemberLinked() {
+		if (id == memberSubject) {
+			linksPending--;
+			leave();
+			return;
+		}
+		memberPending--;
+		settled();
+	}
+
+	// MEMBERSHIP: ORIENTATION ///////////////////////////////////////////////
+
+	/**
+	 * Orients the tree from the leader after a change, which may have cut
+	 * edges anywhere and turned subtrees around: every process learns its
+	 * parent, its children and the leader. Processes also drop the edge to
+	 * any process that left, before passing the ORIENT on, so that it never
+	 * reaches it.
+	 *
+	 * @param parent: the process the ORIENT came from, or ID_NONE at the
+	 * leader
+	 * @param leaver: the process that left, or ID_NONE
+	 */
+	private void orient(int parent, int leaver) {
+		if (leaver != ID_NONE && neighborIndex.containsKey(leaver)) {
+			removeNeighbor(leaver);
+			memberRemoved(leaver);
+		}
+		inBranch = parent;
+		memberParent = parent;
+		sn = SN_FOUND;
+		int[] children = branchesExcept(parent);
+		numChildren = children.length;
+		numBranch = branches().length;
+		memberPending = children.length;
+		for (int child : children) {
+			sendMember(MessageType.MSG_MEMBER_ORIENT, child, memberSeq, leaderId, leaver);
+		}
+		reoriented();
+		oriented();
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_ORIENT message, once this process is ready.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number, the leader and the process that left, or
+	 * ID_NONE.
+	 */
+	private void processMemberOrient(Message m) {
+		if (!readyToOrient()) {
+			deferMember(m);
+			return;
+		}
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		memberSeq = (int) args[0];
+		leaderId = (int) args[1];
+		isLeader = false;
+		orient(m.getSender(), (int) args[2]);
+	}
+
+	/**
+	 * Acks the ORIENT once this process and all its children have it. Once
+	 * the leader has every ack, the change is over.
+	 */
+	private void oriented() {
+		if (memberPending > 0) {
+			return;
+		}
+		if (memberParent != ID_NONE) {
+			sendMember(MessageType.MSG_MEMBER_ORIENTED, memberParent, memberSeq);
+			return;
+		}
+		System.out.println("Membership change " + memberSeq + " done, " + membership.size() + " processes");
+		nextMembershipChange();
+	}
+
+	// MEMBERSHIP: LEAVE ///////////////////////////////////////////////////////
+
+	/**
+	 * Processes the MSG_MEMBER_LEAVE message, on the process asked to leave.
+	 * Without it, the tree falls into one piece per neighbor of it in the
+	 * tree, and each piece is still part of the MST of the processes left.
+	 * So rather than electing again, the pieces only need joining up again
+	 * by their cheapest edges between them, as in failover: each piece looks
+	 * for its cheapest edge to every other, and reports them to the leaving
+	 * process.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number.
+	 */
+	private void processMemberLeave(Message m) {
+		memberSeq = (int) ((MSTMessageContent) m.getContent()).getArgs()[0];
+		memberSubject = id;
+		System.out.println(id + " is leaving");
+		pieceHeads = branches();
+		int k = pieceHeads.length;
+		linksPending = Math.max(0, k - 1);
+		if (k <= 1) {
+			leave();
+			return;
+		}
+		pieceEdges = new double[k][];
+		piecesPending = k;
+		double[] args = new double[k + 3];
+		args[0] = memberSeq;
+		args[1] = id;
+		args[2] = ID_NONE;
+		for (int i = 0; i < k; i++) {
+			args[i + 3] = pieceHeads[i];
+		}
+		for (int head : pieceHeads) {
+			sendMember(MessageType.MSG_MEMBER_SEARCH, head, args);
+		}
+	}
+
+	/**
+	 * Gets the position of a piece in {@code pieceHeads}.
+	 *
+	 * @param head: the process heading the piece
+	 * @return its position, or -1 if there is no such piece
+	 */
+	private int pieceIndex(int head) {
+		for (int i = 0; i < pieceHeads.length; i++) {
+			if (pieceHeads[i] == head) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_SEARCH message: passes the search on to the
+	 * children of this process in its piece, and tests its own edges by
+	 * increasing cost until it knows its cheapest edge to every other piece,
+	 * or its next edge is no cheaper than any of those found so far.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number, the leaving process, the head of this
+	 * process's piece, or ID_NONE from the leaving process, and the heads of
+	 * every piece.
+	 */
+	private void processMemberSearch(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		memberSeq = (int) args[0];
+		memberSubject = (int) args[1];
+		memberParent = m.getSender();
+		piece = (m.getSender() == memberSubject) ? id : (int) args[2];
+		int k = args.length - 3;
+		pieceHeads = new int[k];
+		for (int i = 0; i < k; i++) {
+			pieceHeads[i] = (int) args[i + 3];
+		}
+		pieceBest = new double[k];
+		Arrays.fill(pieceBest, Double.MAX_VALUE);
+		pieceTowards = new int[k];
+		Arrays.fill(pieceTowards, ID_NONE);
+		pieceOut = new int[k];
+		Arrays.fill(pieceOut, ID_NONE);
+		memberOwnDone = false;
+		double[] newargs = args.clone();
+		newargs[2] = piece;
+		int[] children = branchesExcept(memberParent);
+		memberPending = children.length;
+		for (int child : children) {
+			sendMember(MessageType.MSG_MEMBER_SEARCH, child, newargs);
+		}
+		memberCandidates = nonTreeEdgesByCost(memberSubject);
+		memberCursor = 0;
+		testNextMemberCandidate();
+	}
+
+	/**
+	 * Tests the next edge of this process, unless it is no cheaper than the
+	 * edges to every other piece found so far, in which case this process is
+	 * done searching.
+	 */
+	private void testNextMemberCandidate() {
+		int own = pieceIndex(piece);
+		double worst = 0;
+		for (int i = 0; i < pieceBest.length; i++) {
+			if (i != own) {
+				worst = Math.max(worst, pieceBest[i]);
+			}
+		}
+		if (memberCursor < memberCandidates.length
+				&& costs.get(id).get(memberCandidates[memberCursor]) < worst) {
+			sendMember(MessageType.MSG_MEMBER_TEST, memberCandidates[memberCursor], memberSeq);
+			return;
+		}
+		memberOwnDone = true;
+		memberReport();
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_TEST message by answering which piece this
+	 * process is in, once the search has reached it.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number.
+	 */
+	private void processMemberTest(Message m) {
+		double seq = ((MSTMessageContent) m.getContent()).getArgs()[0];
+		if (memberSeq < seq) {
+			deferMember(m);
+			return;
+		}
+		sendMember(MessageType.MSG_MEMBER_ANSWER, m.getSender(), seq, piece);
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_ANSWER message, noting the edge if it is the
+	 * cheapest to another piece so far, and tests the next edge.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number and the piece the sender is in.
+	 */
+	private void processMemberAnswer(Message m) {
+		int other = pieceIndex((int) ((MSTMessageContent) m.getContent()).getArgs()[1]);
+		double w = costs.get(id).get(m.getSender());
+		if (other >= 0 && other != pieceIndex(piece) && w < pieceBest[other]) {
+			pieceBest[other] = w;
+			pieceTowards[other] = ID_NONE;
+			pieceOut[other] = m.getSender();
+		}
+		memberCursor++;
+		testNextMemberCandidate();
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_REPORT message. At the leaving process, these
+	 * are the cheapest edges from a piece; otherwise, notes the child for
+	 * every piece it found a cheaper edge to.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number followed by the cheapest edge to each
+	 * piece.
+	 */
+	private void processMemberReport(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		double[] best = Arrays.copyOfRange(args, 1, args.length);
+		if (id == memberSubject) {
+			receivePiece(pieceIndex(m.getSender()), best);
+			return;
+		}
+		memberPending--;
+		for (int i = 0; i < best.length; i++) {
+			if (best[i] < pieceBest[i]) {
+				pieceBest[i] = best[i];
+				pieceTowards[i] = m.getSender();
+			}
+		}
+		memberReport();
+	}
+
+	/**
+	 * Reports the cheapest edges to the other pieces once this process has
+	 * tested its own and heard from all its children.
+	 */
+	private void memberReport() {
+		if (!memberOwnDone || memberPending > 0) {
+			return;
+		}
+		double[] args = new double[pieceBest.length + 1];
+		args[0] = memberSeq;
+		System.arraycopy(pieceBest, 0, args, 1, pieceBest.length);
+		sendMember(MessageType.MSG_MEMBER_REPORT, memberParent, args);
+	}
+
+	/**
+	 * Called on the leaving process with the cheapest edges from a piece to
+	 * every other. Once it has them for every piece, it works out the MST of
+	 * the pieces, and for each of its edges, tells the piece that found it
+	 * to link it up.
+	 *
+	 * @param from: the position of the piece
+	 * @param best: the cheapest edge from it to each piece
+	 */
+	private void receivePiece(int from, double[] best) {
+		pieceEdges[from] = best;
+		piecesPending--;
+		if (piecesPending > 0) {
+			return;
+		}
+		int[] parent = primOverPieces(pieceEdges, 0);
+		for (int i = 1; i < parent.length; i++) {
+			int j = parent[i];
+			if (pieceEdges[i][j] <= pieceEdges[j][i]) {
+				sendMember(MessageType.MSG_MEMBER_ATTACH, pieceHeads[i], memberSeq, j);
+			} else {
+				sendMember(MessageType.MSG_MEMBER_ATTACH, pieceHeads[j], memberSeq, i);
+			}
+		}
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_ATTACH message by passing it down towards the
+	 * cheapest edge this piece found to another piece, whose endpoint links
+	 * it up.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number and the position of the other piece.
+	 */
+	private void processMemberAttach(Message m) {
+		int target = (int) ((MSTMessageContent) m.getContent()).getArgs()[1];
+		int next = pieceTowards[target];
+		if (next != ID_NONE) {
+			sendMember(MessageType.MSG_MEMBER_ATTACH, next, memberSeq, target);
+			return;
+		}
+		setEdgeState(pieceOut[target], SE_BRANCH);
+		sendMember(MessageType.MSG_MEMBER_LINK, pieceOut[target], memberSeq, memberSubject);
+	}
+
+	/**
+	 * Leaves once the pieces are linked up again, and tells the leader, which
+	 * orients the new tree.
+	 */
+	private void leave() {
+		if (linksPending > 0) {
+			return;
+		}
+		membership.remove(id);
+		left = true;
+		sendMember(MessageType.MSG_MEMBER_GONE, leaderId, memberSeq, id);
+	}
+
 	/**
 	 * A function to process the FINISH message, which indicates the MST has been
 	 * found.
@@ -570,6 +1675,63 @@ public abstract class MSTBase extends Process {
 		case MSG_MST_FINISH:
 			processFinish(m);
 			return true;
+		case MSG_MEMBER_JOIN:
+			processMemberJoin(m);
+			return true;
+		case MSG_MEMBER_HELLO:
+			processMemberHello(m);
+			return true;
+		case MSG_MEMBER_ADD:
+			double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+			addMember((int) args[0], (int) args[1], m.getSender());
+			return true;
+		case MSG_MEMBER_MERGE:
+			processMemberMerge(m);
+			return true;
+		case MSG_MEMBER_SETTLE:
+			args = ((MSTMessageContent) m.getContent()).getArgs();
+			settle(args[1] != 0, args[2] != 0);
+			return true;
+		case MSG_MEMBER_LINK:
+			processMemberLink(m);
+			return true;
+		case MSG_MEMBER_LINKED:
+			processMemberLinked();
+			return true;
+		case MSG_MEMBER_SETTLED:
+			memberPending--;
+			settled();
+			return true;
+		case MSG_MEMBER_ORIENT:
+			processMemberOrient(m);
+			return true;
+		case MSG_MEMBER_ORIENTED:
+			memberPending--;
+			oriented();
+			return true;
+		case MSG_MEMBER_LEAVE:
+			processMemberLeave(m);
+			return true;
+		case MSG_MEMBER_SEARCH:
+			processMemberSearch(m);
+			return true;
+		case MSG_MEMBER_TEST:
+			processMemberTest(m);
+			return true;
+		case MSG_MEMBER_ANSWER:
+			processMemberAnswer(m);
+			return true;
+		case MSG_MEMBER_REPORT:
+			processMemberReport(m);
+			return true;
+		case MSG_MEMBER_ATTACH:
+			processMemberAttach(m);
+			return true;
+		case MSG_MEMBER_GONE:
+			args = ((MSTMessageContent) m.getContent()).getArgs();
+			memberSeq = (int) args[0];
+			orient(ID_NONE, (int) args[1]);
+			return true;
 		default:
 			return false;
 		}
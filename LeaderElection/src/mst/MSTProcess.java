@@ -1,9 +1,15 @@
 package mst;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.HashSet;
+import java.util.Map;
 
 import common.CostTracker;
+import common.CostTracker.Stage;
+import common.ElectionRunner;
+import common.Mailbox;
 import common.Message;
 import common.Message.MessageType;
 import common.MessageContent;
@@ -25,6 +31,196 @@ public class MSTProcess extends MSTBase {
 	 */
 	int acksReceived = 0;
 
+	// REPAIR STATE
+	// ////////////////////////////////////////////////////////////
+
+	/**
+	 * Number of edge costs the leader still has to change before starting the
+	 * workload, or -1 if it has not started changing them. Only used for the
+	 * leader.
+	 */
+	int changesLeft = -1;
+
+	/**
+	 * Number of repairs that swapped an edge of the MST. Only used for the
+	 * leader.
+	 */
+	int repairSwaps = 0;
+
+	/**
+	 * Sequence number of the latest cost change this process took part in
+	 * repairing, or -1 if none. Repair messages of earlier changes are out of
+	 * date and ignored.
+	 */
+	int repairSeq = -1;
+
+	/**
+	 * New cost of the changed edge, at the processes checking for a cycle
+	 */
+	double repairCost;
+
+	/**
+	 * If this process is an endpoint of the changed edge, the other endpoint.
+	 * During a search for a replacement edge, the other endpoint of the best
+	 * edge of this process.
+	 */
+	int repairOut = -1;
+
+	/**
+	 * For each endpoint of the changed edge, whether the climb from it towards
+	 * the root has passed this process
+	 */
+	boolean[] climbed = new boolean[2];
+
+	/**
+	 * For each endpoint, the heaviest edge on the path climbed from it to this
+	 * process: its weight, its lower endpoint, and its upper endpoint
+	 */
+	double[] heaviest = new double[2];
+	int[] heaviestLower = new int[2];
+	int[] heaviestUpper = new int[2];
+
+	/**
+	 * For each endpoint, the child the climb from it came from, or -1 at the
+	 * endpoint itself. During a search, the child that reported the best edge,
+	 * or -1 if it is an edge of this process. Relinking follows these down.
+	 */
+	int[] towards = { -1, -1 };
+
+	/**
+	 * Whether this process is cut off from the root by a tree edge that
+	 * became more expensive
+	 */
+	boolean detached = false;
+
+	/**
+	 * Whether this process is the endpoint below that tree edge, which runs
+	 * the search for a replacement
+	 */
+	boolean splitRoot = false;
+
+	/**
+	 * Number of children still to hear from during a split or a search
+	 */
+	int pending = 0;
+
+	/**
+	 * Whether this process has found its own best edge during a search
+	 */
+	boolean ownSearchDone = false;
+
+	/**
+	 * Lowest cost of an edge out of the detached subtree found so far by this
+	 * process and its children
+	 */
+	double searchBest = Double.MAX_VALUE;
+
+	/**
+	 * The non-tree edges of this process, by increasing current cost, and the
+	 * position of the next one to test
+	 */
+	int[] candidates;
+	int candidateCursor = 0;
+
+	// LEASE AND FAILOVER STATE
+	// ////////////////////////////////////////////////////////////
+
+	/**
+	 * Whether this process is the leader and sends heartbeats
+	 */
+	boolean heartbeating = false;
+
+	/**
+	 * When the leader sends its next heartbeat, in
+	 * {@link System#currentTimeMillis()} terms
+	 */
+	long nextHeartbeat = 0;
+
+	/**
+	 * Number of this process's own ticks left before the lease from the last
+	 * heartbeat runs out, or -1 until the first heartbeat from the leader.
+	 * Counting ticks rather than wall-clock time means that a process slow to
+	 * get round to its heartbeats, because it is busy or short of CPU, does
+	 * not take that for the leader being dead.
+	 */
+	long leaseTicksLeft = -1;
+
+	/**
+	 * The child of the leader whose subtree this process is in, as the last
+	 * heartbeat said, or -1 if not known. That child's own id for a child of
+	 * the leader.
+	 */
+	int subtreeRoot = -1;
+
+	/**
+	 * The children of the leader, which head the subtrees that are left once
+	 * it crashes. Learned by the children themselves from heartbeats, and by
+	 * everyone else once failover starts.
+	 */
+	int[] subtreeRoots = new int[0];
+
+	/**
+	 * Whether this process is failing over to a new leader
+	 */
+	boolean failingOver = false;
+
+	/**
+	 * Whether this process, as the head of a subtree, has sent its cheapest
+	 * edges to the successor, after which only the successor can call the
+	 * failover off
+	 */
+	boolean failoverReported = false;
+
+	/**
+	 * The neighbors of this process that it failed over from as leaders,
+	 * which may turn out to be alive after all. Their messages are not taken
+	 * any more.
+	 */
+	HashSet<Integer> formerLeaders = new HashSet<Integer>();
+
+	/**
+	 * Messages for the parent of this process, held back while it has none
+	 * during failover
+	 */
+	ArrayList<Message> heldForParent = new ArrayList<Message>();
+
+	/**
+	 * For each subtree, by position in {@code subtreeRoots}: the cheapest edge
+	 * to it found by this process and its children, the child that found it or
+	 * -1 if it is an edge of this process, and in that case its other endpoint
+	 */
+	double[] failoverBest;
+	int[] failoverTowards;
+	int[] failoverOut;
+
+	/**
+	 * Number of children still to report during failover, or to ack the new
+	 * leader
+	 */
+	int failoverPending = 0;
+
+	/**
+	 * Whether this process has tested all its own edges it needs to during
+	 * failover
+	 */
+	boolean failoverOwnDone = false;
+
+	/**
+	 * The non-tree edges of this process to test during failover, by
+	 * increasing current cost, and the position of the next one to test
+	 */
+	int[] failoverCandidates;
+	int failoverCursor = 0;
+
+	/**
+	 * At the new leader: the cheapest edges from each subtree to every other,
+	 * by position in {@code subtreeRoots}, the number of subtrees still to
+	 * report them, and the number still to join the new tree
+	 */
+	double[][] subtreeEdges;
+	int subtreesPending = -1;
+	int joinsPending = 0;
+
 	// CONSTRUCTOR ////////////////////////////////////////////////////////////
 	/**
 	 * Just calls the constructor in {@link MSTBase}.
@@ -37,7 +233,7 @@ public class MSTProcess extends MSTBase {
 	 * @param costTracker
 	 */
 	public MSTProcess(int id, int[] allProcesses, HashMap<Integer, HashMap<Integer, Double>> costs,
-			HashMap<Integer, LinkedBlockingQueue<Message>> queues, LinkedBlockingQueue<Message> incomingMessages,
+			Map<Integer, Mailbox> queues, Mailbox incomingMessages,
 			CostTracker costTracker) {
 		super(id, allProcesses, costs, queues, incomingMessages, costTracker);
 	}
@@ -53,6 +249,11 @@ public class MSTProcess extends MSTBase {
 	public void processFinish(Message m) {
 		MSTMessageContent mContent = (MSTMessageContent) m.getContent();
 		leaderId = (int) ((MSTMessageContent) mContent).getArgs()[0];
+		if (id == leaderId) {
+			// the GHS leader's inBranch is the other end of the core edge,
+			// which is one of its children
+			inBranch = -1;
+		}
 		if (DEBUG)
 			System.out.println(m.getSender() + " to " + id);
 		passMessageMST(m.getType(), m.getContent());
@@ -140,17 +341,1252 @@ public class MSTProcess extends MSTBase {
 				sendMessage(new Message(id, inBranch, MessageType.MSG_ACK_LEADER, null));
 			} else {
 				System.out.println("Leader acked!");
-				startWorkloadSimple();
+				leaderReady();
 			}
 		}
 	}
 
 	
+	/**
+	 * Starts the workload on a leader restored from a checkpoint, after any
+	 * cost changes, as if every process had just acked.
+	 */
+	@Override
+	protected void warmStart() {
+		leaderReady();
+	}
+
+	/**
+	 * Processes the KILL message by passing it on to this process's children
+	 * in the MST before exiting. A leader failed over from is told of the new
+	 * leader too, in case it is still alive and has not heard.
+	 */
+	@Override
+	protected void processKill(Message m) {
+		passMessageMST(m.getType(), m.getContent());
+		for (int former : formerLeaders) {
+			sendFailover(MessageType.MSG_FAILOVER_LEADER, former, leaderId);
+		}
+	}
+
+	/**
+	 * Sends a message, unless it is for the parent of this process while it
+	 * has none, during failover. Such messages are held back until it has a
+	 * parent again, see {@link #releaseHeld()}.
+	 *
+	 * @param m: the message to send
+	 */
+	@Override
+	public void sendMessage(Message m) {
+		if (m.getReceiver() == ID_NONE) {
+			heldForParent.add(m);
+			return;
+		}
+		super.sendMessage(m);
+	}
+
+	/**
+	 * Drops messages from the leaders failed over from, which are not part of
+	 * the tree any more. A heartbeat from one means it is alive after all,
+	 * and it is told of the new leader, so that it steps down.
+	 *
+	 * @param m: the message received
+	 * @return whether this process should exit
+	 */
+	@Override
+	protected boolean processMessage(Message m) {
+		if (!formerLeaders.contains(m.getSender())) {
+			return super.processMessage(m);
+		}
+		if (m.getType() == MessageType.MSG_HEARTBEAT) {
+			sendFailover(MessageType.MSG_FAILOVER_LEADER, m.getSender(), leaderId);
+		}
+		return false;
+	}
+
 	/**
 	 * Processes the ACK_LEADER message by calling {@link ackLeader}.
 	 */
 	@Override
-	protected void processMessageAckLeader() {
+	protected void processMessageAckLeader(Message m) {
 		ackLeader();
 	}
+
+	/**
+	 * Handles the repair messages, and leaves the rest to {@link MSTBase}.
+	 *
+	 * @param m: the message to process
+	 * @return true if the message was handled, otherwise false.
+	 */
+	@Override
+	public boolean processMessageSpecial(Message m) {
+		switch (m.getType()) {
+		case MSG_COST_CHANGE:
+			processCostChange(m);
+			return true;
+		case MSG_REPAIR_UP:
+			processRepairUp(m);
+			return true;
+		case MSG_REPAIR_SWAP:
+			processRepairSwap(m);
+			return true;
+		case MSG_REPAIR_RELINK:
+			processRepairRelink(m);
+			return true;
+		case MSG_REPAIR_ATTACH:
+			processRepairAttach(m);
+			return true;
+		case MSG_REPAIR_SPLIT:
+			processRepairSplit(m);
+			return true;
+		case MSG_REPAIR_SPLIT_ACK:
+			processRepairSplitAck(m);
+			return true;
+		case MSG_REPAIR_SEARCH:
+			processRepairSearch(m);
+			return true;
+		case MSG_REPAIR_TEST:
+			processRepairTest(m);
+			return true;
+		case MSG_REPAIR_ANSWER:
+			processRepairAnswer(m);
+			return true;
+		case MSG_REPAIR_REPORT:
+			processRepairReport(m);
+			return true;
+		case MSG_REPAIR_DONE:
+			double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+			repairDone(args[1] != 0);
+			return true;
+		case MSG_HEARTBEAT:
+			processHeartbeat(m);
+			return true;
+		case MSG_FAILOVER_SEARCH:
+			failoverSearch(intArgs(m));
+			return true;
+		case MSG_FAILOVER_TEST:
+			sendFailover(MessageType.MSG_FAILOVER_ANSWER, m.getSender(), subtreeRoot);
+			return true;
+		case MSG_FAILOVER_ANSWER:
+			processFailoverAnswer(m);
+			return true;
+		case MSG_FAILOVER_REPORT:
+			processFailoverReport(m);
+			return true;
+		case MSG_FAILOVER_CANDIDATES:
+			receiveCandidates(subtreeIndex(m.getSender()), ((MSTMessageContent) m.getContent()).getArgs());
+			return true;
+		case MSG_FAILOVER_ATTACH:
+		case MSG_FAILOVER_RELINK:
+			failoverRelink(intArgs(m)[0]);
+			return true;
+		case MSG_FAILOVER_JOIN:
+			setEdgeState(m.getSender(), SE_BRANCH);
+			joined();
+			return true;
+		case MSG_FAILOVER_JOINED:
+			joined();
+			return true;
+		case MSG_FAILOVER_LEADER:
+			processFailoverLeader(m);
+			return true;
+		case MSG_FAILOVER_ACK:
+			failoverPending--;
+			failoverAcked();
+			return true;
+		case MSG_FAILOVER_CANCEL:
+			if (failingOver && inBranch == ID_NONE) {
+				cancelFailover();
+			}
+			return true;
+		default:
+			return super.processMessageSpecial(m);
+		}
+	}
+
+	// REPAIR ////////////////////////////////////////////////////////////
+
+	/**
+	 * Called on the leader once the MST is built and acked, and after each
+	 * repair. Stands in for the network drifting: changes the cost of a
+	 * random edge, in both directions, and tells its two endpoints, which
+	 * repair the MST without electing it again. Once all changes are
+	 * repaired, goes on to any membership changes over the repaired tree.
+	 */
+	private void nextCostChange() {
+		if (changesLeft < 0) {
+			changesLeft = config.costChanges;
+		}
+		int[] members = membership.members();
+		if (changesLeft == 0 || members.length < 2) {
+			if (config.costChanges > 0) {
+				costTracker.registerMetric("number of repairs that changed the MST", repairSwaps);
+			}
+			nextMembershipChange();
+			return;
+		}
+		int seq = config.costChanges - changesLeft;
+		changesLeft--;
+		int a = members[(int) (Math.random() * members.length)];
+		int b = a;
+		while (b == a) {
+			b = members[(int) (Math.random() * members.length)];
+		}
+		double oldCost = costs.get(a).get(b);
+		double newCost = Math.random() * ElectionRunner.MAX_COST;
+		costs.get(a).put(b, newCost);
+		costs.get(b).put(a, newCost);
+		notifyCostChange(a, b, seq, oldCost, newCost);
+		notifyCostChange(b, a, seq, oldCost, newCost);
+	}
+
+	/**
+	 * Called on the leader once all membership changes are done. Crashes it
+	 * if asked to, and otherwise starts the workload. Repairs, joins and
+	 * leaves may all have changed the tree since the last heartbeat, so it
+	 * sends one first to let every process know which subtree it is in.
+	 */
+	@Override
+	protected void membershipDone() {
+		if (config.leaderCrash) {
+			if (heartbeating) {
+				heartbeat();
+			}
+			crash();
+			return;
+		}
+		startWorkloadSimple();
+	}
+
+	/**
+	 * Tells an endpoint of a changed edge about the change, by putting
+	 * {@code MSG_COST_CHANGE} in its mailbox. Comes from the network rather
+	 * than the leader, so it is not charged.
+	 *
+	 * @param endpoint: the process to tell
+	 * @param other: the other endpoint of the edge
+	 * @param seq: the sequence number of the change
+	 * @param oldCost: the cost of the edge before the change
+	 * @param newCost: the cost of the edge after the change
+	 */
+	private void notifyCostChange(int endpoint, int other, int seq, double oldCost, double newCost) {
+		double[] args = { seq, other, oldCost, newCost };
+		try {
+			queues.get(endpoint).put(new Message(endpoint, endpoint, MessageType.MSG_COST_CHANGE,
+					new MSTMessageContent(args)));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Called on the leader when a repair is done, with whether it swapped an
+	 * edge of the MST. Goes on to the next change.
+	 *
+	 * @param swapped: whether the MST changed
+	 */
+	private void repairDone(boolean swapped) {
+		if (swapped) {
+			repairSwaps++;
+		}
+		nextCostChange();
+	}
+
+	/**
+	 * Tells the leader the repair of the current change is done.
+	 *
+	 * @param swapped: whether the MST changed
+	 */
+	private void finishRepair(boolean swapped) {
+		if (id == leaderId) {
+			repairDone(swapped);
+			return;
+		}
+		double[] args = { repairSeq, swapped ? 1 : 0 };
+		sendMessage(new Message(id, leaderId, MessageType.MSG_REPAIR_DONE, new MSTMessageContent(args)));
+	}
+
+	/**
+	 * Moves this process on to the repair of a change, clearing what it
+	 * recorded for earlier ones.
+	 *
+	 * @param seq: the sequence number of the change
+	 * @return false if the change is older than the one this process is
+	 * repairing, so the message is out of date
+	 */
+	private boolean enterRepair(int seq) {
+		if (seq < repairSeq) {
+			return false;
+		}
+		if (seq > repairSeq) {
+			repairSeq = seq;
+			repairOut = -1;
+			Arrays.fill(climbed, false);
+			Arrays.fill(towards, -1);
+			detached = false;
+			splitRoot = false;
+			pending = 0;
+			ownSearchDone = false;
+			searchBest = Double.MAX_VALUE;
+			candidates = null;
+			candidateCursor = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Sends a repair message to another process.
+	 *
+	 * @param type: the type of the message
+	 * @param receiver: the process to send it to
+	 * @param args: the arguments, the first of which is the sequence number
+	 */
+	private void sendRepair(MessageType type, int receiver, double... args) {
+		sendMessage(new Message(id, receiver, type, new MSTMessageContent(args)));
+	}
+
+	/**
+	 * Processes the MSG_COST_CHANGE message, at an endpoint of the changed
+	 * edge. Only two changes can make the MST wrong:
+	 *
+	 * 1. A tree edge became more expensive. The endpoint below it searches
+	 * the subtree it heads for a cheaper edge out of it.
+	 * 2. A non-tree edge became cheaper. Both endpoints climb towards the
+	 * root to find the heaviest edge on the cycle the edge closes.
+	 *
+	 * Otherwise, the endpoint with the lower id tells the leader nothing
+	 * needs repairing.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number, the other endpoint, and the old and new
+	 * costs.
+	 */
+	private void processCostChange(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		int seq = (int) args[0];
+		int other = (int) args[1];
+		enterRepair(seq);
+		boolean tree = (edgeState(other) == SE_BRANCH);
+		if (tree && args[3] > args[2]) {
+			if (inBranch == other) {
+				splitRoot = true;
+				split();
+			}
+		} else if (!tree && args[3] < args[2]) {
+			repairOut = other;
+			repairCost = args[3];
+			climb(id < other ? 0 : 1, -1, Double.NEGATIVE_INFINITY, -1, -1);
+		} else if (id < other) {
+			finishRepair(false);
+		}
+	}
+
+	// REPAIR: CYCLE CHECK ////////////////////////////////////////////////////
+
+	/**
+	 * Records that the climb from one endpoint passed this process. If the
+	 * climb from the other endpoint passed too, this is where the two paths
+	 * meet, and the cycle is complete. Otherwise, passes the climb on to the
+	 * parent, with the edge to it if that is the heaviest so far.
+	 *
+	 * @param side: which endpoint the climb started from
+	 * @param from: the child the climb came from, or -1 at the endpoint
+	 * @param max: weight of the heaviest edge climbed so far
+	 * @param lower: lower endpoint of that edge
+	 * @param upper: upper endpoint of that edge
+	 */
+	private void climb(int side, int from, double max, int lower, int upper) {
+		climbed[side] = true;
+		towards[side] = from;
+		heaviest[side] = max;
+		heaviestLower[side] = lower;
+		heaviestUpper[side] = upper;
+		if (climbed[1 - side]) {
+			closeCycle();
+			return;
+		}
+		if (inBranch == -1 || id == leaderId) {
+			return;
+		}
+		double w = costs.get(id).get(inBranch);
+		if (w > max) {
+			max = w;
+			lower = id;
+			upper = inBranch;
+		}
+		sendRepair(MessageType.MSG_REPAIR_UP, inBranch, repairSeq, side, max, lower, upper, repairCost);
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_UP message, a climb from a child.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number, the endpoint the climb started from, the
+	 * heaviest edge so far and its endpoints, and the new cost of the changed
+	 * edge.
+	 */
+	private void processRepairUp(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		repairCost = args[5];
+		climb((int) args[1], m.getSender(), args[2], (int) args[3], (int) args[4]);
+	}
+
+	/**
+	 * Called where the two climbs meet. If the heaviest edge on the cycle is
+	 * heavier than the changed edge, swaps the two: sends a SWAP down towards
+	 * the heaviest edge to cut it. Otherwise the MST is still correct.
+	 */
+	private void closeCycle() {
+		int side = (heaviest[0] >= heaviest[1]) ? 0 : 1;
+		if (heaviest[side] <= repairCost) {
+			finishRepair(false);
+			return;
+		}
+		swap(side, heaviestLower[side], heaviestUpper[side]);
+	}
+
+	/**
+	 * Cuts the tree edge from {@code lower} to {@code upper} if this process is
+	 * {@code upper}, and relinks the part below it. Otherwise passes the SWAP
+	 * on towards the edge.
+	 *
+	 * @param side: which endpoint's path the edge is on
+	 * @param lower: lower endpoint of the edge to cut
+	 * @param upper: upper endpoint of the edge to cut
+	 */
+	private void swap(int side, int lower, int upper) {
+		if (id == upper) {
+			removeBranch(lower);
+			sendRepair(MessageType.MSG_REPAIR_RELINK, lower, repairSeq, side, 1);
+		} else {
+			sendRepair(MessageType.MSG_REPAIR_SWAP, towards[side], repairSeq, side, lower, upper);
+		}
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_SWAP message.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number, the endpoint the path leads to, and the
+	 * endpoints of the edge to cut.
+	 */
+	private void processRepairSwap(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		swap((int) args[1], (int) args[2], (int) args[3]);
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_RELINK message. The part of the tree below the
+	 * cut edge hangs from the new edge instead, so every process on the path
+	 * from the cut edge down to the new one makes the next process on the
+	 * path its parent. The endpoint of the new edge makes the other endpoint
+	 * its parent.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number, the endpoint the path leads to, and
+	 * whether the edge the message came over was cut.
+	 */
+	private void processRepairRelink(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		int side = (int) args[1];
+		if (args[2] != 0) {
+			removeBranch(m.getSender());
+		}
+		int next = towards[side];
+		if (next == -1) {
+			inBranch = repairOut;
+			setEdgeState(repairOut, SE_BRANCH);
+			sendRepair(MessageType.MSG_REPAIR_ATTACH, repairOut, repairSeq);
+		} else {
+			inBranch = next;
+			sendRepair(MessageType.MSG_REPAIR_RELINK, next, repairSeq, side, 0);
+		}
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_ATTACH message, taking the new edge into the
+	 * tree, which completes the repair.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number.
+	 */
+	private void processRepairAttach(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		setEdgeState(m.getSender(), SE_BRANCH);
+		finishRepair(true);
+	}
+
+	// REPAIR: REPLACEMENT SEARCH /////////////////////////////////////////////
+
+	/**
+	 * Gets the children of this process in the tree.
+	 *
+	 * @return their ids
+	 */
+	private int[] children() {
+		int[] branches = branches();
+		int[] children = new int[branches.length];
+		int count = 0;
+		for (int nextId : branches) {
+			if (nextId != inBranch) {
+				children[count++] = nextId;
+			}
+		}
+		return Arrays.copyOf(children, count);
+	}
+
+	/**
+	 * Marks this process as detached and passes the SPLIT on to its children.
+	 * Once the whole subtree is marked, the search can tell its edges out of
+	 * it from its edges within it.
+	 */
+	private void split() {
+		detached = true;
+		int[] children = children();
+		pending = children.length;
+		for (int child : children) {
+			sendRepair(MessageType.MSG_REPAIR_SPLIT, child, repairSeq);
+		}
+		if (pending == 0) {
+			splitDone();
+		}
+	}
+
+	/**
+	 * Called once the subtree of this process is marked: the root of the
+	 * split starts the search, and everyone else tells their parent.
+	 */
+	private void splitDone() {
+		if (splitRoot) {
+			search();
+		} else {
+			sendRepair(MessageType.MSG_REPAIR_SPLIT_ACK, inBranch, repairSeq);
+		}
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_SPLIT message.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number.
+	 */
+	private void processRepairSplit(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		split();
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_SPLIT_ACK message.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number.
+	 */
+	private void processRepairSplitAck(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		pending--;
+		if (pending == 0) {
+			splitDone();
+		}
+	}
+
+	/**
+	 * Passes the SEARCH on to the children of this process, and looks for
+	 * the cheapest edge out of the subtree among its own edges, testing them
+	 * by increasing current cost. The root of the split starts from the
+	 * changed edge at its new cost.
+	 */
+	private void search() {
+		int[] children = children();
+		pending = children.length;
+		for (int child : children) {
+			sendRepair(MessageType.MSG_REPAIR_SEARCH, child, repairSeq);
+		}
+		if (splitRoot) {
+			searchBest = costs.get(id).get(inBranch);
+			repairOut = inBranch;
+		}
+		candidates = nonTreeEdgesByCost(ID_NONE);
+		candidateCursor = 0;
+		testNextCandidate();
+	}
+
+	/**
+	 * Tests the next edge of this process, unless it is no cheaper than the
+	 * best edge found so far, in which case this process is done searching.
+	 */
+	private void testNextCandidate() {
+		if (candidateCursor < candidates.length
+				&& costs.get(id).get(candidates[candidateCursor]) < searchBest) {
+			sendRepair(MessageType.MSG_REPAIR_TEST, candidates[candidateCursor], repairSeq);
+			return;
+		}
+		ownSearchDone = true;
+		searchReport();
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_TEST message by answering whether this process
+	 * is in the detached subtree. Leaves the repair state alone, since a
+	 * process outside the subtree takes no part in the repair.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number.
+	 */
+	private void processRepairTest(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		boolean inside = (repairSeq == (int) args[0]) && detached;
+		sendRepair(MessageType.MSG_REPAIR_ANSWER, m.getSender(), args[0], inside ? 1 : 0);
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_ANSWER message. An edge within the subtree is
+	 * passed over; the first edge out of it is the best edge of this process.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number and whether the edge is within the subtree.
+	 */
+	private void processRepairAnswer(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		if (args[1] != 0) {
+			candidateCursor++;
+			testNextCandidate();
+			return;
+		}
+		double w = costs.get(id).get(m.getSender());
+		if (w < searchBest) {
+			searchBest = w;
+			repairOut = m.getSender();
+			towards[0] = -1;
+		}
+		ownSearchDone = true;
+		searchReport();
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_SEARCH message.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number.
+	 */
+	private void processRepairSearch(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		search();
+	}
+
+	/**
+	 * Processes the MSG_REPAIR_REPORT message, noting the child if it found a
+	 * cheaper edge than the best so far.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the sequence number and the cost of the best edge found.
+	 */
+	private void processRepairReport(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		if (!enterRepair((int) args[0])) {
+			return;
+		}
+		pending--;
+		if (args[1] < searchBest) {
+			searchBest = args[1];
+			towards[0] = m.getSender();
+		}
+		searchReport();
+	}
+
+	/**
+	 * Reports the best edge once this process has found its own and heard
+	 * from all its children. At the root of the split, the search is over:
+	 * if the changed edge is still the best, the MST is unchanged, and
+	 * otherwise its parent cuts it and the subtree is relinked over the best
+	 * edge.
+	 */
+	private void searchReport() {
+		if (!ownSearchDone || pending > 0) {
+			return;
+		}
+		if (!splitRoot) {
+			sendRepair(MessageType.MSG_REPAIR_REPORT, inBranch, repairSeq, searchBest);
+		} else if (towards[0] == -1 && repairOut == inBranch) {
+			finishRepair(false);
+		} else {
+			sendRepair(MessageType.MSG_REPAIR_SWAP, inBranch, repairSeq, 0, id, inBranch);
+		}
+	}
+
+	// LEASE ////////////////////////////////////////////////////////////
+
+	/**
+	 * Called on the leader once every process knows it, or once it is
+	 * restored from a checkpoint. Starts renewing its lease, then goes on to
+	 * any cost changes before the workload.
+	 */
+	private void leaderReady() {
+		startHeartbeats();
+		nextCostChange();
+	}
+
+	/**
+	 * Starts sending heartbeats, if leases are in use.
+	 */
+	private void startHeartbeats() {
+		if (config.heartbeatMillis > 0) {
+			heartbeating = true;
+			heartbeat();
+		}
+	}
+
+	/**
+	 * Sends a heartbeat to the children of the leader, which pass it on down
+	 * the tree. It names all of the leader's children, so that each of them
+	 * knows which subtrees are left if the leader crashes.
+	 */
+	private void heartbeat() {
+		nextHeartbeat = System.currentTimeMillis() + config.heartbeatMillis;
+		int[] children = children();
+		double[] args = new double[children.length + 1];
+		args[0] = ID_NONE;
+		for (int i = 0; i < children.length; i++) {
+			args[i + 1] = children[i];
+		}
+		for (int child : children) {
+			sendFailover(MessageType.MSG_HEARTBEAT, child, args);
+		}
+	}
+
+	/**
+	 * Processes the MSG_HEARTBEAT message: renews the lease, notes which
+	 * subtree of the leader this process is in, and passes the heartbeat on
+	 * to its children. Heartbeats are ignored while joining, until this
+	 * process knows the leader and its place in the tree.
+	 *
+	 * During failover, a heartbeat from the leader, or from a parent that is
+	 * no longer failing over, means the leader was alive all along, and the
+	 * failover is called off. Only the successor calls it off once the head
+	 * of a subtree has sent it the subtree's cheapest edges, and nobody does
+	 * once the successor has joined the subtrees up; the leader is then told
+	 * of the new leader when its next heartbeat arrives, and steps down.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the subtree the sender is in, or -1 from the leader, followed
+	 * by the leader's children if from the leader.
+	 */
+	private void processHeartbeat(Message m) {
+		if (leaderId == ID_NONE) {
+			return;
+		}
+		boolean fromLeader = m.getSender() == leaderId;
+		if (failingOver) {
+			boolean headCanCancel = inBranch == ID_NONE && fromLeader
+					&& (!failoverReported || successor() == id);
+			if (!headCanCancel && (inBranch == ID_NONE || m.getSender() != inBranch)) {
+				return;
+			}
+			if (successor() == id && subtreesPending == 0) {
+				return;
+			}
+			cancelFailover();
+		} else if (fromLeader) {
+			callOffCandidates();
+		}
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		renewLease();
+		if (m.getSender() == leaderId) {
+			subtreeRoot = id;
+			subtreeRoots = new int[args.length - 1];
+			for (int i = 0; i < subtreeRoots.length; i++) {
+				subtreeRoots[i] = (int) args[i + 1];
+			}
+		} else {
+			subtreeRoot = (int) args[0];
+		}
+		double[] newargs = { subtreeRoot };
+		for (int child : children()) {
+			sendFailover(MessageType.MSG_HEARTBEAT, child, newargs);
+		}
+	}
+
+	/**
+	 * Renews the lease, if this process has one, once the tree is oriented
+	 * after a membership change: the orientation comes from the leader, and
+	 * this process may only just have become one of its children again.
+	 */
+	@Override
+	protected void reoriented() {
+		if (leaseTicksLeft >= 0) {
+			renewLease();
+		}
+	}
+
+	/**
+	 * Renews the lease on the leader for {@code config.leaseMillis} worth of
+	 * this process's ticks.
+	 */
+	private void renewLease() {
+		long tick = Math.max(1, config.tickMillis);
+		leaseTicksLeft = Math.max(1, (config.leaseMillis + tick - 1) / tick);
+	}
+
+	/**
+	 * Sends heartbeats on time as the leader, and as a child of the leader,
+	 * starts failing over once the lease runs out.
+	 */
+	@Override
+	protected void onTick() {
+		if (config.heartbeatMillis == 0) {
+			return;
+		}
+		if (heartbeating) {
+			if (System.currentTimeMillis() >= nextHeartbeat) {
+				heartbeat();
+			}
+		} else if (!failingOver && leaseTicksLeft >= 0 && inBranch == leaderId) {
+			if (leaseTicksLeft == 0) {
+				startFailover();
+			} else {
+				leaseTicksLeft--;
+			}
+		}
+	}
+
+	/**
+	 * Crashes the leader just as it would start the workload. Starts the
+	 * clock on the failover stage, so that its latency covers noticing the
+	 * crash as well as recovering from it.
+	 */
+	private void crash() {
+		System.out.println("Leader " + id + " crashed");
+		heartbeating = false;
+		crashed = true;
+		costTracker.markSent(Stage.FAILOVER);
+	}
+
+	// FAILOVER ////////////////////////////////////////////////////////////
+
+	/**
+	 * Sends a lease or failover message to another process.
+	 *
+	 * @param type: the type of the message
+	 * @param receiver: the process to send it to
+	 * @param args: the arguments
+	 */
+	private void sendFailover(MessageType type, int receiver, double... args) {
+		sendMessage(new Message(id, receiver, type, new MSTMessageContent(args)));
+	}
+
+	/**
+	 * Gets the arguments of a message as ids.
+	 *
+	 * @param m: the message
+	 * @return the arguments
+	 */
+	private static int[] intArgs(Message m) {
+		double[] args = ((MSTMessageContent) m.getContent()).getArgs();
+		int[] ids = new int[args.length];
+		for (int i = 0; i < args.length; i++) {
+			ids[i] = (int) args[i];
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets the position of a subtree in {@code subtreeRoots}.
+	 *
+	 * @param root: the child of the crashed leader heading the subtree
+	 * @return its position, or -1 if there is no such subtree
+	 */
+	private int subtreeIndex(int root) {
+		for (int i = 0; i < subtreeRoots.length; i++) {
+			if (subtreeRoots[i] == root) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The child of the crashed leader that takes over from it: the one with
+	 * the lowest id.
+	 *
+	 * @return its id
+	 */
+	private int successor() {
+		int best = subtreeRoots[0];
+		for (int root : subtreeRoots) {
+			best = Math.min(best, root);
+		}
+		return best;
+	}
+
+	/**
+	 * Called on a child of the leader once its lease runs out. The leader's
+	 * edges leave the tree, which leaves one subtree for each of its children.
+	 * Each of these is still part of the MST without the leader, so rather
+	 * than electing again, they only need joining up again: each looks for
+	 * its cheapest edge to each of the others.
+	 */
+	private void startFailover() {
+		System.out.println(id + " lost its lease on leader " + leaderId);
+		removeBranch(leaderId);
+		inBranch = -1;
+		failoverReported = false;
+		failoverSearch(subtreeRoots);
+	}
+
+	/**
+	 * Calls failover off, once the leader turns out to be alive: a head of a
+	 * subtree takes its edge to the leader back into the tree, and sends on
+	 * what it held back for its parent meanwhile. The rest of the subtree
+	 * calls it off as the next heartbeat comes down, and drops the reports
+	 * and answers of the search still to arrive.
+	 */
+	private void cancelFailover() {
+		failingOver = false;
+		failoverReported = false;
+		renewLease();
+		if (inBranch == ID_NONE) {
+			System.out.println(id + " heard from leader " + leaderId + " again, calling failover off");
+			inBranch = leaderId;
+			setEdgeState(leaderId, SE_BRANCH);
+		}
+		callOffCandidates();
+		releaseHeld();
+	}
+
+	/**
+	 * Called on the successor when the leader turns out to be alive, before
+	 * it has joined the subtrees up: tells the heads of the subtrees whose
+	 * cheapest edges it has to call failover off, and forgets those edges.
+	 */
+	private void callOffCandidates() {
+		if (subtreeEdges == null || subtreesPending == 0) {
+			return;
+		}
+		for (int i = 0; i < subtreeEdges.length; i++) {
+			if (subtreeEdges[i] != null && subtreeRoots[i] != id) {
+				sendFailover(MessageType.MSG_FAILOVER_CANCEL, subtreeRoots[i]);
+			}
+		}
+		subtreeEdges = null;
+		subtreesPending = -1;
+	}
+
+	/**
+	 * Sends the messages held back for the parent of this process on to it,
+	 * now that it has one again.
+	 */
+	private void releaseHeld() {
+		ArrayList<Message> held = heldForParent;
+		heldForParent = new ArrayList<Message>();
+		for (Message m : held) {
+			sendMessage(new Message(id, inBranch, m.getType(), m.getContent()));
+		}
+	}
+
+	/**
+	 * Passes the search on to the children of this process, and tests its own
+	 * edges by increasing cost until it knows its cheapest edge to every other
+	 * subtree, or its next edge is no cheaper than any of those found so far.
+	 *
+	 * @param roots: the children of the crashed leader
+	 */
+	private void failoverSearch(int[] roots) {
+		failingOver = true;
+		subtreeRoots = roots;
+		int k = roots.length;
+		failoverBest = new double[k];
+		Arrays.fill(failoverBest, Double.MAX_VALUE);
+		failoverTowards = new int[k];
+		Arrays.fill(failoverTowards, ID_NONE);
+		failoverOut = new int[k];
+		Arrays.fill(failoverOut, ID_NONE);
+		failoverOwnDone = false;
+		int[] children = children();
+		failoverPending = children.length;
+		double[] args = new double[k];
+		for (int i = 0; i < k; i++) {
+			args[i] = roots[i];
+		}
+		for (int child : children) {
+			sendFailover(MessageType.MSG_FAILOVER_SEARCH, child, args);
+		}
+		failoverCandidates = nonTreeEdgesByCost(leaderId);
+		failoverCursor = 0;
+		testNextFailoverCandidate();
+	}
+
+	/**
+	 * Tests the next edge of this process, unless it is no cheaper than the
+	 * edges to every other subtree found so far, in which case this process
+	 * is done searching.
+	 */
+	private void testNextFailoverCandidate() {
+		int own = subtreeIndex(subtreeRoot);
+		double worst = 0;
+		for (int i = 0; i < failoverBest.length; i++) {
+			if (i != own) {
+				worst = Math.max(worst, failoverBest[i]);
+			}
+		}
+		if (failoverCursor < failoverCandidates.length
+				&& costs.get(id).get(failoverCandidates[failoverCursor]) < worst) {
+			sendFailover(MessageType.MSG_FAILOVER_TEST, failoverCandidates[failoverCursor]);
+			return;
+		}
+		failoverOwnDone = true;
+		failoverReport();
+	}
+
+	/**
+	 * Processes the MSG_FAILOVER_ANSWER message, which says which subtree
+	 * the other endpoint of an edge is in, and tests the next edge.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the subtree the sender is in.
+	 */
+	private void processFailoverAnswer(Message m) {
+		if (!failingOver) {
+			return;
+		}
+		int other = subtreeIndex(intArgs(m)[0]);
+		double w = costs.get(id).get(m.getSender());
+		if (other >= 0 && other != subtreeIndex(subtreeRoot) && w < failoverBest[other]) {
+			failoverBest[other] = w;
+			failoverTowards[other] = ID_NONE;
+			failoverOut[other] = m.getSender();
+		}
+		failoverCursor++;
+		testNextFailoverCandidate();
+	}
+
+	/**
+	 * Processes the MSG_FAILOVER_REPORT message, noting the child for every
+	 * subtree it found a cheaper edge to.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the cheapest edge to each subtree.
+	 */
+	private void processFailoverReport(Message m) {
+		if (!failingOver) {
+			return;
+		}
+		double[] best = ((MSTMessageContent) m.getContent()).getArgs();
+		failoverPending--;
+		for (int i = 0; i < best.length; i++) {
+			if (best[i] < failoverBest[i]) {
+				failoverBest[i] = best[i];
+				failoverTowards[i] = m.getSender();
+			}
+		}
+		failoverReport();
+	}
+
+	/**
+	 * Reports the cheapest edges to the other subtrees once this process has
+	 * tested its own and heard from all its children. The head of a subtree
+	 * reports them to the successor instead.
+	 */
+	private void failoverReport() {
+		if (!failoverOwnDone || failoverPending > 0) {
+			return;
+		}
+		if (inBranch != ID_NONE) {
+			sendFailover(MessageType.MSG_FAILOVER_REPORT, inBranch, failoverBest);
+		} else if (successor() == id) {
+			receiveCandidates(subtreeIndex(id), failoverBest);
+		} else {
+			failoverReported = true;
+			sendFailover(MessageType.MSG_FAILOVER_CANDIDATES, successor(), failoverBest);
+		}
+	}
+
+	/**
+	 * Called on the successor with the cheapest edges from a subtree to every
+	 * other. Once it has them for every subtree, it works out the MST of the
+	 * subtrees with Prim's algorithm, starting from its own, and tells every
+	 * other subtree which subtree to join.
+	 *
+	 * @param from: the position of the subtree
+	 * @param best: the cheapest edge from it to each subtree
+	 */
+	private void receiveCandidates(int from, double[] best) {
+		int k = subtreeRoots.length;
+		if (subtreeEdges == null) {
+			subtreeEdges = new double[k][];
+			subtreesPending = k;
+		}
+		subtreeEdges[from] = best;
+		subtreesPending--;
+		if (subtreesPending > 0) {
+			return;
+		}
+		int own = subtreeIndex(id);
+		int[] parent = primOverPieces(subtreeEdges, own);
+		joinsPending = k - 1;
+		for (int i = 0; i < k; i++) {
+			if (i != own) {
+				sendFailover(MessageType.MSG_FAILOVER_ATTACH, subtreeRoots[i], parent[i]);
+			}
+		}
+		if (joinsPending == 0) {
+			announceLeader();
+		}
+	}
+
+	/**
+	 * Hangs this subtree from its cheapest edge to another subtree, as told
+	 * by the successor: every process on the path from the head of the
+	 * subtree down to the edge makes the next process on the path its
+	 * parent, and the endpoint of the edge makes the other endpoint its
+	 * parent.
+	 *
+	 * @param target: the position of the subtree to join
+	 */
+	private void failoverRelink(int target) {
+		int next = failoverTowards[target];
+		if (next == ID_NONE) {
+			inBranch = failoverOut[target];
+			setEdgeState(inBranch, SE_BRANCH);
+			sendFailover(MessageType.MSG_FAILOVER_JOIN, inBranch);
+		} else {
+			inBranch = next;
+			sendFailover(MessageType.MSG_FAILOVER_RELINK, next, target);
+		}
+	}
+
+	/**
+	 * Called when a subtree has joined, on the process it joined at, and then
+	 * on the successor. Once every subtree has joined, the successor takes
+	 * over as leader.
+	 */
+	private void joined() {
+		if (successor() != id) {
+			sendFailover(MessageType.MSG_FAILOVER_JOINED, successor());
+			return;
+		}
+		joinsPending--;
+		if (joinsPending == 0) {
+			announceLeader();
+		}
+	}
+
+	/**
+	 * Called on the successor once the tree is whole again: tells every
+	 * process it is the new leader.
+	 */
+	private void announceLeader() {
+		formerLeaders.add(leaderId);
+		leaderId = id;
+		isLeader = true;
+		inBranch = ID_NONE;
+		passLeader();
+	}
+
+	/**
+	 * Processes the MSG_FAILOVER_LEADER message, which names the new leader.
+	 * The lease on it starts with its first heartbeat, which tells the heads
+	 * of the subtrees who the others are. A leader that receives it was
+	 * failed over from while it was alive, and steps down.
+	 *
+	 * @param m: the message. The message content is expected to contain an
+	 * array of the new leader.
+	 */
+	private void processFailoverLeader(Message m) {
+		int newLeader = intArgs(m)[0];
+		if (isLeader) {
+			stepDown(newLeader);
+			return;
+		}
+		if (newLeader != leaderId && neighborIndex.containsKey(leaderId)) {
+			formerLeaders.add(leaderId);
+		}
+		leaderId = newLeader;
+		isLeader = false;
+		leaseTicksLeft = -1;
+		passLeader();
+	}
+
+	/**
+	 * Called once a new leader has taken over, and every child of this
+	 * process has acked it. If the old leader was only thought to have
+	 * crashed, the workload may have started under it; the new leader runs it
+	 * again from the start, and what was held back for the old tree is
+	 * dropped. Waiting for the acks means that whatever the children sent up
+	 * for the old workload has come in first, and is not taken for the new.
+	 */
+	private void restartWorkload() {
+		heldForParent.clear();
+		resetWorkload();
+	}
+
+	/**
+	 * Called on a leader that was failed over from while it was alive, once
+	 * it hears of the new leader: it leaves the simulation as if it had
+	 * crashed, since the tree has been joined up without it.
+	 *
+	 * @param newLeader: the leader that took over
+	 */
+	private void stepDown(int newLeader) {
+		System.out.println("Leader " + id + " stepped down for " + newLeader);
+		heartbeating = false;
+		isLeader = false;
+		crashed = true;
+	}
+
+	/**
+	 * Passes the new leader on to the children of this process in the new
+	 * tree, which ack once they and all their children know it.
+	 */
+	private void passLeader() {
+		int[] children = children();
+		failoverPending = children.length;
+		for (int child : children) {
+			sendFailover(MessageType.MSG_FAILOVER_LEADER, child, leaderId);
+		}
+		failoverAcked();
+	}
+
+	/**
+	 * Acks the new leader once this process and all its children know it.
+	 * Once the new leader has every ack, failover is over, and it starts
+	 * the workload.
+	 */
+	private void failoverAcked() {
+		if (failoverPending > 0) {
+			return;
+		}
+		failingOver = false;
+		restartWorkload();
+		if (id != leaderId) {
+			sendFailover(MessageType.MSG_FAILOVER_ACK, inBranch);
+			return;
+		}
+		System.out.println("Failover leader is " + id);
+		costTracker.registerMetric("number of subtrees joined by failover", subtreeRoots.length);
+		startHeartbeats();
+		startWorkloadSimple();
+	}
 }
@@ -0,0 +1,74 @@
+package oracle;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+
+import common.CostTracker.Stage;
+
+/**
+ * The costs of the workload of a simulation worked out by the {@link Oracle}
+ * rather than measured: what the leader's broadcast and the queries to the
+ * leader cost in total.
+ */
+public class CostEstimate {
+	/**
+	 * Total cost of the {@code Stage.BROADCAST} messages, or NaN if unknown
+	 */
+	private double broadcast;
+
+	/**
+	 * Total cost of the {@code Stage.QUERY} messages, or NaN if unknown
+	 */
+	private double query;
+
+	/**
+	 * Simple constructor
+	 *
+	 * @param broadcast
+	 * @param query
+	 */
+	public CostEstimate(double broadcast, double query) {
+		this.broadcast = broadcast;
+		this.query = query;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code broadcast}
+	 */
+	public double getBroadcast() {
+		return broadcast;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code query}
+	 */
+	public double getQuery() {
+		return query;
+	}
+
+	/**
+	 * Write out the estimates to a file, in the format
+	 * {@link common.CostTracker#dumpCosts()} writes measured costs in. Unknown
+	 * estimates are left out.
+	 *
+	 * @param outfile
+	 *            The outfile where things should be written
+	 */
+	public void dump(String outfile) {
+		try (PrintWriter out = new PrintWriter(outfile)) {
+			if (!Double.isNaN(broadcast)) {
+				out.println("The estimated cost for stage " + Stage.BROADCAST.name() + " is: "
+						+ Double.toString(broadcast));
+			}
+			if (!Double.isNaN(query)) {
+				out.println("The estimated cost for stage " + Stage.QUERY.name() + " is: " + Double.toString(query));
+			}
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,635 @@
+package oracle;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import common.CostTracker;
+import common.CostTracker.Stage;
+import common.ElectionRunner;
+import common.ElectionRunner.Model;
+import common.Process;
+import common.SimulationConfig;
+import mst.MSTBase;
+import shortestpath.ShortestPathProcess;
+import shortestpath.ShortestPathProcess.LeaderMethod;
+import util.DistanceMatrix;
+
+/**
+ * A centralized view of the simulated network, for validating simulations and
+ * estimating their costs without running them. Knowing every edge cost, it
+ * computes the MST with Prim's algorithm and all shortest paths with a
+ * Floyd-Warshall on the shared {@link util.MinPlusKernel}. From those, the
+ * cost of the leader's broadcast and of the queries to the leader follows
+ * exactly for every model once the leader is known, since each model sends
+ * them along a fixed tree.
+ *
+ * Without a network at hand, {@link #analytic(Model, int, SimulationConfig)}
+ * estimates the same costs from the known limits for complete graphs with
+ * independent uniform edge costs, the ones {@link ElectionRunner} generates.
+ * These cost nothing to evaluate, whatever the number of processes.
+ */
+public class Oracle {
+
+	/**
+	 * What the oracle is used for: nothing, checking each simulation once it
+	 * is done, or estimating costs in place of simulating, from the generated
+	 * network or analytically
+	 */
+	public enum Mode {
+		OFF, CHECK, EXACT, ANALYTIC
+	}
+
+	/**
+	 * Apery's constant, zeta(3): the limit of the MST weight of a complete graph
+	 * with independent edge costs uniform between 0 and 1
+	 */
+	private static final double ZETA_3 = 1.2020569031595942;
+
+	/**
+	 * IDs of the processes, indexed by dense index
+	 */
+	private int[] ids;
+
+	/**
+	 * Maps an ID to its dense index
+	 */
+	private HashMap<Integer, Integer> index;
+
+	/**
+	 * Edge costs, row-major by dense index
+	 */
+	private double[] weights;
+
+	/**
+	 * Dense index of each process's parent in the MST rooted at the first
+	 * process, which has none. Computed when first needed.
+	 */
+	private int[] mstParent;
+
+	/**
+	 * Shortest paths between every two processes. Computed when first needed.
+	 */
+	private DistanceMatrix paths;
+
+	/**
+	 * The number of queries each process sends in the workload, by dense
+	 * index, as the processes themselves say, or null to work it out from the
+	 * dense index. Set when checking a simulation, where processes that
+	 * joined later keep a position of their own.
+	 */
+	private double[] demand;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ids
+	 *            the IDs of the processes
+	 * @param costs
+	 *            edge costs, see {@link common.Process}
+	 */
+	public Oracle(int[] ids, HashMap<Integer, HashMap<Integer, Double>> costs) {
+		this.ids = ids;
+		this.index = new HashMap<Integer, Integer>();
+		int n = ids.length;
+		for (int i = 0; i < n; i++) {
+			index.put(ids[i], i);
+		}
+		this.weights = new double[n * n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				weights[i * n + j] = (i == j) ? 0 : costs.get(ids[i]).get(ids[j]);
+			}
+		}
+	}
+
+	// SPANNING TREE ////////////////////////////////////////////////////////////
+	/**
+	 * The MST, by Prim's algorithm: O(n^2), which is optimal on a complete
+	 * graph.
+	 *
+	 * @return the dense index of each process's parent, rooted at the first
+	 *         process, whose parent is -1
+	 */
+	public int[] minimumSpanningTree() {
+		if (mstParent != null) {
+			return mstParent;
+		}
+		int n = ids.length;
+		int[] parent = new int[n];
+		double[] best = new double[n];
+		boolean[] inTree = new boolean[n];
+		Arrays.fill(best, Double.POSITIVE_INFINITY);
+		parent[0] = -1;
+		best[0] = 0;
+		for (int added = 0; added < n; added++) {
+			int u = -1;
+			for (int v = 0; v < n; v++) {
+				if (!inTree[v] && (u == -1 || best[v] < best[u])) {
+					u = v;
+				}
+			}
+			inTree[u] = true;
+			for (int v = 0; v < n; v++) {
+				if (!inTree[v] && weights[u * n + v] < best[v]) {
+					best[v] = weights[u * n + v];
+					parent[v] = u;
+				}
+			}
+		}
+		mstParent = parent;
+		return mstParent;
+	}
+
+	/**
+	 * The total cost of the MST's edges
+	 *
+	 * @return the weight
+	 */
+	public double mstWeight() {
+		int[] parent = minimumSpanningTree();
+		int n = ids.length;
+		double sum = 0;
+		for (int v = 0; v < n; v++) {
+			if (parent[v] != -1) {
+				sum += weights[v * n + parent[v]];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * The cost of the path along the MST from every process to a given one
+	 *
+	 * @param root
+	 *            dense index of the process
+	 * @return the costs, by dense index
+	 */
+	private double[] treeDistances(int root) {
+		int n = ids.length;
+		int[] order = new int[n];
+		int[] parent = rootedTree(root, order);
+		double[] dist = new double[n];
+		for (int i = 1; i < n; i++) {
+			int v = order[i];
+			dist[v] = dist[parent[v]] + weights[v * n + parent[v]];
+		}
+		return dist;
+	}
+
+	/**
+	 * The MST rooted at a given process
+	 *
+	 * @param root
+	 *            dense index of the process
+	 * @param order
+	 *            filled with the dense indices of the processes, each after
+	 *            its parent, starting with the root
+	 * @return the dense index of each process's parent, -1 for the root
+	 */
+	private int[] rootedTree(int root, int[] order) {
+		int[] mst = minimumSpanningTree();
+		int n = ids.length;
+		// neighbors in the MST, as linked lists threaded through an array
+		int[] first = new int[n];
+		int[] nextEdge = new int[2 * n];
+		int[] target = new int[2 * n];
+		Arrays.fill(first, -1);
+		int edges = 0;
+		for (int v = 0; v < n; v++) {
+			if (mst[v] != -1) {
+				target[edges] = mst[v];
+				nextEdge[edges] = first[v];
+				first[v] = edges++;
+				target[edges] = v;
+				nextEdge[edges] = first[mst[v]];
+				first[mst[v]] = edges++;
+			}
+		}
+		int[] parent = new int[n];
+		Arrays.fill(parent, -2);
+		int[] stack = new int[n];
+		int top = 0;
+		int visited = 0;
+		parent[root] = -1;
+		stack[top++] = root;
+		while (top > 0) {
+			int u = stack[--top];
+			order[visited++] = u;
+			for (int e = first[u]; e != -1; e = nextEdge[e]) {
+				int v = target[e];
+				if (parent[v] == -2) {
+					parent[v] = u;
+					stack[top++] = v;
+				}
+			}
+		}
+		return parent;
+	}
+
+	/**
+	 * The cost of the queries of the hierarchical model: every process queries
+	 * its cluster leader along the MST, and every cluster leader but the
+	 * leader's sends one aggregated query on to the leader. The clusters are
+	 * cut from the MST rooted at the leader as the processes cut them: every
+	 * process takes in what is left of its children's subtrees, smallest
+	 * first and by id on ties, while its group stays within
+	 * {@code config.clusterSize} processes, and the children whose groups do
+	 * not fit lead them as clusters. A group that reaches
+	 * {@code config.clusterSize} is a cluster too.
+	 *
+	 * @param leader
+	 *            dense index of the leader
+	 * @param demand
+	 *            the number of queries each process sends, by dense index
+	 * @param config
+	 *            the simulation parameters
+	 * @return the cost
+	 */
+	private double clusterQueryCost(int leader, double[] demand, SimulationConfig config) {
+		int n = ids.length;
+		int[] order = new int[n];
+		int[] parent = rootedTree(leader, order);
+		double[] dist = treeDistances(leader);
+		// children, as linked lists threaded through an array
+		int[] firstChild = new int[n];
+		int[] nextSibling = new int[n];
+		Arrays.fill(firstChild, -1);
+		for (int v = 0; v < n; v++) {
+			if (parent[v] != -1) {
+				nextSibling[v] = firstChild[parent[v]];
+				firstChild[parent[v]] = v;
+			}
+		}
+		int[] size = new int[n];
+		boolean[] clusterLeader = new boolean[n];
+		clusterLeader[leader] = true;
+		Integer[] children = new Integer[n];
+		for (int i = n - 1; i >= 0; i--) {
+			int v = order[i];
+			int count = 0;
+			for (int c = firstChild[v]; c != -1; c = nextSibling[c]) {
+				children[count++] = c;
+			}
+			Arrays.sort(children, 0, count, (a, b) -> size[a] != size[b] ? Integer.compare(size[a], size[b])
+					: Integer.compare(ids[a], ids[b]));
+			size[v] = 1;
+			for (int j = 0; j < count; j++) {
+				int c = children[j];
+				if (size[v] + size[c] <= config.clusterSize) {
+					size[v] += size[c];
+				} else {
+					clusterLeader[c] = true;
+				}
+			}
+			if (size[v] >= config.clusterSize) {
+				clusterLeader[v] = true;
+				size[v] = 0;
+			}
+		}
+		int[] clusterOf = new int[n];
+		double query = 0;
+		for (int i = 0; i < n; i++) {
+			int v = order[i];
+			clusterOf[v] = clusterLeader[v] ? v : clusterOf[parent[v]];
+			if (v == leader) {
+				continue;
+			}
+			// the cluster leader is on the path to the leader
+			query += demand[v] * (dist[v] - dist[clusterOf[v]]);
+			if (clusterLeader[v]) {
+				query += dist[v];
+			}
+		}
+		return query;
+	}
+
+	// SHORTEST PATHS ////////////////////////////////////////////////////////////
+	/**
+	 * Shortest paths between every two processes, by Floyd-Warshall over the
+	 * direct edges, relaxed in parallel for large networks
+	 *
+	 * @return the matrix, a snapshot
+	 */
+	public DistanceMatrix shortestPaths() {
+		if (paths != null) {
+			return paths;
+		}
+		int n = ids.length;
+		DistanceMatrix m = new DistanceMatrix(ids);
+		int[] all = new int[n];
+		for (int i = 0; i < n; i++) {
+			all[i] = i;
+			for (int j = 0; j < n; j++) {
+				m.set(i, j, weights[i * n + j], j);
+			}
+		}
+		m.relaxThrough(all);
+		paths = m.freeze();
+		return paths;
+	}
+
+	/**
+	 * The leader a shortest path election would choose, scoring every
+	 * candidate from the exact shortest paths. Query rates are not known yet
+	 * when the election runs, so every process weighs the same, unless the
+	 * workload's query demand is taken as a prior, see
+	 * {@code config.queryPrior}.
+	 *
+	 * @param method
+	 *            how candidates are scored
+	 * @param config
+	 *            the simulation parameters
+	 * @return ID of the leader
+	 */
+	public int predictLeader(LeaderMethod method, SimulationConfig config) {
+		int n = ids.length;
+		double[] dist = shortestPaths().distances();
+		double[] demand = new double[n];
+		if (config.queryPrior) {
+			demand = demands(config);
+		} else {
+			Arrays.fill(demand, 1);
+		}
+		int best = 0;
+		double bestScore = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			double score = method.score(dist, i * n, n, demand, config.leaderPercentile);
+			if (score < bestScore) {
+				bestScore = score;
+				best = i;
+			}
+		}
+		return ids[best];
+	}
+
+	// WORKLOAD COSTS ////////////////////////////////////////////////////////////
+	/**
+	 * The number of queries each process sends in the workload
+	 *
+	 * @param config
+	 *            the simulation parameters
+	 * @return the numbers, by dense index
+	 */
+	private double[] demands(SimulationConfig config) {
+		if (this.demand != null) {
+			return this.demand;
+		}
+		double[] demand = new double[ids.length];
+		for (int i = 0; i < demand.length; i++) {
+			demand[i] = Process.queryDemand(i, config);
+		}
+		return demand;
+	}
+
+	/**
+	 * The exact cost of the workload of a simulation, given who its leader
+	 * is. Every chunk of the broadcast crosses each edge of the model's tree
+	 * once: the MST, or with {@code config.pathBroadcastTree} the tree of
+	 * shortest paths to the leader, or for the baseline the direct edges from
+	 * the leader. Every query travels the model's path to the leader: along
+	 * the MST, along shortest paths, or directly.
+	 *
+	 * @param m
+	 *            the model
+	 * @param leaderId
+	 *            ID of the leader
+	 * @param config
+	 *            the simulation parameters
+	 * @return the costs
+	 */
+	public CostEstimate workloadCost(Model m, int leaderId, SimulationConfig config) {
+		int n = ids.length;
+		int leader = index.get(leaderId);
+		double[] demand = demands(config);
+		double[] toLeader = new double[n];
+		double broadcast = 0;
+		switch (m) {
+		case BASELINE:
+			for (int j = 0; j < n; j++) {
+				toLeader[j] = weights[j * n + leader];
+				broadcast += weights[leader * n + j];
+			}
+			break;
+		case MST:
+		case BORUVKA:
+			toLeader = treeDistances(leader);
+			broadcast = mstWeight();
+			break;
+		case HIERARCHICAL:
+			return new CostEstimate(config.broadcastChunks() * mstWeight(), clusterQueryCost(leader, demand, config));
+		case SHORTESTPATH:
+		case LANDMARK:
+			DistanceMatrix sp = shortestPaths();
+			for (int j = 0; j < n; j++) {
+				toLeader[j] = sp.getDist(j, leader);
+				if (j != leader && m == Model.SHORTESTPATH && config.pathBroadcastTree) {
+					broadcast += weights[j * n + sp.getNext(j, leader)];
+				}
+			}
+			if (m == Model.LANDMARK || !config.pathBroadcastTree) {
+				broadcast = mstWeight();
+			}
+			break;
+		}
+		double query = 0;
+		for (int j = 0; j < n; j++) {
+			if (j != leader) {
+				query += demand[j] * toLeader[j];
+			}
+		}
+		return new CostEstimate(config.broadcastChunks() * broadcast, query);
+	}
+
+	/**
+	 * The cost of the workload of a simulation that has not been run. The
+	 * shortest path leader is the one the election would choose, and the
+	 * landmark leader the one an exact closeness estimate would. The baseline
+	 * leader, having the largest random UUID, is equally likely to be anyone,
+	 * so its costs are averaged over every choice. The MST and Boruvka leaders
+	 * depend on the order fragments merge in, so their costs are averaged likewise.
+	 *
+	 * @param m
+	 *            the model
+	 * @param config
+	 *            the simulation parameters
+	 * @return the costs
+	 */
+	public CostEstimate expectedWorkloadCost(Model m, SimulationConfig config) {
+		switch (m) {
+		case SHORTESTPATH:
+			return workloadCost(m, predictLeader(config.leaderMethod, config), config);
+		case LANDMARK:
+			return workloadCost(m, predictLeader(LeaderMethod.METHOD_SUM, config), config);
+		default:
+			double broadcast = 0;
+			double query = 0;
+			for (int id : ids) {
+				CostEstimate c = workloadCost(m, id, config);
+				broadcast += c.getBroadcast();
+				query += c.getQuery();
+			}
+			return new CostEstimate(broadcast / ids.length, query / ids.length);
+		}
+	}
+
+	// CHECKS ////////////////////////////////////////////////////////////
+	/**
+	 * Check a finished simulation against the oracle, registering the outcome
+	 * as metrics with its cost tracker: the exact workload costs given the
+	 * elected leader and how far the measured ones are off, how many MST
+	 * edges the processes got wrong, and for shortest path elections the
+	 * largest error in the leader's final distance matrix and whether the
+	 * oracle would have chosen the same leader.
+	 *
+	 * @param m
+	 *            the model simulated
+	 * @param processes
+	 *            the processes of the simulation, all exited
+	 * @param tracker
+	 *            the simulation's cost tracker
+	 * @param config
+	 *            the simulation parameters
+	 */
+	public void check(Model m, Collection<Process> processes, CostTracker tracker, SimulationConfig config) {
+		Process leader = null;
+		demand = new double[ids.length];
+		for (Process p : processes) {
+			if (p.isLeader()) {
+				leader = p;
+			}
+			demand[index.get(p.getId())] = p.queryDemand();
+		}
+		if (leader == null) {
+			System.err.println("Oracle check of " + m.name() + ": no leader was elected");
+			return;
+		}
+		CostEstimate exact = workloadCost(m, leader.getId(), config);
+		tracker.registerMetric("oracle cost for stage " + Stage.BROADCAST.name(), exact.getBroadcast());
+		tracker.registerMetric("oracle cost for stage " + Stage.QUERY.name(), exact.getQuery());
+		tracker.registerMetric("oracle error for stage " + Stage.BROADCAST.name(),
+				tracker.getCost(Stage.BROADCAST) - exact.getBroadcast());
+		tracker.registerMetric("oracle error for stage " + Stage.QUERY.name(),
+				tracker.getCost(Stage.QUERY) - exact.getQuery());
+
+		if (m != Model.BASELINE) {
+			HashSet<Long> branches = new HashSet<Long>();
+			for (Process p : processes) {
+				for (int other : ((MSTBase) p).branches()) {
+					branches.add(edgeKey(p.getId(), other));
+				}
+			}
+			int[] parent = minimumSpanningTree();
+			int wrong = 0;
+			for (int v = 0; v < parent.length; v++) {
+				if (parent[v] != -1 && !branches.remove(edgeKey(ids[v], ids[parent[v]]))) {
+					wrong++;
+				}
+			}
+			// edges missed, plus edges that are not in the MST
+			tracker.registerMetric("number of MST edges the oracle disagrees with", wrong + branches.size());
+		}
+
+		if (m == Model.SHORTESTPATH) {
+			DistanceMatrix finalPaths = ((ShortestPathProcess) leader).getPaths();
+			if (finalPaths != null) {
+				DistanceMatrix expected = shortestPaths();
+				double worst = 0;
+				for (int i = 0; i < ids.length; i++) {
+					for (int j = 0; j < ids.length; j++) {
+						double actual = finalPaths.getDist(finalPaths.indexOf(ids[i]), finalPaths.indexOf(ids[j]));
+						worst = Math.max(worst, Math.abs(actual - expected.getDist(i, j)));
+					}
+				}
+				tracker.registerMetric("largest shortest path error", worst);
+			}
+			int predicted = predictLeader(config.leaderMethod, config);
+			tracker.registerMetric("oracle agreement on leader", (predicted == leader.getId()) ? 1 : 0);
+		}
+	}
+
+	/**
+	 * A key identifying an undirected edge
+	 *
+	 * @param a
+	 *            ID of one endpoint
+	 * @param b
+	 *            ID of the other endpoint
+	 * @return the key, the same either way round
+	 */
+	private static long edgeKey(int a, int b) {
+		return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+	}
+
+	// ANALYTIC ESTIMATES ////////////////////////////////////////////////////////////
+	/**
+	 * Estimate the cost of the workload of a simulation from the number of
+	 * processes alone, for a complete graph with independent edge costs
+	 * uniform between 0 and {@link ElectionRunner#MAX_COST}. Shortest paths
+	 * and the MST only use the cheapest edges, where uniform costs look like
+	 * exponential ones, for which the following are known:
+	 *
+	 * The MST weighs zeta(3) in the limit (Frieze, 1985).
+	 *
+	 * Growing the tree of shortest paths from a process, the k-th process
+	 * reached joins after an exponential time with rate k(n-k), through an
+	 * edge from a uniformly random process already reached. The expected sum
+	 * of the distances to the process is therefore H(n-1), the harmonic
+	 * number, and the expected weight of the tree
+	 * sum_k [ 1/k sum_{m<k} 1/(n-m) + 1/(k(n-k)) ], which tends to zeta(2).
+	 * Both are used as they are for the leader, though an elected leader is
+	 * somewhat closer to everyone than a typical process.
+	 *
+	 * Query costs along the MST have no closed form, and are left unknown.
+	 *
+	 * @param m
+	 *            the model
+	 * @param n
+	 *            the number of processes
+	 * @param config
+	 *            the simulation parameters
+	 * @return the costs
+	 */
+	public static CostEstimate analytic(Model m, int n, SimulationConfig config) {
+		if (n < 2) {
+			return new CostEstimate(0, 0);
+		}
+		double w = ElectionRunner.MAX_COST;
+		double chunks = config.broadcastChunks();
+		// the leader is equally likely to be any process, and sends no queries
+		double queries = 0;
+		for (int p = 0; p < n; p++) {
+			queries += Process.queryDemand(p, config);
+		}
+		queries *= (n - 1) / (double) n;
+		double closeness = 0;
+		for (int k = 1; k < n; k++) {
+			closeness += 1. / k;
+		}
+		double pathQuery = w * closeness * queries / (n - 1);
+		double mstBroadcast = chunks * w * ZETA_3;
+
+		switch (m) {
+		case BASELINE:
+			return new CostEstimate(chunks * (n - 1) * w / 2, queries * w / 2);
+		case MST:
+		case BORUVKA:
+		case HIERARCHICAL:
+			return new CostEstimate(mstBroadcast, Double.NaN);
+		case SHORTESTPATH:
+			if (!config.pathBroadcastTree) {
+				return new CostEstimate(mstBroadcast, pathQuery);
+			}
+			double tree = 0;
+			double tail = 0; // sum_{m<k} 1/(n-m)
+			for (int k = 1; k < n; k++) {
+				tree += tail / k + 1. / ((double) k * (n - k));
+				tail += 1. / (n - k);
+			}
+			return new CostEstimate(chunks * w * tree, pathQuery);
+		default:
+			return new CostEstimate(mstBroadcast, pathQuery);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package shortestpath;
+
+import common.MessageContent;
+
+/**
+ * Message content used by {@link ShortestPathProcess} to announce the result
+ * of leader election without sending the whole distance matrix: the leader,
+ * and for every node, the next hop on its shortest path to the leader.
+ */
+public class RouteMessageContent extends MessageContent {
+	/**
+	 * The id of the chosen leader
+	 */
+	private int leaderId;
+	
+	/**
+	 * For every node, by position in the list of all processes, the position
+	 * of the next node on its shortest path to the leader
+	 */
+	private int[] nextHops;
+
+	/**
+	 * Simple constructor
+	 * 
+	 * @param leaderId
+	 * @param nextHops
+	 */
+	public RouteMessageContent(int leaderId, int[] nextHops) {
+		super();
+		this.leaderId = leaderId;
+		this.nextHops = nextHops;
+	}
+
+	/**
+	 * Simple getter
+	 * 
+	 * @return {@code leaderId}
+	 */
+	public int getLeaderId() {
+		return leaderId;
+	}
+
+	/**
+	 * Simple getter
+	 * 
+	 * @return {@code nextHops}
+	 */
+	public int[] getNextHops() {
+		return nextHops;
+	}
+}
@@ -1,43 +1,85 @@
 package shortestpath;
 
-import java.util.HashMap;
-
-import util.Pair;
-import util.PathInfo;
+import util.DistanceMatrix;
+import util.MatrixDelta;
 import common.MessageContent;
 
 /**
  * Implementation of message content for use in the shortest path
  * leader election algorithm, allowing messages to pass along 
- * currently assembled shortest path information.
+ * currently assembled shortest path information: either a whole
+ * distance matrix, or only the entries the receiver doesn't know yet.
  */
 public class ShortestPathMessageContent extends MessageContent {
 	
 	/**
-	 * The distance matrix used by {@link ShortestPathProcess}.
-	 * 
-	 * Pair is the pair of node ids, and path info is the cost of the
-	 * current shortest path between these nodes, along with the
-	 * actual path between these nodes (a list of IDs).
+	 * The distance matrix used by {@link ShortestPathProcess}: the cost of the
+	 * current shortest path between each pair of nodes, along with the next 
+	 * hop on that path. An immutable snapshot, so the sender may go on 
+	 * updating its own matrix. Null if only a delta is sent.
+	 */
+	private DistanceMatrix paths;
+	
+	/**
+	 * The entries of the sender's distance matrix that improve on what the
+	 * receiver knew to begin with. Null if the whole matrix is sent.
+	 */
+	private MatrixDelta delta;
+	
+	/**
+	 * The query rate estimates known to the sender, by position in the list
+	 * of all processes; 0 where unknown. May be null.
 	 */
-	private HashMap<Pair, PathInfo> paths;
+	private double[] rates;
 
 	/**
 	 * Constructor for ShortestPathMesageContent.
-	 * @param paths: The paths stored in this.paths.
+	 * @param paths: The paths stored in this.paths, as a snapshot.
+	 * @param rates: The query rates stored in this.rates.
 	 */
-	public ShortestPathMessageContent(
-			HashMap<Pair, PathInfo> paths) {
+	public ShortestPathMessageContent(DistanceMatrix paths, double[] rates) {
 		super();
-		this.paths = paths;
+		this.paths = paths.freeze();
+		this.delta = null;
+		this.rates = rates;
+	}
+	
+	/**
+	 * Constructor for ShortestPathMesageContent carrying a delta.
+	 * @param delta: The entries stored in this.delta.
+	 * @param rates: The query rates stored in this.rates.
+	 */
+	public ShortestPathMessageContent(MatrixDelta delta, double[] rates) {
+		super();
+		this.paths = null;
+		this.delta = delta;
+		this.rates = rates;
 	}
 	
 	/**
 	 * Getter for paths
 	 * 
-	 * @return partial distance matrix.
+	 * @return partial distance matrix, as an immutable snapshot, or null.
 	 */
-	public HashMap<Pair, PathInfo> getPaths() {
+	public DistanceMatrix getPaths() {
 		return paths;
 	}
+	
+	/**
+	 * Getter for delta
+	 * 
+	 * @return improved entries, or null.
+	 */
+	public MatrixDelta getDelta() {
+		return delta;
+	}
+	
+	/**
+	 * Getter for rates
+	 * 
+	 * @return query rate estimates, or null.
+	 */
+	public double[] getRates() {
+		return rates;
+	}
 }
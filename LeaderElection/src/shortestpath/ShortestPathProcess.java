@@ -1,18 +1,23 @@
 package shortestpath;
 
-import java.util.ArrayList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
 
-import util.Pair;
-import util.PathInfo;
+import util.DecayingCounter;
+import util.DistanceMatrix;
+import util.MatrixDelta;
+import common.Checkpoint;
 import common.CostTracker;
+import common.Mailbox;
 import common.Message;
 import common.Message.MessageType;
 import common.MessageContent;
 import mst.MSTBase;
-import mst.MSTProcess;
 
 /**
  * This is a subclass of MSTBase. This class simulates a process that
@@ -28,9 +33,10 @@ import mst.MSTProcess;
  * The class includes MSTBase because it first requires the construction of
  * an MST.
  * 
- * Broadcast operates via the connections of the MST, and query from a 
- * machine to the leader operates via the shortest path, according to the
- * all-pairs shortest path algorithm. 
+ * Broadcast operates via the connections of the MST, or optionally via the
+ * shortest path tree rooted at the leader, and query from a machine to the
+ * leader operates via the shortest path, according to the all-pairs 
+ * shortest path algorithm. 
  */
 public class ShortestPathProcess extends MSTBase {
 	// STATIC CONSTANTS
@@ -46,13 +52,107 @@ public class ShortestPathProcess extends MSTBase {
 	}
 	
 	/**
-	 * Captures the leader election method
+	 * Captures the leader election method: how a candidate is scored from
+	 * its row of the pd matrix, its shortest path costs to every node. The 
+	 * candidate with the lowest score becomes leader.
 	 */
 	public enum LeaderMethod {
-		METHOD_MAX, // Choose leader based on the max of the shortest
+		METHOD_MAX { // Choose leader based on the max of the shortest
 					// paths from other nodes to the leader
-		METHOD_SUM // Choose leader based on the sum of the shortest
+			@Override
+			public double score(double[] dist, int from, int n, double[] weights, int percentile) {
+				double val = 0;
+				for (int j = from; j < from + n; j++) {
+					if (dist[j] > val) {
+						val = dist[j];
+					}
+				}
+				return val;
+			}
+		},
+		METHOD_SUM { // Choose leader based on the sum of the shortest
 					// paths from other nodes to the leader
+			@Override
+			public double score(double[] dist, int from, int n, double[] weights, int percentile) {
+				double val = 0;
+				for (int j = from; j < from + n; j++) {
+					val += dist[j];
+				}
+				return val;
+			}
+		},
+		METHOD_WEIGHTED_SUM { // Choose leader based on the sum of the shortest
+					// paths from other nodes to the leader, each weighted by
+					// how much that node queries the leader
+			@Override
+			public double score(double[] dist, int from, int n, double[] weights, int percentile) {
+				double val = 0;
+				for (int j = 0; j < n; j++) {
+					val += weights[j] * dist[from + j];
+				}
+				return val;
+			}
+		},
+		METHOD_PERCENTILE { // Choose leader based on a percentile of the 
+					// shortest paths from other nodes to the leader
+			@Override
+			public double score(double[] dist, int from, int n, double[] weights, int percentile) {
+				int rank = (int) Math.ceil(percentile / 100.0 * n) - 1;
+				return select(Arrays.copyOfRange(dist, from, from + n), Math.max(0, Math.min(n - 1, rank)));
+			}
+		};
+
+		/**
+		 * Score a candidate leader.
+		 * 
+		 * @param dist: the pd matrix, row-major
+		 * @param from: start of the candidate's row
+		 * @param n: number of nodes
+		 * @param weights: how much each node queries the leader, by position
+		 * @param percentile: which percentile to score by, for METHOD_PERCENTILE
+		 * @return the score; lower is better
+		 */
+		public abstract double score(double[] dist, int from, int n, double[] weights, int percentile);
+
+		/**
+		 * Find the k-th smallest value, rearranging the array (quickselect).
+		 * 
+		 * @param a: the values
+		 * @param k: the rank to find, from 0
+		 * @return the k-th smallest value
+		 */
+		private static double select(double[] a, int k) {
+			int lo = 0;
+			int hi = a.length - 1;
+			while (lo < hi) {
+				double pivot = a[(lo + hi) >>> 1];
+				int i = lo;
+				int j = hi;
+				while (i <= j) {
+					while (a[i] < pivot) {
+						i++;
+					}
+					while (a[j] > pivot) {
+						j--;
+					}
+					if (i <= j) {
+						double tmp = a[i];
+						a[i] = a[j];
+						a[j] = tmp;
+						i++;
+						j--;
+					}
+				}
+				if (k <= j) {
+					hi = j;
+				} else if (k >= i) {
+					lo = i;
+				} else {
+					return a[k];
+				}
+			}
+			return a[k];
+		}
 	}
 
 	// INSTANCE FIELDS
@@ -65,12 +165,13 @@ public class ShortestPathProcess extends MSTBase {
 	private ShortestPathState state;
 	
 	/**
-	 * Contains the partial distance matrix assembled so far.
-	 * 
-	 * Pair is a pair of nodes, and PathInfo is our current estimate for the
-	 * shortest path between these two nodes in the network
+	 * Contains the partial distance matrix assembled so far: our current
+	 * estimate for the shortest path cost between every two nodes in the 
+	 * network, and the next hop on that path. Indexed by position in
+	 * {@code allProcesses}. Once final, an interned snapshot, shared by every
+	 * node that holds the same final matrix.
 	 */
-	HashMap<Pair, PathInfo> pd;
+	DistanceMatrix pd;
 	
 	/**
 	 * This counts the number of pd matrices that have been sent from 
@@ -88,10 +189,26 @@ public class ShortestPathProcess extends MSTBase {
 	HashSet<Integer> seen;
 	
 	/**
-	 * The method used to choose the leader based on the pd matrix, using
-	 * the enum LeaderMethod described above.
+	 * The update to the pd matrix each neighbor sent this node during the
+	 * convergecast, which the neighbor is known to hold, so that the final
+	 * matrix sent back to it can leave it out.
 	 */
-	private LeaderMethod method;
+	HashMap<Integer, MatrixDelta> sentBy = new HashMap<Integer, MatrixDelta>();
+	
+	/**
+	 * How much each node queries the leader, by position in 
+	 * {@code allProcesses}, for {@code METHOD_WEIGHTED_SUM}: each node's own
+	 * estimate of its query rate, gathered along with the pd matrices, and
+	 * refreshed on the leader from the rates reported with queries. 0 until
+	 * known.
+	 */
+	double[] queryWeights;
+	
+	/**
+	 * The leader the latest placement review chose from the reported query
+	 * rates, see {@link #reconsiderPlacement()}. Used by the leader node only.
+	 */
+	int preferredLeader = ID_NONE;
 	
 	/**
 	 * Counts the number of nodes that have acknowledged that they have
@@ -99,12 +216,40 @@ public class ShortestPathProcess extends MSTBase {
 	 */
 	int acksReceived = 0;
 	
+	/**
+	 * The id of the next node on the shortest path from this node to the
+	 * leader, once the leader is known.
+	 */
+	int leaderHop = ID_NONE;
+	
+	/**
+	 * When only the outcome of the election is disseminated, rather than
+	 * the final pd matrix: the leader and every node's next hop towards it.
+	 * Null until known, and always null otherwise.
+	 */
+	RouteMessageContent route;
+	
+	/**
+	 * Counts acks that arrived before this node learned who the leader is.
+	 * An ack travels along shortest paths while the final pd matrix travels
+	 * along the MST, and acks are handled ahead of matrices, so an ack can
+	 * overtake the final matrix. Such acks are forwarded once the leader is known.
+	 */
+	int pendingAcks = 0;
+	
+	/**
+	 * The nodes whose next hop towards the leader is this node: its children
+	 * in the shortest path tree rooted at the leader. Every node sends acks 
+	 * to its own next hop only, so these are the nodes acks came from.
+	 */
+	HashSet<Integer> treeChildren = new HashSet<Integer>();
+	
 	
 	// CONSTRUCTOR ////////////////////////////////////////////////////////////
 	/**
 	 * Constructs the shortest path node. All params are as used by 
 	 * {@link MSTBase}. The initial node state is STATE_UNASSIGNED,
-	 * and leader method is METHOD_SUM. 
+	 * and the leader method is taken from the simulation's configuration. 
 	 * 
 	 * @param id 
 	 * @param allProcesses
@@ -115,15 +260,65 @@ public class ShortestPathProcess extends MSTBase {
 	 */
 	public ShortestPathProcess(int id, int[] allProcesses,
 			HashMap<Integer, HashMap<Integer, Double>> costs,
-			HashMap<Integer, LinkedBlockingQueue<Message>> queues,
-			LinkedBlockingQueue<Message> incomingMessages,
+			Map<Integer, Mailbox> queues,
+			Mailbox incomingMessages,
 			CostTracker costTracker) {
 		super(id, allProcesses, costs, queues, incomingMessages, costTracker);
 		state = ShortestPathState.STATE_UNASSIGNED;
-		pd = new HashMap<Pair, PathInfo>();
+		pd = new DistanceMatrix(allProcesses);
 		count = 0;
 		seen = new HashSet<Integer>();
-		method = LeaderMethod.METHOD_SUM;
+		queryWeights = new double[allProcesses.length];
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code pd}: once the election is done, the final distance
+	 * 		matrix, or null if this node was only sent its route to the leader
+	 */
+	public DistanceMatrix getPaths() {
+		return pd;
+	}
+
+	/**
+	 * Writes the outcome of the election on top of the MST: this node's next 
+	 * hop towards the leader, its children in the shortest path tree, and the
+	 * final pd matrix if it has one. Nodes that share the final matrix write 
+	 * it only once between them.
+	 * 
+	 * @param cp: the checkpoint being saved
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	@Override
+	public void saveElection(Checkpoint cp) throws IOException {
+		super.saveElection(cp);
+		DataOutputStream out = cp.getOutput();
+		out.writeInt(leaderHop);
+		out.writeInt(treeChildren.size());
+		for (int child : treeChildren) {
+			out.writeInt(child);
+		}
+		cp.writeMatrix(pd);
+	}
+
+	/**
+	 * Reads back the outcome of the election, in place of running it.
+	 * 
+	 * @param cp: the checkpoint being restored
+	 * @throws IOException if the checkpoint cannot be read
+	 */
+	@Override
+	public void restoreElection(Checkpoint cp) throws IOException {
+		super.restoreElection(cp);
+		DataInputStream in = cp.getInput();
+		leaderHop = in.readInt();
+		int children = in.readInt();
+		for (int i = 0; i < children; i++) {
+			treeChildren.add(in.readInt());
+		}
+		pd = cp.readMatrix();
+		state = ShortestPathState.STATE_SATURATED;
 	}
 
 	/**
@@ -138,6 +333,7 @@ public class ShortestPathProcess extends MSTBase {
 	@Override
 	public void processFinish(Message m) {
 		initializePDMatrix();
+		queryWeights[pd.indexOf(id)] = queryRate.get();
 		boolean isLeaf = passMessageMST(m.getType(), m.getContent());
 		if (isLeaf) {
 			state = ShortestPathState.STATE_TRANSMIT;
@@ -148,44 +344,12 @@ public class ShortestPathProcess extends MSTBase {
 	}
 	
 	/**
-	 * Partial distance matrix initialization.
-	 * 
-	 * Case 1: Initializes the partial distance matrix to include the distance
-	 * 0 between identical nodes and an empty path. 
-	 * 
-	 * Case 2: Includes the distance of the edge cost between this node
-	 * id and any other node in the network. 
-	 * 
-	 * Case 3: Includes the distance of a first node to this node id, plus
-	 * this node id to a second node, for the distance between a first
-	 * and second node.
+	 * Partial distance matrix initialization: this node's own edges, and
+	 * the paths through this node between any two other nodes. See
+	 * {@link DistanceMatrix#star}.
 	 */
 	public void initializePDMatrix() {
-		for (int i = 0; i < allProcesses.length; i++) {
-			for (int j = 0; j < allProcesses.length; j++) {
-				int idI = allProcesses[i];
-				int idJ = allProcesses[j];
-				Pair pair = new Pair(idI, idJ);
-				ArrayList<Integer> path = new ArrayList<Integer>();
-				// Case 1
-				path.add(idI); 
-				double cost = 0;
-				if (i != j) {
-					// Case 2
-					if ((idI == id) || (idJ == id)) {
-						cost = costs.get(idI).get(idJ);
-						path.add(idJ);
-					} else { // Case 3
-						cost = costs.get(idI).get(id);
-						cost += costs.get(idJ).get(id);
-						path.add(id);
-						path.add(idJ);
-					}
-				}
-				PathInfo pathInfo = new PathInfo(path, cost); 
-				pd.put(pair, pathInfo);
-			}
-		}
+		pd = DistanceMatrix.star(allProcesses, costs, id);
 	}
 	
 	/** 
@@ -208,10 +372,9 @@ public class ShortestPathProcess extends MSTBase {
 	public void transmittingNodeProcess() {
 		int sendId = -1;
 		// choose sender to be one that hasn't sent us a pd matrix yet.
-		for (Integer i : se.keySet()) {
-			// only choose branch edges - edges of the MST
-			if ((se.get(i) == MSTProcess.SE_BRANCH) && 
-					(!seen.contains(i))) {
+		// only choose branch edges - edges of the MST
+		for (int i : branches()) {
+			if (!seen.contains(i)) {
 				sendId = i;
 				break;
 			}
@@ -220,7 +383,39 @@ public class ShortestPathProcess extends MSTBase {
 		System.out.println("Transmitting partial distance matrix.");
 		this.sendMessage(new Message(id, sendId, 
 				MessageType.MSG_PATH_PARTIAL,
-				new ShortestPathMessageContent(pd)));
+				pathContent(sendId)));
+	}
+	
+	/**
+	 * The content of a message carrying our pd matrix to a neighbor. Unless
+	 * configured to send the whole matrix, only the entries that improve on 
+	 * what the neighbor is known to hold are sent: its initial pd matrix and
+	 * ours, and whatever it sent us; see {@link DistanceMatrix#diffFromKnown}.
+	 * Everything else the neighbor already knows at least as well.
+	 * 
+	 * @param receiverId: the neighbor
+	 * @return the message content
+	 */
+	private ShortestPathMessageContent pathContent(int receiverId) {
+		if (config.pathDeltas) {
+			return new ShortestPathMessageContent(pd.diffFromKnown(costs, id, receiverId, sentBy.get(receiverId)),
+					queryWeights.clone());
+		}
+		return new ShortestPathMessageContent(pd, queryWeights.clone());
+	}
+	
+	/**
+	 * Learn the query rates a neighbor knows of.
+	 * 
+	 * @param rates: query rate estimates by position, 0 where unknown
+	 */
+	private void mergeRates(double[] rates) {
+		if (rates == null) {
+			return;
+		}
+		for (int j = 0; j < rates.length; j++) {
+			queryWeights[j] = Math.max(queryWeights[j], rates[j]);
+		}
 	}
 	
 	/**
@@ -229,34 +424,31 @@ public class ShortestPathProcess extends MSTBase {
 	 * This update follows the pattern of a dynamic programming
 	 * shortest paths algorithm approach.
 	 * 
+	 * Both matrices are already closed under shortest paths, so only 
+	 * paths through nodes at either end of an improved entry can get 
+	 * shorter, and only those nodes are relaxed through.
+	 * 
 	 * @param newPd: new partial distance matrix from a neighbor
 	 */
-	public void augmentPd(HashMap<Pair, PathInfo> newPd) {
+	public void augmentPd(DistanceMatrix newPd) {
 		// update any new costs that beat this pd matrix's path costs
-		for (Pair pair : newPd.keySet()) {
-			if (newPd.get(pair).getCost() < pd.get(pair).getCost()) {
-				pd.put(pair, newPd.get(pair));
-			}
-		}
-		// go through each pair of nodes, and see if the above
-		// updates have led to a new better shortest path including
-		// the updated node.
-		for (Pair pair : pd.keySet()) {
-			for (Integer i : allProcesses) {
-				int fst = pair.getFst();
-				int snd = pair.getSnd();
-				Pair pair1 = new Pair(fst, i);
-				Pair pair2 = new Pair(i, snd);
-				double cost1 = pd.get(pair1).getCost();
-				double cost2 = pd.get(pair2).getCost();
-				double newCost = cost1 + cost2;
-				if (newCost < pd.get(pair).getCost()) {
-					ArrayList<Integer> newPath = pd.get(pair1).getPath();
-					newPath.addAll(pd.get(pair2).getPath());
-					pd.put(pair, new PathInfo(newPath, newCost));
-				}
-			}
-		}
+		int[] improved = pd.mergeMin(newPd);
+		// see if the above updates have led to a new better shortest 
+		// path including the updated nodes
+		pd.relaxThrough(improved);
+	}
+	
+	/**
+	 * Augment the partial distance matrix with the entries of a neighbor's 
+	 * matrix that improve on what we are known to hold, along with the
+	 * neighbor's initial matrix. This has the same effect as 
+	 * {@link #augmentPd(DistanceMatrix)} with the neighbor's whole matrix.
+	 * 
+	 * @param delta: improved entries of the neighbor's matrix
+	 * @param senderId: the neighbor
+	 */
+	public void augmentPd(MatrixDelta delta, int senderId) {
+		pd.relaxThrough(pd.mergeMin(delta, costs, senderId));
 	}
 	
 	/**
@@ -264,34 +456,107 @@ public class ShortestPathProcess extends MSTBase {
 	 * such that the leader has low cost of query to other nodes in the
 	 * network based on the shortest paths.
 	 * 
-	 * Either uses the sum of shortest path distances or the max
-	 * of shortest path distances, depending on the leader method specified.
+	 * Scores every candidate by its row of the matrix, in a single pass,
+	 * using the configured leader method: the sum, weighted sum, max, or
+	 * a percentile of shortest path distances.
 	 */
 	public void chooseLeader() {
+		// update leader value
+		leaderId = bestCandidate();
+		isLeader = (leaderId == id);
+		leaderHop = isLeader ? id : pd.nextHop(id, leaderId);
+	}
+	
+	/**
+	 * The candidate the configured leader method scores best, from the pd
+	 * matrix and the query rates known so far. Until any rate is known, every
+	 * node weighs the same.
+	 * 
+	 * @return the id of the candidate
+	 */
+	private int bestCandidate() {
+		LeaderMethod method = config.leaderMethod;
+		double[] dist = pd.distances();
+		int n = pd.size();
+		double[] weights = new double[n];
+		Arrays.fill(weights, 1);
+		for (double w : queryWeights) {
+			if (w != 0) {
+				weights = queryWeights;
+				break;
+			}
+		}
 		double bestVal = Double.MAX_VALUE; 
 		int bestId = -1;
-		for (Integer i : allProcesses) {
-			double val = (method == LeaderMethod.METHOD_MAX) ? -1 : 0; 
-			for (Pair pair : pd.keySet()) {
-				if (pair.getFst() == i) {
-					double newCost = pd.get(pair).getCost();
-					if (method == LeaderMethod.METHOD_MAX) {
-						if (newCost > val) {
-							val = newCost;
-						}
-					} else {
-						val += newCost;
-					}
-				}
-			}
+		for (int i = 0; i < n; i++) {
+			double val = method.score(dist, i * n, n, weights, config.leaderPercentile);
 			if (val < bestVal) {
 				bestVal = val;
-				bestId = i;
+				bestId = pd.getIds()[i];
 			}
- 		}
-		// update leader value
-		leaderId = bestId;
-		isLeader = (leaderId == id);
+		}
+		return bestId;
+	}
+	
+	/**
+	 * As the leader, during the workload: refresh the query rates from those
+	 * reported with the queries received so far, decayed to now, and choose
+	 * the leader again from them. The leader does not move; the choice is
+	 * recorded once all queries are in. Needs the final pd matrix, so does
+	 * nothing if only the outcome of the election was disseminated.
+	 */
+	@Override
+	protected void reconsiderPlacement() {
+		if (pd == null) {
+			return;
+		}
+		int[] ids = pd.getIds();
+		for (int j = 0; j < ids.length; j++) {
+			DecayingCounter rate = ratesByOrigin.get(ids[j]);
+			if (rate != null) {
+				queryWeights[j] = rate.get();
+			}
+		}
+		queryWeights[pd.indexOf(id)] = queryRate.get();
+		preferredLeader = bestCandidate();
+		if (preferredLeader != id) {
+			System.out.println("Placement review prefers " + preferredLeader + " to leader " + id);
+		}
+	}
+	
+	/**
+	 * As the leader, once all queries are in: compare the traffic-weighted
+	 * query cost of the current leader against the best placement for the 
+	 * queries actually received, and record both. The leader does not move.
+	 * Needs the final pd matrix, so does nothing if only the outcome of the
+	 * election was disseminated.
+	 */
+	@Override
+	protected void reviewPlacement() {
+		if (pd == null) {
+			return;
+		}
+		int n = pd.size();
+		int[] ids = pd.getIds();
+		double[] observed = new double[n];
+		for (int j = 0; j < n; j++) {
+			observed[j] = queriesByOrigin.getOrDefault(ids[j], 0);
+		}
+		double[] dist = pd.distances();
+		double current = LeaderMethod.METHOD_WEIGHTED_SUM.score(dist, pd.indexOf(id) * n, n, observed, 0);
+		double best = Double.MAX_VALUE;
+		int bestId = id;
+		for (int i = 0; i < n; i++) {
+			double val = LeaderMethod.METHOD_WEIGHTED_SUM.score(dist, i * n, n, observed, 0);
+			if (val < best) {
+				best = val;
+				bestId = ids[i];
+			}
+		}
+		System.out.println("Best placement for observed queries: " + bestId);
+		costTracker.registerMetric("traffic-weighted query cost of leader", current);
+		costTracker.registerMetric("traffic-weighted query cost of best placement", best);
+		costTracker.registerMetric("agreement of placement review with leader", (preferredLeader == id) ? 1 : 0);
 	}
 	
 	/**
@@ -307,10 +572,11 @@ public class ShortestPathProcess extends MSTBase {
 			}
 		}
 		System.out.println("Path Costs: ");
-		for (Integer i : costs.keySet()) {
-			for (Integer j : costs.get(i).keySet()) {
-				Pair pair = new Pair(i,j);
-				System.out.println(i + " " + j + " " + pd.get(pair).getCost());
+		for (int i : pd.getIds()) {
+			for (int j : pd.getIds()) {
+				if (i != j) {
+					System.out.println(i + " " + j + " " + pd.getDist(pd.indexOf(i), pd.indexOf(j)));
+				}
 			}
 		}
 	}
@@ -320,22 +586,59 @@ public class ShortestPathProcess extends MSTBase {
 	 * its leader according to this matrix. It also acks the leader, indicating
 	 * that it has completed a new leader choice.
 	 * 
+	 * If configured to disseminate only the outcome, the saturated node chooses
+	 * the leader itself, and sends on the leader along with every node's next
+	 * hop towards it instead of the matrix. The matrix is then no longer needed.
+	 * Otherwise, the final matrix is interned; see {@link DistanceMatrix#intern()}.
+	 * 
 	 * @param noSendId: this id is a node id which this message is 
 	 * not passed onto. This is useful for avoiding passing the message
 	 * back to the sender message of the final pd matrix, thus avoiding loops of 
 	 * message passing.
 	 */
 	public void sendFinalPaths(int noSendId) {
+		if (!config.pathFinalMatrix && route == null) {
+			chooseLeader();
+			route = new RouteMessageContent(leaderId, routeToLeader());
+			pd = null;
+		}
+		// the final matrix no longer changes, so nodes can share one copy
+		if (pd != null) {
+			pd = pd.intern();
+		}
 		// send to all MST edge neighbors, except for noSendId
-		for (Integer i : se.keySet()) {
-			if ((se.get(i) == MSTProcess.SE_BRANCH) && (i != noSendId)) {
+		for (int i : branches()) {
+			if (i != noSendId) {
 				this.sendMessage(new Message(id, i, MessageType.MSG_PATH_FINAL,
-						new ShortestPathMessageContent(pd)));				
+						(route != null) ? route : pathContent(i)));				
 			}
 		}
 		// choose a leader, and let the leader know that we have chosen
-		chooseLeader();
+		if (route == null) {
+			chooseLeader();
+		}
 		ackLeader();
+		// forward acks that overtook the final matrix
+		while (pendingAcks > 0) {
+			pendingAcks--;
+			ackLeader();
+		}
+	}
+	
+	/**
+	 * For every node, by position in {@code allProcesses}, the position of the
+	 * next node on its shortest path to the leader, according to the final pd
+	 * matrix.
+	 * 
+	 * @return the next hops
+	 */
+	private int[] routeToLeader() {
+		int leader = pd.indexOf(leaderId);
+		int[] hops = new int[pd.size()];
+		for (int i = 0; i < hops.length; i++) {
+			hops[i] = pd.getNext(i, leader);
+		}
+		return hops;
 	}
 	
 	/**
@@ -350,7 +653,13 @@ public class ShortestPathProcess extends MSTBase {
 	 */
 	public void processPathPartial(Message m) {
 		ShortestPathMessageContent mContent = (ShortestPathMessageContent) m.getContent();
-		augmentPd(mContent.getPaths());
+		mergeRates(mContent.getRates());
+		if (mContent.getDelta() != null) {
+			sentBy.put(m.getSender(), mContent.getDelta());
+			augmentPd(mContent.getDelta(), m.getSender());
+		} else {
+			augmentPd(mContent.getPaths());
+		}
 		count++;
 		seen.add(m.getSender());
 		if (count == numBranch - 1) {
@@ -366,17 +675,145 @@ public class ShortestPathProcess extends MSTBase {
 	}
 	
 	/**
-	 * Processes the signal that we have received a final pd matrix, and 
-	 * sends matrix on to future nodes.
+	 * Processes the signal that we have received a final pd matrix, or just
+	 * the outcome of the election, and sends it on to future nodes.
+	 * 
+	 * The two ends of the last MST edge may both saturate, and send each
+	 * other their final matrices; a node that already has the final matrix
+	 * ignores another one.
+	 * 
 	 * @param m - includes the final pd matrix.
 	 */
 	public void processPathFinal(Message m) {
+		if (state == ShortestPathState.STATE_SATURATED) {
+			return;
+		}
+		state = ShortestPathState.STATE_SATURATED;
+		if (m.getContent() instanceof RouteMessageContent) {
+			route = (RouteMessageContent) m.getContent();
+			leaderId = route.getLeaderId();
+			isLeader = (leaderId == id);
+			leaderHop = allProcesses[route.getNextHops()[pd.indexOf(id)]];
+			pd = null;
+			sendFinalPaths(m.getSender());
+			return;
+		}
 		ShortestPathMessageContent mContent = (ShortestPathMessageContent) m.getContent();
-		HashMap<Pair, PathInfo> paths = mContent.getPaths();
-		pd = paths;
+		mergeRates(mContent.getRates());
+		if (mContent.getDelta() != null) {
+			// our matrix is never better than the final one, so the final 
+			// entries that beat what we are known to hold are all that can
+			// differ
+			pd.mergeMin(mContent.getDelta(), costs, m.getSender());
+		} else {
+			pd = mContent.getPaths();
+		}
 		sendFinalPaths(m.getSender());
 	}
 	
+	// MEMBERSHIP ////////////////////////////////////////////////////////////
+
+	/**
+	 * Goes on to any joins and leaves on a leader restored from a checkpoint,
+	 * as if every node had just acked.
+	 */
+	@Override
+	protected void warmStart() {
+		nextMembershipChange();
+	}
+
+	/**
+	 * Passes a HELLO from a joining node on along the shortest path to the
+	 * leader, rather than the MST.
+	 *
+	 * @return the next hop towards the leader
+	 */
+	@Override
+	protected int hopToLeader() {
+		return leaderHop;
+	}
+
+	/**
+	 * A node can only patch the final pd matrix once it has it.
+	 *
+	 * @return whether the final pd matrix has arrived
+	 */
+	@Override
+	protected boolean readyToOrient() {
+		return state == ShortestPathState.STATE_SATURATED;
+	}
+
+	/**
+	 * Patches the final pd matrix with the joining node, rather than running
+	 * the shortest path election again, see
+	 * {@link DistanceMatrix#withMember}. The leader also sends the joining
+	 * node the patched matrix, since it has none of its own.
+	 *
+	 * @param joiner: the joining node
+	 */
+	@Override
+	protected void memberAdded(int joiner) {
+		pd = pd.withMember(joiner, costs).intern();
+		queryWeights = Arrays.copyOf(queryWeights, pd.size());
+		reroute();
+		if (isLeader) {
+			sendMessage(new Message(id, joiner, MessageType.MSG_MEMBER_PATHS,
+					new ShortestPathMessageContent(pd, queryWeights.clone())));
+		}
+	}
+
+	/**
+	 * Patches the final pd matrix without the node that left, see
+	 * {@link DistanceMatrix#withoutMember}.
+	 *
+	 * @param leaver: the node that left
+	 */
+	@Override
+	protected void memberRemoved(int leaver) {
+		int[] oldIds = pd.getIds();
+		double[] oldWeights = queryWeights;
+		queryWeights = new double[oldIds.length - 1];
+		int k = 0;
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldIds[i] != leaver) {
+				queryWeights[k++] = (i < oldWeights.length) ? oldWeights[i] : 0;
+			}
+		}
+		pd = pd.withoutMember(leaver, costs).intern();
+		reroute();
+	}
+
+	/**
+	 * Processes the MSG_MEMBER_PATHS message, on a joining node: the patched
+	 * final pd matrix from the leader, in place of the election.
+	 *
+	 * @param m: the message, with a {@link ShortestPathMessageContent}
+	 */
+	private void processMemberPaths(Message m) {
+		ShortestPathMessageContent mContent = (ShortestPathMessageContent) m.getContent();
+		pd = mContent.getPaths();
+		queryWeights = mContent.getRates();
+		queryWeights[pd.indexOf(id)] = queryRate.get();
+		leaderId = m.getSender();
+		isLeader = false;
+		state = ShortestPathState.STATE_SATURATED;
+		reroute();
+	}
+
+	/**
+	 * Finds this node's next hop towards the leader, and its children in the
+	 * shortest path tree, from the final pd matrix, after it changed.
+	 */
+	private void reroute() {
+		leaderHop = isLeader ? id : pd.nextHop(id, leaderId);
+		treeChildren.clear();
+		for (int nextId : pd.getIds()) {
+			if (nextId != id && nextId != leaderId && pd.nextHop(nextId, leaderId) == id) {
+				treeChildren.add(nextId);
+			}
+		}
+	}
+
 	/**
 	 * Switch statement for messages involved in shortest path
 	 * leader election.
@@ -394,6 +831,9 @@ public class ShortestPathProcess extends MSTBase {
 				processPathFinal(m);
 				System.out.println("Processing path final from " + m.getSender() + " to " + m.getReceiver());
 				return true;
+			case MSG_MEMBER_PATHS:
+				processMemberPaths(m);
+				return true;
 			default:
 				return false;
 		}
@@ -413,13 +853,50 @@ public class ShortestPathProcess extends MSTBase {
 	 * @param messageType - message type to pass
 	 * @param m - message content to pass
 	 * @param sender - node to avoid
+	 * @return the number of nodes the message was passed to
 	 */
-	protected void passMessagePath(MessageType messageType, MessageContent m, int sender) {
-		for (Integer nextId : se.keySet()) {
-			if ((nextId != sender) && se.get(nextId) == SE_BRANCH) {
+	protected int passMessagePath(MessageType messageType, MessageContent m, int sender) {
+		int count = 0;
+		for (int nextId : branches()) {
+			if (nextId != sender) {
 				this.sendMessage(new Message(id, nextId, messageType, m));
+				count++;
 			}
 		}
+		disseminationChildren = count;
+		return count;
+	}
+
+	/**
+	 * Pass message to this node's children in the shortest path tree rooted
+	 * at the leader.
+	 * 
+	 * @param messageType - message type to pass
+	 * @param m - message content to pass
+	 * @return the number of nodes the message was passed to
+	 */
+	protected int passMessageTree(MessageType messageType, MessageContent m) {
+		for (Integer nextId : treeChildren) {
+			this.sendMessage(new Message(id, nextId, messageType, m));
+		}
+		disseminationChildren = treeChildren.size();
+		return treeChildren.size();
+	}
+	
+	/**
+	 * Pass a message from the leader further down whichever structure is
+	 * configured for dissemination: the MST, or the shortest path tree.
+	 * 
+	 * @param messageType - message type to pass
+	 * @param m - message content to pass
+	 * @param sender - node the message came from, or -1 for the leader
+	 */
+	private void disseminate(MessageType messageType, MessageContent m, int sender) {
+		if (config.pathBroadcastTree) {
+			passMessageTree(messageType, m);
+		} else {
+			passMessagePath(messageType, m, sender);
+		}
 	}
 
 	/** 
@@ -428,7 +905,7 @@ public class ShortestPathProcess extends MSTBase {
 	@Override
 	public void broadcast(MessageType messageType, MessageContent mc) {
 		assert (id == this.leaderId);
-		passMessagePath(messageType, mc, -1);
+		disseminate(messageType, mc, -1);
 	}
 
 	/**
@@ -439,8 +916,7 @@ public class ShortestPathProcess extends MSTBase {
 	public void queryLeader(MessageContent mc) {
 		assert(!isLeader);
 		
-		ArrayList<Integer> path = pd.get(new Pair(id, leaderId)).getPath();
-		sendMessage(new Message(id, path.get(1), MessageType.MSG_QUERY_SIMPLE, mc));
+		sendMessage(new Message(id, leaderHop, MessageType.MSG_QUERY_SIMPLE, mc));
 	}
 	
 	/**
@@ -448,39 +924,60 @@ public class ShortestPathProcess extends MSTBase {
 	 * on the shortest path to the leader.
 	 * 
 	 * As the leader, count the number of acks that we have received, and 
-	 * end when all of our neighbors have acknowledged the completion of leader election.
+	 * end when every node (including the leader itself) has acknowledged the 
+	 * completion of leader election. Acks are forwarded hop by hop rather than
+	 * aggregated, so the leader receives one per node.
 	 */
 	@Override
 	protected void ackLeader() {
 		if (!isLeader) {
-			ArrayList<Integer> path = pd.get(new Pair(id, leaderId)).getPath();
-			sendMessage(new Message(id, path.get(1), MessageType.MSG_ACK_LEADER, null));
+			sendMessage(new Message(id, leaderHop, MessageType.MSG_ACK_LEADER, null));
 		} else {
 			acksReceived++;
-			if (acksReceived == numBranch) {
+			if (acksReceived == membership.size()) {
 				System.out.println("Leader acked!");
-				// next step of the workload, implemented in {@link Process}
-				startWorkloadSimple();			
+				// any joins and leaves, then the workload
+				nextMembershipChange();
 			}
 		}
 	}
 
 	/**
-	 * Ack the choice of a leader.
+	 * Ack the choice of a leader. If we don't know the leader yet, hold on to
+	 * the ack until the final pd matrix arrives. The leader found while 
+	 * building the MST doesn't count. Either way, the sender is one of our 
+	 * children in the shortest path tree.
+	 * 
+	 * @param m: the ACK_LEADER message
 	 */
 	@Override
-	protected void processMessageAckLeader() {
+	protected void processMessageAckLeader(Message m) {
+		treeChildren.add(m.getSender());
+		if (state != ShortestPathState.STATE_SATURATED) {
+			pendingAcks++;
+			return;
+		}
 		ackLeader();
 	}
 
 	/**
-	 * Process a broadcast message as an intermediate node, 
-	 * passing the broadcast to further nodes via the MST connections.
+	 * Pass the kill message further from the leader via the MST connections,
+	 * or the shortest path tree, before exiting.
+	 */
+	@Override
+	protected void processKill(Message m) {
+		disseminate(m.getType(), m.getContent(), m.getSender());
+	}
+
+	/**
+	 * Process a broadcast message as an intermediate node, passing the 
+	 * broadcast to further nodes via the MST connections, or the shortest 
+	 * path tree.
 	 */
 	@Override
 	protected void processLeaderBroadcastSimple(Message m) {
 		assert(!isLeader);
-		passMessagePath(m.getType(), m.getContent(), m.getSender());
+		disseminate(m.getType(), m.getContent(), m.getSender());
 		super.processLeaderBroadcastSimpleForReceiver(m);
 	}
 
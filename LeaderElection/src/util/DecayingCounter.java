@@ -0,0 +1,63 @@
+package util;
+
+/**
+ * A count that decays exponentially over time, used to estimate recent rates
+ * of events: each event counts for less and less as it gets older, losing
+ * half of its weight every half-life.
+ */
+public class DecayingCounter {
+	/**
+	 * How long it takes an event to lose half of its weight, in milliseconds
+	 */
+	private double halfLifeMillis;
+	/**
+	 * The decayed count, as of {@code updatedAt}
+	 */
+	private double value;
+	/**
+	 * When {@code value} was last brought up to date, in milliseconds
+	 */
+	private long updatedAt;
+
+	/**
+	 * Constructor for an empty counter
+	 *
+	 * @param halfLifeMillis	how long it takes an event to lose half of its weight
+	 */
+	public DecayingCounter(double halfLifeMillis) {
+		this.halfLifeMillis = halfLifeMillis;
+		this.value = 0;
+		this.updatedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Count events happening now
+	 *
+	 * @param amount	the number of events
+	 */
+	public void add(double amount) {
+		decay();
+		value += amount;
+	}
+
+	/**
+	 * The decayed count as of now
+	 *
+	 * @return the count
+	 */
+	public double get() {
+		decay();
+		return value;
+	}
+
+	/**
+	 * Bring the count up to date
+	 */
+	private void decay() {
+		long now = System.currentTimeMillis();
+		if (now > updatedAt) {
+			value *= Math.pow(0.5, (now - updatedAt) / halfLifeMillis);
+			updatedAt = now;
+		}
+	}
+}
@@ -0,0 +1,760 @@
+package util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * A matrix of shortest path estimates between every pair of a fixed set of
+ * processes, together with a routing table. Processes are addressed by their
+ * dense index in the ID array the matrix was built with. The distance from
+ * process i to process j is stored at {@code i * n + j}, and so is the index
+ * of the first process after i on the best known path to j. Full paths are
+ * not stored; they are reconstructed from the routing table when asked for.
+ *
+ * A matrix can be frozen into an immutable snapshot, which shares its arrays
+ * with the matrix it was taken from until that matrix is next written to
+ * (copy on write). Snapshots are what messages carry, so a process never 
+ * sees another process's matrix change under it. Snapshots with identical
+ * contents can be interned, so that processes holding the same final matrix
+ * share a single instance.
+ */
+public class DistanceMatrix {
+	/**
+	 * No next hop known
+	 */
+	public static final int NO_HOP = -1;
+
+	/**
+	 * IDs of the processes, indexed by dense index
+	 */
+	private int[] ids;
+	/**
+	 * Maps an ID to its dense index
+	 */
+	private HashMap<Integer, Integer> index;
+	/**
+	 * Distances, row-major by dense index
+	 */
+	private double[] dist;
+	/**
+	 * Dense index of the next hop on the best known path, row-major by dense index
+	 */
+	private int[] next;
+	/**
+	 * Whether this matrix is an immutable snapshot
+	 */
+	private boolean frozen = false;
+	/**
+	 * Whether the arrays are shared with a snapshot, and must be copied before
+	 * this matrix is next written to
+	 */
+	private boolean shared = false;
+	/**
+	 * Hash of the contents, computed when first needed. Only used for
+	 * snapshots.
+	 */
+	private int hash = 0;
+
+	/**
+	 * Snapshots handed out by {@link #intern()}, shared by every process in
+	 * the JVM. Each is its own key, so it is dropped once no process holds it.
+	 */
+	private static final WeakHashMap<DistanceMatrix, WeakReference<DistanceMatrix>> interned = new WeakHashMap<DistanceMatrix, WeakReference<DistanceMatrix>>();
+
+	/**
+	 * Constructor for an empty matrix: every distance is infinite, and no next hop
+	 * is known.
+	 *
+	 * @param ids	IDs of the processes, in the order of their dense indices
+	 */
+	public DistanceMatrix(int[] ids) {
+		this.ids = ids;
+		this.index = new HashMap<Integer, Integer>();
+		for (int i = 0; i < ids.length; i++) {
+			index.put(ids[i], i);
+		}
+		int n = ids.length;
+		this.dist = new double[n * n];
+		this.next = new int[n * n];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		Arrays.fill(next, NO_HOP);
+	}
+
+	/**
+	 * Copy constructor. The copy can be written to whether or not the
+	 * original is a snapshot.
+	 *
+	 * @param other	the matrix to copy
+	 */
+	public DistanceMatrix(DistanceMatrix other) {
+		this.ids = other.ids;
+		this.index = other.index;
+		this.dist = other.dist.clone();
+		this.next = other.next.clone();
+	}
+
+	/**
+	 * Constructor for a snapshot sharing the arrays of another matrix
+	 *
+	 * @param other	the matrix to share with
+	 */
+	private DistanceMatrix(DistanceMatrix other, boolean frozen) {
+		this.ids = other.ids;
+		this.index = other.index;
+		this.dist = other.dist;
+		this.next = other.next;
+		this.frozen = frozen;
+	}
+
+	/**
+	 * The matrix a process knows before hearing from anyone: its own edges, and
+	 * for any two other processes, the path between them through itself.
+	 * 
+	 * Case 1: The distance 0 between identical processes, with the process 
+	 * itself as next hop. 
+	 * 
+	 * Case 2: The edge cost between the center and any other process, going
+	 * there directly. 
+	 * 
+	 * Case 3: The distance of a first process to the center, plus the center
+	 * to a second process, for the distance between a first and second process.
+	 * The next hop is the center.
+	 *
+	 * @param ids		IDs of the processes, in the order of their dense indices
+	 * @param costs		edge costs, see {@link common.Process}
+	 * @param centerId	ID of the process that knows the matrix
+	 * @return			the matrix
+	 */
+	public static DistanceMatrix star(int[] ids, HashMap<Integer, HashMap<Integer, Double>> costs, int centerId) {
+		DistanceMatrix m = new DistanceMatrix(ids);
+		int n = ids.length;
+		int center = m.indexOf(centerId);
+		HashMap<Integer, Double> centerCosts = costs.get(centerId);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				m.set(i, j, starDist(ids, centerCosts, center, i, j), starHop(center, i, j));
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Distance between two processes in {@link #star(int[], HashMap, int)}
+	 *
+	 * @param ids			IDs of the processes, in the order of their dense indices
+	 * @param centerCosts	edge costs from the center
+	 * @param center		dense index of the center
+	 * @param i				dense index of the source
+	 * @param j				dense index of the destination
+	 * @return				the distance
+	 */
+	private static double starDist(int[] ids, HashMap<Integer, Double> centerCosts, int center, int i, int j) {
+		if (i == j) { // Case 1
+			return 0;
+		} else if (i == center) { // Case 2
+			return centerCosts.get(ids[j]);
+		} else if (j == center) { // Case 2
+			return centerCosts.get(ids[i]);
+		} else { // Case 3
+			return centerCosts.get(ids[i]) + centerCosts.get(ids[j]);
+		}
+	}
+
+	/**
+	 * Next hop between two processes in {@link #star(int[], HashMap, int)}
+	 *
+	 * @param center		dense index of the center
+	 * @param i				dense index of the source
+	 * @param j				dense index of the destination
+	 * @return				dense index of the next hop
+	 */
+	private static int starHop(int center, int i, int j) {
+		return (i == j || i == center || j == center) ? j : center;
+	}
+
+	/**
+	 * The cells of this matrix that improve on what another process is known
+	 * to hold: its own star and this process's star, see
+	 * {@link #star(int[], HashMap, int)}, which it can work out from the edge
+	 * costs, and whatever it has already sent this process. Merging them into
+	 * any matrix that process has since built, along with this process's star,
+	 * see {@link #mergeMin(MatrixDelta, HashMap, int)}, has the same effect as
+	 * merging in this whole matrix.
+	 *
+	 * During the convergecast, a neighbor has sent nothing yet, and only the
+	 * paths through either end of the edge are left out. Once it has sent its
+	 * own matrix, the final matrix sent back only carries the paths it could
+	 * not know from its side of the tree.
+	 *
+	 * @param costs		edge costs, see {@link common.Process}
+	 * @param ownId		ID of this process
+	 * @param otherId	ID of the other process
+	 * @param known		the update the other process sent this process, or
+	 * 					null if none
+	 * @return			the improved cells
+	 */
+	public MatrixDelta diffFromKnown(HashMap<Integer, HashMap<Integer, Double>> costs, int ownId, int otherId,
+			MatrixDelta known) {
+		int n = ids.length;
+		double[] toOwn = toCenter(costs, indexOf(ownId));
+		double[] toOther = toCenter(costs, indexOf(otherId));
+		int[] knownCells = (known == null) ? new int[0] : known.getCells();
+		double[] knownDist = (known == null) ? new double[0] : known.getDist();
+		int count = 0;
+		boolean[] better = new boolean[n * n];
+		for (int i = 0, k = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				int c = i * n + j;
+				double bound = (i == j) ? 0 : Math.min(toOwn[i] + toOwn[j], toOther[i] + toOther[j]);
+				// cells of the update are in increasing order
+				if (k < knownCells.length && knownCells[k] == c) {
+					bound = Math.min(bound, knownDist[k++]);
+				}
+				if (dist[c] < bound) {
+					better[c] = true;
+					count++;
+				}
+			}
+		}
+		int[] cells = new int[count];
+		double[] deltaDist = new double[count];
+		int[] deltaNext = new int[count];
+		for (int c = 0, k = 0; c < n * n; c++) {
+			if (better[c]) {
+				cells[k] = c;
+				deltaDist[k] = dist[c];
+				deltaNext[k] = next[c];
+				k++;
+			}
+		}
+		return new MatrixDelta(n, cells, deltaDist, deltaNext);
+	}
+
+	/**
+	 * Costs from every process to the center of a star, to avoid boxing when
+	 * going over the whole star: the distance between two other processes is
+	 * the sum of theirs.
+	 *
+	 * @param costs		edge costs, see {@link common.Process}
+	 * @param center	dense index of the center
+	 * @return			the costs, by dense index, 0 for the center
+	 */
+	private double[] toCenter(HashMap<Integer, HashMap<Integer, Double>> costs, int center) {
+		HashMap<Integer, Double> centerCosts = costs.get(ids[center]);
+		double[] toCenter = new double[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			toCenter[i] = (i == center) ? 0 : centerCosts.get(ids[i]);
+		}
+		return toCenter;
+	}
+
+	// SNAPSHOTS ////////////////////////////////////////////////////////////
+
+	/**
+	 * An immutable snapshot of this matrix as it is now. Costs O(1): the
+	 * snapshot shares this matrix's arrays, and this matrix copies them the
+	 * next time it is written to. A snapshot is its own snapshot.
+	 *
+	 * @return	the snapshot
+	 */
+	public DistanceMatrix freeze() {
+		if (frozen) {
+			return this;
+		}
+		shared = true;
+		return new DistanceMatrix(this, true);
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return	whether this matrix is an immutable snapshot
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * A snapshot of this matrix that is shared with every other matrix with
+	 * the same contents that has been interned, and is still held somewhere.
+	 * Costs O(n^2) to compare the contents.
+	 *
+	 * @return	the shared snapshot
+	 */
+	public DistanceMatrix intern() {
+		DistanceMatrix snapshot = freeze();
+		synchronized (interned) {
+			WeakReference<DistanceMatrix> ref = interned.get(snapshot);
+			DistanceMatrix canonical = (ref == null) ? null : ref.get();
+			if (canonical != null) {
+				return canonical;
+			}
+			interned.put(snapshot, new WeakReference<DistanceMatrix>(snapshot));
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Make sure this matrix may be written to: snapshots may not, and a matrix
+	 * whose arrays are shared with a snapshot first takes its own copy of them.
+	 */
+	private void beforeWrite() {
+		if (frozen) {
+			throw new IllegalStateException("Distance matrix snapshots are immutable");
+		}
+		if (shared) {
+			dist = dist.clone();
+			next = next.clone();
+			shared = false;
+		}
+	}
+
+	/**
+	 * Two matrices are equal if they are over the same processes, in the same
+	 * order, with the same distances and next hops.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof DistanceMatrix)) {
+			return false;
+		}
+		DistanceMatrix other = (DistanceMatrix) o;
+		return Arrays.equals(ids, other.ids) && Arrays.equals(dist, other.dist)
+				&& Arrays.equals(next, other.next);
+	}
+
+	/**
+	 * Hash of the contents, see {@link #equals(Object)}. Remembered for
+	 * snapshots, which can't change.
+	 */
+	@Override
+	public int hashCode() {
+		if (frozen && hash != 0) {
+			return hash;
+		}
+		int h = 31 * (31 * Arrays.hashCode(ids) + Arrays.hashCode(dist)) + Arrays.hashCode(next);
+		if (frozen) {
+			hash = h;
+		}
+		return h;
+	}
+
+	// CONTENTS ////////////////////////////////////////////////////////////
+
+	/**
+	 * Simple getter
+	 *
+	 * @return the number of processes
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return IDs of the processes, indexed by dense index
+	 */
+	public int[] getIds() {
+		return ids;
+	}
+
+	/**
+	 * Dense index of a process
+	 *
+	 * @param id	ID of the process
+	 * @return		its dense index
+	 */
+	public int indexOf(int id) {
+		return index.get(id);
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @param i		dense index of the source
+	 * @param j		dense index of the destination
+	 * @return		best known distance from i to j
+	 */
+	public double getDist(int i, int j) {
+		return dist[i * ids.length + j];
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @param i		dense index of the source
+	 * @param j		dense index of the destination
+	 * @return		dense index of the next hop from i towards j, or {@code NO_HOP}
+	 */
+	public int getNext(int i, int j) {
+		return next[i * ids.length + j];
+	}
+
+	/**
+	 * Set the distance from i to j, and the next hop on the way
+	 *
+	 * @param i		dense index of the source
+	 * @param j		dense index of the destination
+	 * @param d		the distance
+	 * @param hop	dense index of the next hop
+	 */
+	public void set(int i, int j, double d, int hop) {
+		beforeWrite();
+		dist[i * ids.length + j] = d;
+		next[i * ids.length + j] = hop;
+	}
+
+	/**
+	 * Simple getter for the underlying distances, row-major by dense index.
+	 * Writes go straight to the matrix, so may only be made to a matrix that
+	 * has never been frozen.
+	 *
+	 * @return the distances
+	 */
+	public double[] distances() {
+		return dist;
+	}
+
+	/**
+	 * Simple getter for the underlying routing table, row-major by dense index.
+	 * Writes go straight to the matrix, so may only be made to a matrix that
+	 * has never been frozen.
+	 *
+	 * @return the next hops
+	 */
+	public int[] nextHops() {
+		return next;
+	}
+
+	/**
+	 * Merge another matrix over the same processes into this one, keeping the
+	 * shorter of the two distances for every pair.
+	 *
+	 * @param other	the matrix to merge in
+	 * @return		dense indices of the endpoints of every pair whose distance
+	 * 				improved
+	 */
+	public int[] mergeMin(DistanceMatrix other) {
+		beforeWrite();
+		int n = ids.length;
+		boolean[] touched = new boolean[n];
+		for (int c = 0; c < n * n; c++) {
+			if (other.dist[c] < dist[c]) {
+				dist[c] = other.dist[c];
+				next[c] = other.next[c];
+				touched[c / n] = true;
+				touched[c % n] = true;
+			}
+		}
+		return indicesOf(touched);
+	}
+
+	/**
+	 * Merge a sparse update into this matrix, keeping the shorter of the two 
+	 * distances for every cell it lists.
+	 *
+	 * @param delta	the update
+	 * @return		dense indices of the endpoints of every pair whose distance
+	 * 				improved
+	 */
+	public int[] mergeMin(MatrixDelta delta) {
+		beforeWrite();
+		int n = ids.length;
+		boolean[] touched = new boolean[n];
+		int[] cells = delta.getCells();
+		double[] deltaDist = delta.getDist();
+		int[] deltaNext = delta.getNext();
+		for (int k = 0; k < cells.length; k++) {
+			int c = cells[k];
+			if (deltaDist[k] < dist[c]) {
+				dist[c] = deltaDist[k];
+				next[c] = deltaNext[k];
+				touched[c / n] = true;
+				touched[c % n] = true;
+			}
+		}
+		return indicesOf(touched);
+	}
+
+	/**
+	 * Merge a sparse update from another process into this one, along with
+	 * that process's star, see {@link #star(int[], HashMap, int)}, which
+	 * the update leaves out; see {@link #diffFromKnown}.
+	 *
+	 * @param delta		the update
+	 * @param costs		edge costs, see {@link common.Process}
+	 * @param senderId	ID of the process the update came from
+	 * @return			dense indices of the endpoints of every pair whose
+	 * 					distance improved
+	 */
+	public int[] mergeMin(MatrixDelta delta, HashMap<Integer, HashMap<Integer, Double>> costs, int senderId) {
+		beforeWrite();
+		int n = ids.length;
+		int center = indexOf(senderId);
+		double[] toSender = toCenter(costs, center);
+		boolean[] touched = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				int c = i * n + j;
+				double d = (i == j) ? 0 : toSender[i] + toSender[j];
+				if (d < dist[c]) {
+					dist[c] = d;
+					next[c] = starHop(center, i, j);
+					touched[i] = true;
+					touched[j] = true;
+				}
+			}
+		}
+		for (int i : mergeMin(delta)) {
+			touched[i] = true;
+		}
+		return indicesOf(touched);
+	}
+
+	/**
+	 * The indices that are set in a flag array
+	 *
+	 * @param flags	the flags
+	 * @return		the indices of the set flags, in increasing order
+	 */
+	private static int[] indicesOf(boolean[] flags) {
+		int count = 0;
+		for (boolean f : flags) {
+			if (f) {
+				count++;
+			}
+		}
+		int[] indices = new int[count];
+		for (int i = 0, k = 0; i < flags.length; i++) {
+			if (flags[i]) {
+				indices[k++] = i;
+			}
+		}
+		return indices;
+	}
+
+	/**
+	 * Shorten paths by going through the given processes: a Floyd-Warshall pass
+	 * restricted to those intermediate processes, see {@link MinPlusKernel}. 
+	 * Costs O(|via| n^2).
+	 *
+	 * If this matrix was the elementwise minimum of two matrices that each
+	 * satisfied the triangle inequality, relaxing through the endpoints of the
+	 * pairs where the second one was strictly better is enough to satisfy it
+	 * again: a shortest path alternates between hops of the two, and every 
+	 * process where it switches is such an endpoint.
+	 *
+	 * @param via	dense indices of the intermediate processes
+	 */
+	public void relaxThrough(int[] via) {
+		beforeWrite();
+		MinPlusKernel.relaxThrough(dist, next, ids.length, via);
+	}
+
+	/**
+	 * The next process on the best known path between two processes
+	 *
+	 * @param fromId	ID of the source
+	 * @param toId		ID of the destination
+	 * @return			ID of the next hop
+	 */
+	public int nextHop(int fromId, int toId) {
+		return ids[getNext(indexOf(fromId), indexOf(toId))];
+	}
+
+	/**
+	 * Reconstruct the best known path between two processes by following the
+	 * routing table.
+	 *
+	 * @param fromId	ID of the source
+	 * @param toId		ID of the destination
+	 * @return			the path, starting at the source and ending at the
+	 * 					destination, with its cost; or null if the routing table
+	 * 					does not lead there
+	 */
+	public PathInfo getPath(int fromId, int toId) {
+		int from = indexOf(fromId);
+		int to = indexOf(toId);
+		ArrayList<Integer> path = new ArrayList<Integer>();
+		path.add(fromId);
+		int curr = from;
+		while (curr != to) {
+			curr = getNext(curr, to);
+			if (curr == NO_HOP || path.size() > ids.length) {
+				return null;
+			}
+			path.add(ids[curr]);
+		}
+		return new PathInfo(path, getDist(from, to));
+	}
+
+	// MEMBERSHIP ////////////////////////////////////////////////////////////
+
+	/**
+	 * A copy of this matrix with a process added, as the last dense index.
+	 * The new process's shortest path to anyone starts with one of its own
+	 * edges and carries on along a path already known, so its row and column
+	 * cost O(n^2); the only other paths it can shorten go through it, and are
+	 * found by relaxing through it, in O(n^2) too. Costs the same as building
+	 * a matrix of the same size, rather than O(n^3) for solving it again.
+	 *
+	 * @param newId		ID of the process to add
+	 * @param costs		edge costs, see {@link common.Process}
+	 * @return			the new matrix
+	 */
+	public DistanceMatrix withMember(int newId, HashMap<Integer, HashMap<Integer, Double>> costs) {
+		int n = ids.length;
+		int[] grown = Arrays.copyOf(ids, n + 1);
+		grown[n] = newId;
+		DistanceMatrix m = new DistanceMatrix(grown);
+		int size = n + 1;
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(dist, i * n, m.dist, i * size, n);
+			System.arraycopy(next, i * n, m.next, i * size, n);
+		}
+		HashMap<Integer, Double> newCosts = costs.get(newId);
+		double[] edge = new double[n];
+		for (int k = 0; k < n; k++) {
+			edge[k] = newCosts.get(ids[k]);
+		}
+		for (int j = 0; j < n; j++) {
+			double best = Double.POSITIVE_INFINITY;
+			int hop = NO_HOP;
+			for (int k = 0; k < n; k++) {
+				double d = edge[k] + dist[k * n + j];
+				if (d < best) {
+					best = d;
+					hop = k;
+				}
+			}
+			// paths are symmetric, so the way back from j ends with the same edge
+			m.dist[n * size + j] = best;
+			m.next[n * size + j] = hop;
+			m.dist[j * size + n] = best;
+			m.next[j * size + n] = (hop == j) ? n : next[j * n + hop];
+		}
+		m.dist[n * size + n] = 0;
+		m.next[n * size + n] = n;
+		m.relaxThrough(new int[] { n });
+		return m;
+	}
+
+	/**
+	 * A copy of this matrix with a process taken out. Paths that did not go
+	 * through it are still shortest, so only the rows of sources with some
+	 * path through it are solved again, each by Dijkstra's algorithm over the
+	 * edges between the processes left, in O(n^2). Which paths went through
+	 * it is found by following the routing table towards each destination,
+	 * once per process, so in O(n^2) in all.
+	 *
+	 * @param oldId		ID of the process to take out
+	 * @param costs		edge costs, see {@link common.Process}
+	 * @return			the new matrix
+	 */
+	public DistanceMatrix withoutMember(int oldId, HashMap<Integer, HashMap<Integer, Double>> costs) {
+		int n = ids.length;
+		int gone = indexOf(oldId);
+		int size = n - 1;
+		int[] kept = new int[size];
+		for (int i = 0, k = 0; i < n; i++) {
+			if (i != gone) {
+				kept[k++] = ids[i];
+			}
+		}
+		DistanceMatrix m = new DistanceMatrix(kept);
+		boolean[] stale = new boolean[n];
+		byte[] through = new byte[n];
+		for (int j = 0; j < n; j++) {
+			if (j == gone) {
+				continue;
+			}
+			// 0 unknown, 1 through the process taken out, 2 not
+			Arrays.fill(through, (byte) 0);
+			through[j] = 2;
+			through[gone] = 1;
+			for (int i = 0; i < n; i++) {
+				int hop = i;
+				while (through[hop] == 0) {
+					hop = next[hop * n + j];
+					if (hop == NO_HOP) {
+						break;
+					}
+				}
+				byte verdict = (hop == NO_HOP) ? 2 : through[hop];
+				for (hop = i; hop != NO_HOP && through[hop] == 0; hop = next[hop * n + j]) {
+					through[hop] = verdict;
+				}
+				if (verdict == 1) {
+					stale[i] = true;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			if (i == gone || stale[i]) {
+				continue;
+			}
+			int row = (i < gone) ? i : i - 1;
+			for (int j = 0; j < n; j++) {
+				if (j != gone) {
+					int hop = next[i * n + j];
+					m.dist[row * size + ((j < gone) ? j : j - 1)] = dist[i * n + j];
+					m.next[row * size + ((j < gone) ? j : j - 1)] = (hop < gone) ? hop : hop - 1;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			if (i != gone && stale[i]) {
+				m.solveRow((i < gone) ? i : i - 1, costs);
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Solve the row of a source afresh by Dijkstra's algorithm over the direct
+	 * edges between the processes, in O(n^2), which is optimal on a complete
+	 * graph.
+	 *
+	 * @param src	dense index of the source
+	 * @param costs	edge costs, see {@link common.Process}
+	 */
+	private void solveRow(int src, HashMap<Integer, HashMap<Integer, Double>> costs) {
+		int n = ids.length;
+		double[] d = new double[n];
+		int[] hop = new int[n];
+		boolean[] done = new boolean[n];
+		Arrays.fill(d, Double.POSITIVE_INFINITY);
+		Arrays.fill(hop, NO_HOP);
+		d[src] = 0;
+		hop[src] = src;
+		for (int round = 0; round < n; round++) {
+			int u = -1;
+			for (int v = 0; v < n; v++) {
+				if (!done[v] && (u == -1 || d[v] < d[u])) {
+					u = v;
+				}
+			}
+			done[u] = true;
+			HashMap<Integer, Double> edges = costs.get(ids[u]);
+			for (int v = 0; v < n; v++) {
+				if (!done[v]) {
+					double w = d[u] + edges.get(ids[v]);
+					if (w < d[v]) {
+						d[v] = w;
+						hop[v] = (u == src) ? v : hop[u];
+					}
+				}
+			}
+		}
+		beforeWrite();
+		System.arraycopy(d, 0, dist, src * n, n);
+		System.arraycopy(hop, 0, next, src * n, n);
+	}
+}
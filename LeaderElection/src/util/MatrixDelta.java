@@ -0,0 +1,85 @@
+package util;
+
+/**
+ * A sparse update to a {@link DistanceMatrix}: a set of cells, each with a new
+ * distance and next hop. Cells are addressed by their row-major position in
+ * the matrix, and listed in increasing order.
+ */
+public class MatrixDelta {
+	/**
+	 * Number of processes in the matrix this applies to
+	 */
+	private int n;
+	/**
+	 * Row-major positions of the updated cells, in increasing order
+	 */
+	private int[] cells;
+	/**
+	 * New distance of each updated cell
+	 */
+	private double[] dist;
+	/**
+	 * New next hop of each updated cell, as a dense index
+	 */
+	private int[] next;
+
+	/**
+	 * Simple constructor
+	 *
+	 * @param n
+	 * @param cells
+	 * @param dist
+	 * @param next
+	 */
+	public MatrixDelta(int n, int[] cells, double[] dist, int[] next) {
+		this.n = n;
+		this.cells = cells;
+		this.dist = dist;
+		this.next = next;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code n}
+	 */
+	public int getN() {
+		return n;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code cells}
+	 */
+	public int[] getCells() {
+		return cells;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code dist}
+	 */
+	public double[] getDist() {
+		return dist;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return {@code next}
+	 */
+	public int[] getNext() {
+		return next;
+	}
+
+	/**
+	 * Simple getter
+	 *
+	 * @return the number of updated cells
+	 */
+	public int size() {
+		return cells.length;
+	}
+}
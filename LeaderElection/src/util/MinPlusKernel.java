@@ -0,0 +1,276 @@
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The min-plus relaxation at the heart of Floyd-Warshall, over a flat row-major
+ * distance matrix with a matching next-hop table (see {@link DistanceMatrix}).
+ *
+ * The intermediate processes are taken in blocks of {@code TILE}, and each
+ * block is relaxed through in the three phases of blocked Floyd-Warshall.
+ * First, the paths between the processes of the block are relaxed through it,
+ * on the calling thread. Then their rows and columns are relaxed through it,
+ * one tile of columns or rows at a time; these depend only on the first phase.
+ * Finally, every other tile is relaxed through the block, which depends only on
+ * the rows and columns of the block, now final. The tiles of each of the last
+ * two phases are independent, so large matrices relax them in parallel on the
+ * common {@link ForkJoinPool}, shared by every process in the simulation, with
+ * one fork and join per phase rather than per intermediate process. Within a
+ * tile, all the intermediate processes of the block are applied while its
+ * cells are in cache. Small matrices are relaxed on the calling thread, where
+ * forking would cost more than it saves.
+ *
+ * Taking the intermediate processes in blocks finds the same shortest paths as
+ * taking them one by one. The intermediate processes need not be consecutive:
+ * the block's "diagonal tile" is just the cells between its processes.
+ */
+public class MinPlusKernel {
+	/**
+	 * Number of rows and columns in a tile, and of intermediate processes in a
+	 * block
+	 */
+	private static final int TILE = 64;
+	/**
+	 * Smallest matrix, in rows, that is relaxed in parallel
+	 */
+	private static final int PARALLEL_MIN_ROWS = 128;
+
+	/**
+	 * Something to do to one tile, by its position
+	 */
+	private interface TileOp {
+		void apply(int tile);
+	}
+
+	/**
+	 * A range of tiles to apply an operation to, split in two until it is a
+	 * single tile
+	 */
+	private static class ForTiles extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private TileOp op;
+		private int lo;
+		private int hi;
+
+		/**
+		 * Simple constructor
+		 *
+		 * @param op
+		 * @param lo	first tile
+		 * @param hi	tile just past the last one
+		 */
+		ForTiles(TileOp op, int lo, int hi) {
+			this.op = op;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo == 1) {
+				op.apply(lo);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new ForTiles(op, lo, mid), new ForTiles(op, mid, hi));
+		}
+	}
+
+	/**
+	 * Shorten paths by going through the given intermediate processes.
+	 *
+	 * @param dist	distances, row-major, n by n
+	 * @param next	next hops, row-major, n by n
+	 * @param n		number of processes
+	 * @param via	indices of the intermediate processes
+	 */
+	public static void relaxThrough(double[] dist, int[] next, int n, int[] via) {
+		boolean parallel = n >= PARALLEL_MIN_ROWS;
+		int tiles = (n + TILE - 1) / TILE;
+		boolean[] inBlock = new boolean[n];
+		for (int b = 0; b < via.length; b += TILE) {
+			int[] block = Arrays.copyOfRange(via, b, Math.min(b + TILE, via.length));
+			for (int k : block) {
+				inBlock[k] = true;
+			}
+			relaxBlock(dist, next, n, block);
+			// rows of the block, by tile of columns, then columns of the block, by tile of rows
+			forTiles(2 * tiles, parallel, t -> {
+				if (t < tiles) {
+					relaxBlockRows(dist, next, n, block, inBlock, t * TILE, Math.min(n, (t + 1) * TILE));
+				} else {
+					int lo = (t - tiles) * TILE;
+					relaxBlockColumns(dist, next, n, block, inBlock, lo, Math.min(n, lo + TILE));
+				}
+			});
+			// everything else, by tile of rows
+			forTiles(tiles, parallel, t -> relaxRest(dist, next, n, block, inBlock, t * TILE,
+					Math.min(n, (t + 1) * TILE)));
+			for (int k : block) {
+				inBlock[k] = false;
+			}
+		}
+	}
+
+	/**
+	 * Apply an operation to every tile, in parallel or on the calling thread
+	 *
+	 * @param count		number of tiles
+	 * @param parallel	whether to fork
+	 * @param op		the operation
+	 */
+	private static void forTiles(int count, boolean parallel, TileOp op) {
+		if (count == 0) {
+			return;
+		}
+		if (parallel) {
+			ForkJoinPool.commonPool().invoke(new ForTiles(op, 0, count));
+			return;
+		}
+		for (int t = 0; t < count; t++) {
+			op.apply(t);
+		}
+	}
+
+	/**
+	 * Phase one: relax the paths between the processes of a block through it
+	 *
+	 * @param dist	distances, row-major, n by n
+	 * @param next	next hops, row-major, n by n
+	 * @param n		number of processes
+	 * @param block	indices of the intermediate processes in the block
+	 */
+	private static void relaxBlock(double[] dist, int[] next, int n, int[] block) {
+		for (int k : block) {
+			int rowK = k * n;
+			for (int i : block) {
+				int rowI = i * n;
+				double viaK = dist[rowI + k];
+				if (viaK == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				int hop = next[rowI + k];
+				for (int j : block) {
+					double newCost = viaK + dist[rowK + j];
+					if (newCost < dist[rowI + j]) {
+						dist[rowI + j] = newCost;
+						next[rowI + j] = hop;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Phase two: relax the rows of a block through it, over a tile of columns
+	 * outside it
+	 *
+	 * @param dist		distances, row-major, n by n
+	 * @param next		next hops, row-major, n by n
+	 * @param n			number of processes
+	 * @param block		indices of the intermediate processes in the block
+	 * @param inBlock	whether each process is in the block
+	 * @param lo		first column of the tile
+	 * @param hi		column just past the tile
+	 */
+	private static void relaxBlockRows(double[] dist, int[] next, int n, int[] block, boolean[] inBlock, int lo,
+			int hi) {
+		for (int k : block) {
+			int rowK = k * n;
+			for (int i : block) {
+				int rowI = i * n;
+				double viaK = dist[rowI + k];
+				if (viaK == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				int hop = next[rowI + k];
+				for (int j = lo; j < hi; j++) {
+					double newCost = viaK + dist[rowK + j];
+					if (!inBlock[j] && newCost < dist[rowI + j]) {
+						dist[rowI + j] = newCost;
+						next[rowI + j] = hop;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Phase two: relax the columns of a block through it, over a tile of rows
+	 * outside it
+	 *
+	 * @param dist		distances, row-major, n by n
+	 * @param next		next hops, row-major, n by n
+	 * @param n			number of processes
+	 * @param block		indices of the intermediate processes in the block
+	 * @param inBlock	whether each process is in the block
+	 * @param lo		first row of the tile
+	 * @param hi		row just past the tile
+	 */
+	private static void relaxBlockColumns(double[] dist, int[] next, int n, int[] block, boolean[] inBlock, int lo,
+			int hi) {
+		for (int i = lo; i < hi; i++) {
+			if (inBlock[i]) {
+				continue;
+			}
+			int rowI = i * n;
+			for (int k : block) {
+				int rowK = k * n;
+				double viaK = dist[rowI + k];
+				if (viaK == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				int hop = next[rowI + k];
+				for (int j : block) {
+					double newCost = viaK + dist[rowK + j];
+					if (newCost < dist[rowI + j]) {
+						dist[rowI + j] = newCost;
+						next[rowI + j] = hop;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Phase three: relax a tile of rows outside a block through it, over every
+	 * column outside it, one tile of columns at a time
+	 *
+	 * @param dist		distances, row-major, n by n
+	 * @param next		next hops, row-major, n by n
+	 * @param n			number of processes
+	 * @param block		indices of the intermediate processes in the block
+	 * @param inBlock	whether each process is in the block
+	 * @param lo		first row of the tile
+	 * @param hi		row just past the tile
+	 */
+	private static void relaxRest(double[] dist, int[] next, int n, int[] block, boolean[] inBlock, int lo, int hi) {
+		for (int jlo = 0; jlo < n; jlo += TILE) {
+			int jhi = Math.min(n, jlo + TILE);
+			for (int k : block) {
+				int rowK = k * n;
+				for (int i = lo; i < hi; i++) {
+					if (inBlock[i]) {
+						continue;
+					}
+					int rowI = i * n;
+					double viaK = dist[rowI + k];
+					if (viaK == Double.POSITIVE_INFINITY) {
+						continue;
+					}
+					int hop = next[rowI + k];
+					for (int j = jlo; j < jhi; j++) {
+						double newCost = viaK + dist[rowK + j];
+						if (!inBlock[j] && newCost < dist[rowI + j]) {
+							dist[rowI + j] = newCost;
+							next[rowI + j] = hop;
+						}
+					}
+				}
+			}
+		}
+	}
+}